@@ -0,0 +1,91 @@
+package simulation.classes;
+
+/**
+ * Accelerations of the bodies kept by an integrator between steps. The forces at the
+ * end of one step are those at the start of the next one, so they can be reused as long
+ * as the bodies haven't been moved or edited, turned into test particles or back, and the
+ * solver and its settings haven't changed since.
+ */
+final class Accelerations {
+
+	double[] ax = new double[0];
+	double[] ay = new double[0];
+
+	// What the accelerations were computed from
+	private double[] lastX = new double[0];
+	private double[] lastY = new double[0];
+	private double[] lastMass = new double[0];
+	private boolean[] lastTestParticle = new boolean[0];
+	private int lastCount = -1;
+	private Simulation lastSimulation;
+	private int lastSettings;
+
+	/**
+	 * @param n Number of bodies the arrays must hold
+	 */
+	void resize(int n){
+		if(ax.length < n){
+			ax = new double[n];
+			ay = new double[n];
+		}
+	}
+
+	/**
+	 * Take the accelerations of a range of bodies from the forces in the store
+	 *
+	 * @param bodies Bodies whose forces have just been computed
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 */
+	void update(BodyStore bodies, int from, int to){
+		for(int i = from; i < to; i++){
+			double inertia = BodyStore.inertia(bodies.mass[i]);
+			ax[i] = bodies.fx[i] / inertia;
+			ay[i] = bodies.fy[i] / inertia;
+		}
+	}
+
+	/**
+	 * Keep what the current accelerations were computed from
+	 *
+	 * @param simulation Simulation that computed the forces
+	 * @param bodies Bodies in the state the accelerations belong to
+	 */
+	void remember(Simulation simulation, BodyStore bodies){
+		int n = bodies.count;
+		if(lastX.length < n){
+			lastX 		= new double[n];
+			lastY 		= new double[n];
+			lastMass 	= new double[n];
+			lastTestParticle = new boolean[n];
+		}
+
+		System.arraycopy(bodies.x, 0, lastX, 0, n);
+		System.arraycopy(bodies.y, 0, lastY, 0, n);
+		System.arraycopy(bodies.mass, 0, lastMass, 0, n);
+		System.arraycopy(bodies.testParticle, 0, lastTestParticle, 0, n);
+		lastCount = n;
+		lastSimulation = simulation;
+		lastSettings = simulation.getForceSettings();
+	}
+
+	/**
+	 * @param simulation Simulation about to be stepped
+	 * @param bodies Bodies about to be stepped
+	 * @return True if the remembered accelerations still hold for the bodies
+	 */
+	boolean isCurrent(Simulation simulation, BodyStore bodies){
+		if(simulation != lastSimulation || simulation.getForceSettings() != lastSettings
+				|| bodies.count != lastCount){
+			return false;
+		}
+		for(int i = 0; i < lastCount; i++){
+			if(bodies.x[i] != lastX[i] || bodies.y[i] != lastY[i] || bodies.mass[i] != lastMass[i]
+					|| bodies.testParticle[i] != lastTestParticle[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,378 @@
+package simulation.classes;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Micro-benchmarks of the simulation kernels and the renderer. Every benchmark is run
+ * for each combination of body count and scenario, with a warm-up phase followed by
+ * several timed iterations, and reported as mean time per operation with its standard
+ * deviation across iterations.
+ *
+ *   java simulation.classes.Benchmarks [options]
+ *
+ *   --bodies 9,100,1000   body counts (default 9,100,1000,10000,100000)
+ *   --scenario solar      solar (Sun, planets and small bodies) and/or random (default both),
+ *                         or any of ScenarioGenerator's: belt, kuiper, plummer, galaxies
+ *   --bench step,force    step, force, integrate, alloc and/or render (default all)
+ *   --solver bh           bf, simd, bh or fmm (default bf), simd needs --add-modules jdk.incubator.vector
+ *   --precision mixed     double or mixed, for bf and simd (default double)
+ *   --threads 4           worker threads (default 1)
+ *   --iterations 5        timed iterations (default 5)
+ *   --time 1              seconds per warm-up and per timed iteration (default 1)
+ *
+ * The render benchmark draws onto an offscreen canvas and takes a snapshot of it, so it
+ * needs the JavaFX toolkit and is skipped when it can't be started (e.g. no display).
+ *
+ * The alloc benchmark checks that a steady-state step and the per-frame work that doesn't
+ * need the toolkit (snapshot, traces, cached label text) allocate nothing, by counting the
+ * bytes allocated by the thread. It reports bytes per operation, and the program exits
+ * with status 1 if every timed iteration allocated. Code compiled during the warm-up is
+ * still thrown away and compiled again later, when a branch is first taken (e.g. once the
+ * traces fill up), and an iteration where that happens can count a few hundred bytes the
+ * JIT allocated. So only an allocation seen in all of them is taken for one of the step's
+ * or frame's own.
+ */
+public class Benchmarks {
+
+	private static final long SEED = 42;
+
+	private static volatile double sink;	// results are written here so the JIT can't drop the work
+
+	private static Boolean toolkit;			// whether the JavaFX toolkit could be started, null before trying
+
+	private Benchmarks(){}
+
+	/**
+	 * One operation of a benchmark
+	 */
+	interface Operation {
+		void run();
+	}
+
+	public static void main(String[] args) {
+
+		String[] bodies = { "9", "100", "1000", "10000", "100000" };
+		String[] scenarios = { "solar", "random" };
+		String[] benches = { "step", "force", "integrate", "alloc", "render" };
+		String solver = "bf";
+		String precision = "double";
+		int threads = 1;
+		int iterations = 5;
+		double time = 1;
+
+		for(int i = 0; i + 1 < args.length; i += 2){
+			switch(args[i]){
+			case "--bodies":
+				bodies = args[i + 1].split(",");
+				break;
+			case "--scenario":
+				scenarios = args[i + 1].split(",");
+				break;
+			case "--bench":
+				benches = args[i + 1].split(",");
+				break;
+			case "--solver":
+				solver = args[i + 1];
+				break;
+			case "--precision":
+				precision = args[i + 1];
+				break;
+			case "--threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "--iterations":
+				iterations = Integer.parseInt(args[i + 1]);
+				break;
+			case "--time":
+				time = Double.parseDouble(args[i + 1]);
+				break;
+			default:
+				System.err.println("Unknown option " + args[i]);
+				System.exit(2);
+			}
+		}
+
+		System.out.println(String.format(Locale.ROOT, "%-10s %-8s %8s %-7s %7s %14s    %12s  %s",
+				"Benchmark", "Scenario", "Bodies", "Solver", "Threads", "Score", "Error", "Units"));
+
+		boolean allocated = false;
+		String label = precision.equals("double") ? solver : solver + "/" + precision;	// shown as the solver
+
+		for(String bench : benches){
+			for(String scenario : scenarios){
+				for(String count : bodies){
+					int n = Integer.parseInt(count.trim());
+					double[] result = run(bench, scenario, n, solver, precision, threads, iterations, time);
+
+					if(result == null){
+						System.out.println(String.format(Locale.ROOT, "%-10s %-8s %8d %-7s %7d   skipped (no JavaFX toolkit)",
+								bench, scenario, n, label, threads));
+					}else{
+						System.out.println(String.format(Locale.ROOT, "%-10s %-8s %8d %-7s %7d %14.4f +- %12.4f  %s",
+								bench, scenario, n, label, threads, result[0], result[1],
+								bench.equals("alloc") ? "bytes/op" : "ms/op"));
+						allocated |= bench.equals("alloc") && result[2] > 0;
+					}
+				}
+			}
+		}
+
+		if(toolkit == Boolean.TRUE){
+			Platform.exit();
+		}
+		if(allocated){
+			System.out.println("Allocation check failed: steady-state steps or frames allocate memory");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return Mean and standard deviation in milliseconds per operation, null if the
+	 * 			benchmark could not run
+	 */
+	private static double[] run(String bench, String scenario, int count, String solver, String precision,
+			int threads, int iterations, double time){
+
+		ArrayList<Planet> planets = createPlanets(scenario, count);
+		Simulation sim = HeadlessRunner.createSimulation(solver, SimulationBH.DEFAULT_THETA, 0,
+				SimulationFMM.DEFAULT_ORDER);
+		HeadlessRunner.setPrecision(sim, precision);
+		sim.setThreads(threads);
+
+		// One step binds the planets to the store and leaves sensible forces in it
+		sim.checkForces(planets);
+		BodyStore bodies = sim.getBodies();
+
+		try{
+			switch(bench){
+			case "step":
+				return measure(() -> {
+					sim.checkForces(planets);
+					sink = bodies.x[0];
+				}, iterations, time);
+			case "force":
+				return measure(() -> {
+					sim.computeForces(bodies);
+					sink = bodies.fx[0];
+				}, iterations, time);
+			case "integrate":
+				return measure(() -> {
+					Simulation.integrate(bodies, 0, bodies.count, Simulation.timestep);
+					sink = bodies.x[0];
+				}, iterations, time);
+			case "alloc":
+				return measureAllocation(sim, planets, iterations, time);
+			case "render":
+				return measureRender(planets, iterations, time);
+			default:
+				throw new IllegalArgumentException("Unknown benchmark " + bench);
+			}
+		}finally{
+			sim.shutdown();
+		}
+	}
+
+	/**
+	 * @param scenario solar, random or the name of a kind of ScenarioGenerator
+	 * @param count Number of bodies
+	 * @return Initial conditions of the scenario
+	 */
+	static ArrayList<Planet> createPlanets(String scenario, int count){
+		switch(scenario){
+		case "solar":
+			return Scenarios.solarSystemLike(count, SEED);
+		case "random":
+			return Scenarios.randomDisk(count, SEED);
+		default:
+			return new ScenarioGenerator(ScenarioGenerator.Kind.named(scenario), count, SEED).generate();
+		}
+	}
+
+	/**
+	 * Warm up for the given time, then time the operation over several iterations
+	 *
+	 * @param operation Operation to measure
+	 * @param iterations Number of timed iterations
+	 * @param time Seconds spent warming up and in each iteration, at least one operation is always run
+	 * @return Mean and standard deviation in milliseconds per operation
+	 */
+	static double[] measure(Operation operation, int iterations, double time){
+
+		long budget = (long) (time * 1e9);
+
+		long warmupEnd = System.nanoTime() + budget;
+		do{
+			operation.run();
+		}while(System.nanoTime() < warmupEnd);
+
+		double[] scores = new double[iterations];
+		for(int i = 0; i < iterations; i++){
+			long start = System.nanoTime();
+			long now;
+			long operations = 0;
+
+			do{
+				operation.run();
+				operations++;
+				now = System.nanoTime();
+			}while(now - start < budget);
+
+			scores[i] = (now - start) / 1e6 / operations;
+		}
+
+		double mean = 0;
+		for(double score : scores){
+			mean += score / iterations;
+		}
+
+		double variance = 0;
+		for(double score : scores){
+			variance += (score - mean) * (score - mean) / Math.max(1, iterations - 1);
+		}
+
+		return new double[]{ mean, Math.sqrt(variance) };
+	}
+
+	/**
+	 * Count the bytes allocated by this thread for a simulation step followed by what the UI
+	 * does with its result without drawing: take a snapshot, add it to the traces and get the
+	 * label text of the first few bodies. The labels are looked at once beforehand and then
+	 * kept, as between two of their updates.
+	 *
+	 * @return Mean, standard deviation and minimum over the iterations in bytes per
+	 * 			operation, null if the JVM can't count allocations
+	 */
+	private static double[] measureAllocation(Simulation sim, ArrayList<Planet> planets, int iterations, double time){
+
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean)){
+			return null;
+		}
+		com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+		long thread = Thread.currentThread().getId();
+		if(!counter.isThreadAllocatedMemorySupported()){
+			return null;
+		}
+		counter.setThreadAllocatedMemoryEnabled(true);
+
+		BodyStore bodies = sim.getBodies();
+		Snapshot snapshot = new Snapshot();
+		TraceStore traces = new TraceStore();
+		LabelCache labels = new LabelCache();
+		double[] lastX = new double[bodies.count];
+		double[] lastY = new double[bodies.count];
+		int labelled = Math.min(5, bodies.count);
+
+		Operation frame = () -> {
+			sim.checkForces(planets);
+			snapshot.fill(bodies, 0, lastX, lastY);
+			System.arraycopy(bodies.x, 0, lastX, 0, bodies.count);
+			System.arraycopy(bodies.y, 0, lastY, 0, bodies.count);
+			traces.add(snapshot);
+
+			labels.beginFrame(0, labelled);
+			for(int i = 0; i < labelled; i++){
+				sink = labels.get(planets.get(i), snapshot, i).length();
+			}
+		};
+
+		// Warm up, which also sizes all buffers, then count over as many operations as fit
+		// in the iteration's time
+		double[] perOperation = measure(frame, 1, time);
+		int operations = (int) Math.max(1, Math.min(100000, time * 1e3 / perOperation[0]));
+
+		double[] scores = new double[iterations];
+		double fewest = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < iterations; i++){
+			long before = counter.getThreadAllocatedBytes(thread);
+			long overhead = counter.getThreadAllocatedBytes(thread) - before;
+
+			before = counter.getThreadAllocatedBytes(thread);
+			for(int k = 0; k < operations; k++){
+				frame.run();
+			}
+			long bytes = counter.getThreadAllocatedBytes(thread) - before - overhead;
+			scores[i] = Math.max(0, bytes) / (double) operations;
+			fewest = Math.min(fewest, scores[i]);
+		}
+
+		double mean = 0;
+		for(double score : scores){
+			mean += score / iterations;
+		}
+		double variance = 0;
+		for(double score : scores){
+			variance += (score - mean) * (score - mean) / Math.max(1, iterations - 1);
+		}
+
+		return new double[]{ mean, Math.sqrt(variance), fewest };
+	}
+
+	/**
+	 * Time what Main does every frame: clear the canvas, draw the planets with labels,
+	 * traces and lines to the Sun, then force the canvas to be rasterised by taking a
+	 * snapshot. Runs on the JavaFX application thread.
+	 */
+	private static double[] measureRender(ArrayList<Planet> planets, int iterations, double time){
+
+		if(!startToolkit()){
+			return null;
+		}
+
+		AtomicReference<double[]> result = new AtomicReference<double[]>();
+		CountDownLatch done = new CountDownLatch(1);
+
+		Platform.runLater(() -> {
+			try{
+				Canvas mainCanvas = new Canvas(1000, 735);
+				Canvas traceCanvas = new Canvas(1000, 735);
+				WritableImage image = new WritableImage(1000, 735);
+
+				PlanetRenderer renderer = new PlanetRenderer();
+				renderer.setTraces(true);
+				renderer.setLabels(true);
+				renderer.setLinesToSun(true);
+
+				result.set(measure(() -> {
+					mainCanvas.getGraphicsContext2D().clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
+					traceCanvas.getGraphicsContext2D().clearRect(0, 0, traceCanvas.getWidth(), traceCanvas.getHeight());
+					renderer.draw(planets, mainCanvas.getGraphicsContext2D(), traceCanvas.getGraphicsContext2D());
+					mainCanvas.snapshot(null, image);
+					sink = image.getWidth();
+				}, iterations, time));
+			}finally{
+				done.countDown();
+			}
+		});
+
+		try{
+			done.await();
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+
+		return result.get();
+	}
+
+	private static boolean startToolkit(){
+		if(toolkit == null){
+			try{
+				Platform.startup(() -> {});
+				Platform.setImplicitExit(false);
+				toolkit = true;
+			}catch(RuntimeException | Error ex){
+				toolkit = false;
+			}
+		}
+		return toolkit;
+	}
+
+}
@@ -0,0 +1,441 @@
+package simulation.classes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Binary system files, for systems too large to save as text. All values are little-endian:
+ *
+ *   header (32 bytes)   "SSIM", version, flags, body count, name bytes, payload bytes
+ *   payload             one column per property, in body order:
+ *                         posX, posY, velX, velY, forceX, forceY, mass, size   (doubles)
+ *                         colour as 0xRRGGBBAA, byte length of each name       (ints)
+ *                         all names one after the other                        (UTF-8)
+ *                         1 for a test particle, 0 otherwise, if flagged       (bytes)
+ *
+ * With the DEFLATE flag the payload is stored deflate-compressed. Uncompressed files are
+ * read through a memory mapping, so loading costs little more than creating the planets.
+ * The TEST_PARTICLES flag is only set if there are test particles, so files without any
+ * stay readable by older versions.
+ */
+public class BinarySystemFile {
+
+	public static final String EXTENSION = ".ssim";
+
+	static final int MAGIC = 0x4D495353;			// "SSIM" read as a little-endian int
+	static final int VERSION = 1;
+	static final int FLAG_DEFLATE = 1;
+	static final int FLAG_TEST_PARTICLES = 2;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int DOUBLE_COLUMNS = 8;
+	private static final int CHUNK = 1 << 20;		// bytes written at a time
+	private static final int RANGE = 1 << 16;		// planets created and written together when streaming
+	private static final byte TEST_PARTICLE = 1;
+	private static final byte OTHER = 0;
+
+	private BinarySystemFile(){}
+
+	/**
+	 * @param file A file
+	 * @return True if the file starts like a binary system file
+	 */
+	public static boolean isBinary(File file){
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while(magic.hasRemaining() && channel.read(magic) >= 0){}
+			return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+		}catch(IOException ex){
+			return false;
+		}
+	}
+
+	/**
+	 * @param file File to read
+	 * @return Planets stored in the file, in file order
+	 * @throws IOException If the file can't be read or isn't a binary system file
+	 */
+	public static ArrayList<Planet> load(File file) throws IOException{
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining()){
+				if(channel.read(header) < 0){
+					throw new IOException(file + ": too short for a binary system file");
+				}
+			}
+			header.flip();
+
+			if(header.getInt() != MAGIC){
+				throw new IOException(file + ": not a binary system file");
+			}
+			int version = header.getInt();
+			if(version > VERSION){
+				throw new IOException(file + ": unsupported version " + version);
+			}
+			int flags 		= header.getInt();
+			int count 		= header.getInt();
+			long nameBytes 	= header.getLong();
+			long payload 	= header.getLong();
+
+			boolean tests = (flags & FLAG_TEST_PARTICLES) != 0;
+			if(count < 0 || nameBytes < 0 || payload != payloadSize(count, nameBytes, tests)
+					|| payload > Integer.MAX_VALUE){
+				throw new IOException(file + ": corrupt header");
+			}
+
+			ByteBuffer data;
+			if((flags & FLAG_DEFLATE) != 0){
+				byte[] bytes = new byte[(int) payload];
+				InputStream input = new InflaterInputStream(Channels.newInputStream(channel), new Inflater(), CHUNK);
+				new DataInputStream(input).readFully(bytes);
+				data = ByteBuffer.wrap(bytes);
+			}else{
+				if(channel.size() < HEADER_SIZE + payload){
+					throw new IOException(file + ": truncated");
+				}
+				data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, payload);
+			}
+			data.order(ByteOrder.LITTLE_ENDIAN);
+
+			return read(data, count, (int) nameBytes, tests);
+		}
+	}
+
+	private static ArrayList<Planet> read(ByteBuffer data, int count, int nameBytes, boolean tests){
+
+		double[][] columns = new double[DOUBLE_COLUMNS][count];
+		for(double[] column : columns){
+			data.asDoubleBuffer().get(column);
+			data.position(data.position() + count * 8);
+		}
+
+		int[] colours = new int[count];
+		data.asIntBuffer().get(colours);
+		data.position(data.position() + count * 4);
+
+		int[] nameLengths = new int[count];
+		data.asIntBuffer().get(nameLengths);
+		data.position(data.position() + count * 4);
+
+		byte[] names = new byte[nameBytes];
+		data.get(names);
+
+		byte[] testParticles = new byte[tests ? count : 0];
+		data.get(testParticles);
+
+		// Most systems only use a handful of colours, share them between the planets
+		HashMap<Integer, Color> palette = new HashMap<Integer, Color>();
+
+		ArrayList<Planet> planets = new ArrayList<Planet>(count);
+		int nameOffset = 0;
+		for(int i = 0; i < count; i++){
+			String name = new String(names, nameOffset, nameLengths[i], StandardCharsets.UTF_8);
+			nameOffset += nameLengths[i];
+
+			Color colour = palette.get(colours[i]);
+			if(colour == null){
+				int rgba = colours[i];
+				colour = Color.rgb(rgba >>> 24, (rgba >>> 16) & 0xff, (rgba >>> 8) & 0xff, (rgba & 0xff) / 255.0);
+				palette.put(rgba, colour);
+			}
+
+			Planet planet = new Planet(name, columns[0][i], columns[1][i], columns[2][i], columns[3][i],
+					columns[4][i], columns[5][i], columns[6][i], colour, columns[7][i]);
+			planet.setTestParticle(tests && testParticles[i] != 0);
+			planets.add(planet);
+		}
+
+		return planets;
+	}
+
+	/**
+	 * @param file File to write, replaced if it exists
+	 * @param planets Planets to save
+	 * @param compress True to deflate the payload, smaller but slower to read and write
+	 * @throws IOException If the file can't be written
+	 */
+	public static void save(File file, List<Planet> planets, boolean compress) throws IOException{
+
+		int count = planets.size();
+		byte[][] names = new byte[count][];
+		long nameBytes = 0;
+		boolean tests = false;
+		for(int i = 0; i < count; i++){
+			names[i] = planets.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[i].length;
+			tests |= planets.get(i).isTestParticle();
+		}
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt((compress ? FLAG_DEFLATE : 0) | (tests ? FLAG_TEST_PARTICLES : 0));
+			header.putInt(count).putLong(nameBytes).putLong(payloadSize(count, nameBytes, tests));
+			header.flip();
+			writeFully(channel, header);
+
+			OutputStream deflated = null;
+			WritableByteChannel output = channel;
+			if(compress){
+				deflated = new DeflaterOutputStream(Channels.newOutputStream(channel), new Deflater(Deflater.BEST_SPEED), CHUNK);
+				output = Channels.newChannel(deflated);
+			}
+
+			ColumnWriter writer = new ColumnWriter(output);
+			for(int column = 0; column < DOUBLE_COLUMNS; column++){
+				for(Planet planet : planets){
+					writer.putDouble(doubleColumn(planet, column));
+				}
+			}
+			for(Planet planet : planets){
+				writer.putInt(rgba(planet.getColor()));
+			}
+			for(byte[] name : names){
+				writer.putInt(name.length);
+			}
+			for(byte[] name : names){
+				writer.put(name);
+			}
+			if(tests){
+				for(Planet planet : planets){
+					writer.put(planet.isTestParticle() ? TEST_PARTICLE : OTHER);
+				}
+			}
+			writer.flush();
+
+			if(deflated != null){
+				deflated.close();
+			}
+		}
+	}
+
+	/**
+	 * Write an uncompressed file of planets created while it's written, for systems too
+	 * large to hold as planets all at once. Ranges of planets are created in parallel and
+	 * each written straight to its place in every column; only their names are kept until
+	 * the end, as where they go depends on the lengths of all names before them.
+	 *
+	 * @param file File to write, replaced if it exists
+	 * @param count Number of planets
+	 * @param planets Creates the planet at an index, called from several threads at once
+	 * @throws IOException If the file can't be written, or the system is too large for one
+	 */
+	public static void save(File file, int count, IntFunction<Planet> planets) throws IOException{
+
+		long fixedBytes = (long) count * (DOUBLE_COLUMNS * 8 + 8);
+		if(fixedBytes > Integer.MAX_VALUE){
+			throw new IOException(file + ": " + count + " bodies are too many for one file");
+		}
+
+		int ranges = (count + RANGE - 1) / RANGE;
+		byte[][] names = new byte[ranges][];
+		byte[] testParticles = new byte[count];
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+
+			try{
+				IntStream.range(0, ranges).parallel().forEach(range -> {
+					try{
+						names[range] = writeRange(channel, count, range, planets, testParticles);
+					}catch(IOException ex){
+						throw new UncheckedIOException(ex);
+					}
+				});
+			}catch(UncheckedIOException ex){
+				throw ex.getCause();
+			}
+
+			long nameBytes = 0;
+			for(byte[] range : names){
+				nameBytes += range.length;
+			}
+			boolean tests = false;
+			for(byte test : testParticles){
+				tests |= test != 0;
+			}
+			if(payloadSize(count, nameBytes, tests) > Integer.MAX_VALUE){
+				throw new IOException(file + ": names of the bodies are too long for one file");
+			}
+
+			long position = HEADER_SIZE + fixedBytes;
+			for(byte[] range : names){
+				writeFully(channel, ByteBuffer.wrap(range), position);
+				position += range.length;
+			}
+			if(tests){
+				writeFully(channel, ByteBuffer.wrap(testParticles), position);
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(tests ? FLAG_TEST_PARTICLES : 0).putInt(count);
+			header.putLong(nameBytes).putLong(payloadSize(count, nameBytes, tests));
+			header.flip();
+			writeFully(channel, header, 0);
+		}
+	}
+
+	/**
+	 * Create one range of planets and write their columns, all but the names and test particles
+	 *
+	 * @param testParticles Receives the range's column of test particles
+	 * @return Names of the planets, one after the other in UTF-8
+	 */
+	private static byte[] writeRange(FileChannel channel, int count, int range, IntFunction<Planet> planets,
+			byte[] testParticles) throws IOException{
+
+		int from = range * RANGE;
+		int length = Math.min(RANGE, count - from);
+
+		Planet[] created = new Planet[length];
+		for(int i = 0; i < length; i++){
+			created[i] = planets.apply(from + i);
+			testParticles[from + i] = created[i].isTestParticle() ? TEST_PARTICLE : OTHER;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		long columnStart = HEADER_SIZE;
+		for(int column = 0; column < DOUBLE_COLUMNS; column++){
+			buffer.clear();
+			for(Planet planet : created){
+				buffer.putDouble(doubleColumn(planet, column));
+			}
+			buffer.flip();
+			writeFully(channel, buffer, columnStart + (long) from * 8);
+			columnStart += (long) count * 8;
+		}
+
+		ByteArrayOutputStream names = new ByteArrayOutputStream(length * 16);
+		buffer.clear();
+		for(Planet planet : created){
+			buffer.putInt(rgba(planet.getColor()));
+		}
+		buffer.flip();
+		writeFully(channel, buffer, columnStart + (long) from * 4);
+		columnStart += (long) count * 4;
+
+		buffer.clear();
+		for(Planet planet : created){
+			byte[] name = planet.getName().getBytes(StandardCharsets.UTF_8);
+			buffer.putInt(name.length);
+			names.write(name, 0, name.length);
+		}
+		buffer.flip();
+		writeFully(channel, buffer, columnStart + (long) from * 4);
+
+		return names.toByteArray();
+	}
+
+	private static long payloadSize(int count, long nameBytes, boolean tests){
+		return (long) count * (DOUBLE_COLUMNS * 8 + 8 + (tests ? 1 : 0)) + nameBytes;
+	}
+
+	private static double doubleColumn(Planet planet, int column){
+		switch(column){
+		case 0: return planet.getPosX();
+		case 1: return planet.getPosY();
+		case 2: return planet.getVelX();
+		case 3: return planet.getVelY();
+		case 4: return planet.getForceX();
+		case 5: return planet.getForceY();
+		case 6: return planet.getMass();
+		default: return planet.getSize();
+		}
+	}
+
+	private static int rgba(Color colour){
+		return (int) Math.round(colour.getRed() * 255) << 24 | (int) Math.round(colour.getGreen() * 255) << 16
+				| (int) Math.round(colour.getBlue() * 255) << 8 | (int) Math.round(colour.getOpacity() * 255);
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException{
+		while(buffer.hasRemaining()){
+			position += channel.write(buffer, position);
+		}
+	}
+
+	/**
+	 * Gathers little-endian values into a buffer that is written out whenever it is full
+	 */
+	private static class ColumnWriter {
+
+		private final WritableByteChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+
+		ColumnWriter(WritableByteChannel channel){
+			this.channel = channel;
+		}
+
+		void putDouble(double value) throws IOException{
+			if(buffer.remaining() < 8){
+				flush();
+			}
+			buffer.putDouble(value);
+		}
+
+		void putInt(int value) throws IOException{
+			if(buffer.remaining() < 4){
+				flush();
+			}
+			buffer.putInt(value);
+		}
+
+		void put(byte value) throws IOException{
+			if(!buffer.hasRemaining()){
+				flush();
+			}
+			buffer.put(value);
+		}
+
+		void put(byte[] bytes) throws IOException{
+			int offset = 0;
+			while(offset < bytes.length){
+				if(!buffer.hasRemaining()){
+					flush();
+				}
+				int length = Math.min(buffer.remaining(), bytes.length - offset);
+				buffer.put(bytes, offset, length);
+				offset += length;
+			}
+		}
+
+		void flush() throws IOException{
+			buffer.flip();
+			writeFully(channel, buffer);
+			buffer.clear();
+		}
+
+	}
+
+}
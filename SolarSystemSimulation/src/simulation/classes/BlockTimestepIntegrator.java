@@ -0,0 +1,245 @@
+package simulation.classes;
+
+/**
+ * Leapfrog with individual block timesteps. Every body steps with a power-of-two fraction
+ * of the timestep, timestep / 2^level, chosen from its own dynamical time |a| / |da/dt|.
+ * The timestep is split into substeps of the deepest level in use. All bodies drift
+ * through every substep, which is cheap, but forces are only computed for the bodies
+ * whose own step ends there, so an outer planet costs one force evaluation per timestep
+ * while Mercury gets as many as it needs.
+ *
+ * Levels are chosen again at the end of every timestep, when all bodies are in step.
+ * The rate of change of a body's acceleration is measured from the accelerations at the
+ * start and end of its last step, or by finite differences when the system is new.
+ *
+ * Force evaluations are counted in evaluations of all bodies, so computing the forces on
+ * a tenth of the bodies counts as a tenth.
+ */
+public class BlockTimestepIntegrator implements Integrator {
+
+	public static final double DEFAULT_ETA = 0.05;
+	public static final int MAX_LEVEL = 10;			// steps are never shorter than timestep / 2^MAX_LEVEL
+
+	private final double eta;						// fraction of the dynamical time used as step
+
+	private final Accelerations accelerations = new Accelerations();
+
+	private int[] level = new int[0];				// level of each body during the current timestep
+	private double[] preferred = new double[0];		// step in years each body asked for at the end of its last step
+	private double[] jerkX = new double[0];			// scratch for the finite difference estimate
+	private double[] jerkY = new double[0];
+	private int[] active = new int[0];				// bodies whose step ends at the current substep
+	private int activeCount;
+	private int deepest = 0;
+
+	private double evaluations = 0;
+	private long substeps = 0;
+
+	private BodyStore bodies;						// arguments of the substep being run, for the range actions
+	private double stepSize;
+	private final Simulation.RangeAction driftAction = (from, to) -> SymplecticIntegrator.drift(bodies, from, to, stepSize);
+	private Simulation simulation;
+	private final Simulation.RangeAction activeAction = (from, to) -> closeSteps(simulation, bodies, from, to, stepSize);
+
+	public BlockTimestepIntegrator(){
+		this(DEFAULT_ETA);
+	}
+
+	/**
+	 * @param eta Fraction of each body's dynamical time used as its step, smaller is more accurate
+	 */
+	public BlockTimestepIntegrator(double eta){
+		if(!(eta > 0)){
+			throw new IllegalArgumentException("Eta must be positive: " + eta);
+		}
+		this.eta = eta;
+	}
+
+	@Override
+	public void step(Simulation simulation, BodyStore bodies, double timestep){
+
+		int n = bodies.count;
+		this.simulation = simulation;
+		this.bodies 	= bodies;
+		resize(n);
+
+		System.arraycopy(bodies.x, 0, bodies.prevX, 0, n);
+		System.arraycopy(bodies.y, 0, bodies.prevY, 0, n);
+
+		if(!accelerations.isCurrent(simulation, bodies)){
+			estimateSteps(simulation, bodies, timestep);
+		}
+		assignLevels(n, timestep);
+
+		int count = 1 << deepest;
+		double substep = timestep / count;
+
+		for(int s = 0; s < count; s++){
+
+			// Opening half kick of the bodies whose step starts here
+			for(int i = 0; i < n; i++){
+				if((s & ((1 << (deepest - level[i])) - 1)) == 0){
+					double half = 0.5 * timestep / (1 << level[i]);
+					bodies.vx[i] += half * accelerations.ax[i];
+					bodies.vy[i] += half * accelerations.ay[i];
+				}
+			}
+
+			stepSize = substep;
+			simulation.forEachRange(n, driftAction);
+			substeps++;
+
+			// Closing half kick of the bodies whose step ends here, with their new forces
+			activeCount = 0;
+			for(int i = 0; i < n; i++){
+				if(((s + 1) & ((1 << (deepest - level[i])) - 1)) == 0){
+					active[activeCount++] = i;
+				}
+			}
+
+			stepSize = timestep;
+			if(activeCount == n){
+				simulation.computeForces(bodies);
+				closeSteps(simulation, bodies, 0, n, timestep);
+			}else{
+				simulation.prepareForces(bodies);
+				simulation.forEachRange(activeCount, activeAction);
+			}
+			evaluations += (double) activeCount / n;
+		}
+
+		accelerations.remember(simulation, bodies);
+	}
+
+	/**
+	 * Compute the forces of the active bodies in [from, to) if only some are active, then
+	 * finish their steps
+	 *
+	 * @param from Index in the active list of the first body
+	 * @param to Index in the active list after the last body
+	 * @param timestep Timestep the levels are relative to
+	 */
+	private void closeSteps(Simulation simulation, BodyStore bodies, int from, int to, double timestep){
+
+		boolean partial = activeCount < bodies.count;
+
+		for(int k = from; k < to; k++){
+			int i = partial ? active[k] : k;
+
+			// Neighbouring active bodies are handed to the solver as one range
+			if(partial && (k == from || active[k - 1] != i - 1)){
+				int end = k + 1;
+				while(end < to && active[end] == active[end - 1] + 1){
+					end++;
+				}
+				simulation.computeForces(bodies, i, active[end - 1] + 1);
+			}
+
+			double step = timestep / (1 << level[i]);
+			double oldX = accelerations.ax[i], oldY = accelerations.ay[i];
+			accelerations.update(bodies, i, i + 1);
+			double newX = accelerations.ax[i], newY = accelerations.ay[i];
+
+			bodies.vx[i] += 0.5 * step * newX;
+			bodies.vy[i] += 0.5 * step * newY;
+
+			double jx = (newX - oldX) / step, jy = (newY - oldY) / step;
+			preferred[i] = preferredStep(newX, newY, jx, jy);
+		}
+	}
+
+	/**
+	 * Compute the accelerations of all bodies and estimate how quickly they change by
+	 * moving the bodies along their velocities for a moment
+	 */
+	private void estimateSteps(Simulation simulation, BodyStore bodies, double timestep){
+
+		int n = bodies.count;
+		double delta = timestep / (1 << MAX_LEVEL);
+
+		stepSize = delta;
+		simulation.forEachRange(n, driftAction);
+		simulation.computeForces(bodies);
+		accelerations.update(bodies, 0, n);
+		System.arraycopy(accelerations.ax, 0, jerkX, 0, n);
+		System.arraycopy(accelerations.ay, 0, jerkY, 0, n);
+
+		System.arraycopy(bodies.prevX, 0, bodies.x, 0, n);
+		System.arraycopy(bodies.prevY, 0, bodies.y, 0, n);
+		simulation.computeForces(bodies);
+		accelerations.update(bodies, 0, n);
+		evaluations += 2;
+
+		for(int i = 0; i < n; i++){
+			double ax = accelerations.ax[i], ay = accelerations.ay[i];
+			preferred[i] = preferredStep(ax, ay, (jerkX[i] - ax) / delta, (jerkY[i] - ay) / delta);
+		}
+	}
+
+	/**
+	 * @return Step in years for a body with the given acceleration and rate of change of
+	 * 			its acceleration, infinite if its acceleration doesn't change
+	 */
+	private double preferredStep(double ax, double ay, double jx, double jy){
+		double jerk = Math.sqrt(jx*jx + jy*jy);
+		return jerk > 0 ? eta * Math.sqrt(ax*ax + ay*ay) / jerk : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Give every body the shallowest level whose step is no longer than it asked for
+	 */
+	private void assignLevels(int n, double timestep){
+		deepest = 0;
+		for(int i = 0; i < n; i++){
+			int l = 0;
+			double step = timestep;
+			// NaN (e.g. from a collision) keeps the body at the deepest level
+			while(l < MAX_LEVEL && !(step <= preferred[i])){
+				l++;
+				step *= 0.5;
+			}
+			level[i] = l;
+			deepest = Math.max(deepest, l);
+		}
+	}
+
+	private void resize(int n){
+		accelerations.resize(n);
+		if(level.length < n){
+			level 		= new int[n];
+			preferred 	= new double[n];
+			jerkX 		= new double[n];
+			jerkY 		= new double[n];
+			active 		= new int[n];
+		}
+	}
+
+	/**
+	 * @return Level of the body with the shortest step during the last timestep
+	 */
+	public int getDeepestLevel() {
+		return deepest;
+	}
+
+	/**
+	 * @return Number of substeps of the deepest level made so far
+	 */
+	public long getSubsteps() {
+		return substeps;
+	}
+
+	public double getEta() {
+		return eta;
+	}
+
+	@Override
+	public long getForceEvaluations() {
+		return Math.round(evaluations);
+	}
+
+	public String toString(){
+		return "Block timesteps (eta = " + eta + "), substeps: " + substeps + "  deepest level: " + deepest
+				+ "  force evaluations: " + String.format("%.1f", evaluations);
+	}
+
+}
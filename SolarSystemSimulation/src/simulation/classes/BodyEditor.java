@@ -0,0 +1,296 @@
+package simulation.classes;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.cell.CheckBoxTableCell;
+import javafx.scene.control.cell.ComboBoxTableCell;
+import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.stage.Window;
+import javafx.util.StringConverter;
+
+/**
+ * Table of all bodies for inspecting, editing and deleting them, usable with hundreds of
+ * thousands of bodies. The table only creates cells for the rows in view and asks for a
+ * row's values when it scrolls into view. Searching filters by name, and sorting orders
+ * the rows by the planets' own getters rather than by comparing cell values, which would
+ * create a value object for every comparison.
+ *
+ * Edits go straight to the planets, so the simulation must not be running while the
+ * editor is open.
+ */
+public class BodyEditor {
+
+	private final ArrayList<Planet> planets;
+	private final ObservableList<Planet> rows = FXCollections.observableArrayList();	// matching planets, in the order shown
+	private final TableView<Planet> table = new TableView<>(rows);
+	private final TextField search = new TextField();
+	private final Label count = new Label();
+
+	// How each column's values compare, for sorting
+	private final HashMap<TableColumn<Planet, ?>, Comparator<Planet>> comparators = new HashMap<>();
+	private final HashMap<Color, String> colourNames = new HashMap<>();
+
+	private boolean changed = false;
+
+	/**
+	 * @param planets Planets to edit, changed in place
+	 * @param colours Names of the colours a planet can be given
+	 */
+	public BodyEditor(ArrayList<Planet> planets, List<String> colours){
+		this.planets = planets;
+
+		for(Field field : Color.class.getFields()){
+			if(field.getType() == Color.class){
+				try{
+					String name = field.getName().substring(0, 1) + field.getName().substring(1).toLowerCase();
+					colourNames.putIfAbsent((Color) field.get(null), name);
+				}catch(IllegalAccessException ex){
+					// Public constant, can't happen
+				}
+			}
+		}
+
+		TableColumn<Planet, String> name = new TableColumn<>("Name");
+		name.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getName()));
+		name.setCellFactory(TextFieldTableCell.forTableColumn());
+		name.setOnEditCommit(edit -> {
+			edit.getRowValue().setName(edit.getNewValue());
+			changed = true;
+		});
+		name.setPrefWidth(140);
+		comparators.put(name, Comparator.comparing(Planet::getName, String.CASE_INSENSITIVE_ORDER));
+
+		TableColumn<Planet, String> colour = new TableColumn<>("Colour");
+		colour.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(colourName(cell.getValue().getColor())));
+		colour.setCellFactory(ComboBoxTableCell.forTableColumn(FXCollections.observableArrayList(colours)));
+		colour.setOnEditCommit(edit -> {
+			edit.getRowValue().setColor(Color.valueOf(edit.getNewValue().toUpperCase()));
+			changed = true;
+		});
+		comparators.put(colour, Comparator.comparing(planet -> colourName(planet.getColor())));
+
+		TableColumn<Planet, Boolean> testParticle = new TableColumn<>("Test particle");
+		testParticle.setCellValueFactory(cell -> {
+			Planet planet = cell.getValue();
+			SimpleBooleanProperty value = new SimpleBooleanProperty(planet.isTestParticle());
+			value.addListener((observable, oldVal, newVal) -> {
+				planet.setTestParticle(newVal);
+				changed = true;
+			});
+			return value;
+		});
+		testParticle.setCellFactory(CheckBoxTableCell.forTableColumn(testParticle));
+		comparators.put(testParticle, Comparator.comparing(Planet::isTestParticle));
+
+		table.getColumns().add(name);
+		table.getColumns().add(numberColumn("X (px)", Planet::getPosX, Planet::setPosX));
+		table.getColumns().add(numberColumn("Y (px)", Planet::getPosY, Planet::setPosY));
+		table.getColumns().add(numberColumn("Vel X (AU/yr)", Planet::getVelX, Planet::setVelX));
+		table.getColumns().add(numberColumn("Vel Y (AU/yr)", Planet::getVelY, Planet::setVelY));
+		table.getColumns().add(numberColumn("Mass (Suns)", Planet::getMass, Planet::setMass));
+		table.getColumns().add(numberColumn("Size", Planet::getSize, Planet::setSize));
+		table.getColumns().add(colour);
+		table.getColumns().add(testParticle);
+
+		table.setEditable(true);
+		table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+		table.setSortPolicy(sorted -> {
+			sort();
+			return true;
+		});
+		table.setOnKeyPressed(key -> {
+			if(key.getCode() == KeyCode.DELETE && table.getEditingCell() == null){
+				deleteSelected();
+			}
+		});
+		table.setPrefSize(900, 520);
+		VBox.setVgrow(table, Priority.ALWAYS);
+
+		search.setPromptText("Search by name");
+		search.textProperty().addListener((observable, oldVal, newVal) -> filter());
+		HBox.setHgrow(search, Priority.ALWAYS);
+
+		filter();
+	}
+
+	/**
+	 * Show the editor until it's closed
+	 *
+	 * @param owner Window the editor belongs to
+	 * @return True if any body was edited or deleted
+	 */
+	public boolean showAndWait(Window owner){
+		Button delete = new Button("Delete selected");
+		delete.setOnAction(e -> {
+			e.consume();
+			deleteSelected();
+		});
+
+		HBox bar = new HBox(10, search, count, delete);
+		VBox content = new VBox(10, bar, table);
+		content.setPadding(new Insets(10));
+
+		Dialog<ButtonType> dialog = new Dialog<>();
+		dialog.initOwner(owner);
+		dialog.setTitle("Planet Properties");
+		dialog.setHeaderText("Double-click a value to change it. Select rows and press Delete to remove them.");
+		dialog.setResizable(true);
+		dialog.getDialogPane().setContent(content);
+		dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+		dialog.showAndWait();
+
+		return changed;
+	}
+
+	private TableColumn<Planet, Double> numberColumn(String title, ToDoubleFunction<Planet> getter,
+			BiConsumer<Planet, Double> setter){
+
+		TableColumn<Planet, Double> column = new TableColumn<>(title);
+		column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(getter.applyAsDouble(cell.getValue())));
+		column.setCellFactory(TextFieldTableCell.forTableColumn(NUMBERS));
+		column.setOnEditCommit(edit -> {
+			if(edit.getNewValue() == null){
+				// Not a number, show the old value again
+				table.refresh();
+				return;
+			}
+			setter.accept(edit.getRowValue(), edit.getNewValue());
+			changed = true;
+		});
+		column.setPrefWidth(105);
+		comparators.put(column, Comparator.comparingDouble(getter));
+		return column;
+	}
+
+	/**
+	 * Show the planets whose name contains the search text, in the current sort order
+	 */
+	private void filter(){
+		String text = search.getText().trim().toLowerCase(Locale.ROOT);
+
+		ArrayList<Planet> matching = new ArrayList<>();
+		for(Planet planet : planets){
+			if(text.isEmpty() || planet.getName().toLowerCase(Locale.ROOT).contains(text)){
+				matching.add(planet);
+			}
+		}
+
+		rows.setAll(matching);
+		sort();
+	}
+
+	/**
+	 * Order the rows by the table's sort order, or as in the planet list if there is none
+	 */
+	private void sort(){
+		Comparator<Planet> order = null;
+		for(TableColumn<Planet, ?> column : table.getSortOrder()){
+			Comparator<Planet> next = comparators.get(column);
+			if(column.getSortType() == TableColumn.SortType.DESCENDING){
+				next = next.reversed();
+			}
+			order = order == null ? next : order.thenComparing(next);
+		}
+
+		if(order != null){
+			FXCollections.sort(rows, order);
+		}else if(!isInListOrder()){
+			filter();
+			return;
+		}
+		count.setText(String.format(Locale.ROOT, "%,d of %,d bodies", rows.size(), planets.size()));
+	}
+
+	private boolean isInListOrder(){
+		int next = 0;
+		for(Planet row : rows){
+			while(next < planets.size() && planets.get(next) != row){
+				next++;
+			}
+			if(next == planets.size()){
+				return false;
+			}
+			next++;
+		}
+		return true;
+	}
+
+	private void deleteSelected(){
+		List<Planet> selected = table.getSelectionModel().getSelectedItems();
+		if(selected.isEmpty()){
+			return;
+		}
+
+		Alert confirm = new Alert(AlertType.CONFIRMATION);
+		confirm.initOwner(table.getScene().getWindow());
+		confirm.setHeaderText(null);
+		confirm.setContentText(selected.size() == 1 ? "Delete \"" + selected.get(0).getName() + "\"?"
+				: String.format(Locale.ROOT, "Delete %,d bodies?", selected.size()));
+		if(confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK){
+			return;
+		}
+
+		// One pass over each list, removing one by one would be quadratic
+		Set<Planet> doomed = Collections.newSetFromMap(new IdentityHashMap<>());
+		doomed.addAll(selected);
+		table.getSelectionModel().clearSelection();
+
+		planets.removeIf(doomed::contains);
+		rows.removeIf(doomed::contains);
+		changed = true;
+		count.setText(String.format(Locale.ROOT, "%,d of %,d bodies", rows.size(), planets.size()));
+	}
+
+	private String colourName(Color color){
+		String name = colourNames.get(color);
+		return name != null ? name : color.toString();
+	}
+
+	// Reads numbers for the number columns, null if the text isn't one
+	private static final StringConverter<Double> NUMBERS = new StringConverter<Double>() {
+		@Override
+		public String toString(Double value){
+			return value == null ? "" : value.toString();
+		}
+
+		@Override
+		public Double fromString(String text){
+			try{
+				return Double.valueOf(text.trim());
+			}catch(NumberFormatException ex){
+				return null;
+			}
+		}
+	};
+
+}
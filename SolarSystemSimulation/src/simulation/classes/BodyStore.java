@@ -0,0 +1,193 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Packed storage of the state the simulation kernels work on. Every quantity lives in
+ * its own primitive array indexed by the body's position in the planet list, so a force
+ * or integration loop streams through memory instead of chasing Planet references.
+ *
+ * Planets bound to a store act as views: their getters and setters for position,
+ * velocity, force and mass read and write the arrays directly, so the UI and file code
+ * keep working with Planet objects while the kernels work on the arrays.
+ *
+ * Only the sources, bodies with mass that aren't test particles, pull on others. The
+ * kernels sum the pull of the sources on every body, so test particles cost O(sources)
+ * each instead of O(N). A test particle's force is its mass times its acceleration, or
+ * the acceleration itself if it has no mass (see inertia).
+ */
+public class BodyStore {
+
+	int count;						// number of bodies in use, arrays may be longer
+	double[] x 		= new double[0];	// x-coordinate on screen
+	double[] y 		= new double[0];	// y-coordinate on screen
+	double[] vx 	= new double[0];	// x-axis velocity component
+	double[] vy 	= new double[0];	// y-axis velocity component
+	double[] fx 	= new double[0];	// x-axis force component
+	double[] fy 	= new double[0];	// y-axis force component
+	double[] mass 	= new double[0];	// body's mass
+	double[] prevX 	= new double[0];	// x-coordinate before the last step, used for traces
+	double[] prevY 	= new double[0];	// y-coordinate before the last step, used for traces
+	boolean[] testParticle = new boolean[0];	// pulled by the others but never pulling
+
+	// Indices of the sources in increasing order, found again every time the store is bound
+	int[] sources = new int[0];
+	int sourceCount;
+
+	// Potential energy of each body with all others, computed along with the forces while
+	// withPotential is set (by the energy monitor), otherwise left alone
+	double[] potential = new double[0];
+	boolean withPotential = false;
+
+	private Planet[] views = new Planet[0];
+
+	/**
+	 * Make the store mirror the given list. If the list still holds the same planets in
+	 * the same order only the sources are looked for again, in case masses or test
+	 * particles were changed, otherwise the old planets are released (they keep their
+	 * latest state) and the new ones are copied in and bound to their index.
+	 *
+	 * @param planets Planets the store should hold
+	 */
+	public void bind(ArrayList<Planet> planets){
+
+		if(!isBoundTo(planets)){
+			copy(planets);
+		}
+		findSources();
+	}
+
+	private void copy(ArrayList<Planet> planets){
+
+		for(int i = 0; i < count; i++){
+			if(views[i].isViewOf(this, i)){
+				views[i].detach();
+			}
+			views[i] = null;
+		}
+
+		count = planets.size();
+		ensureCapacity(count);
+
+		for(int i = 0; i < count; i++){
+			Planet planet = planets.get(i);
+			planet.detach();
+
+			x[i] 		= planet.getPosX();
+			y[i] 		= planet.getPosY();
+			vx[i] 		= planet.getVelX();
+			vy[i] 		= planet.getVelY();
+			fx[i] 		= planet.getForceX();
+			fy[i] 		= planet.getForceY();
+			mass[i] 	= planet.getMass();
+			prevX[i] 	= planet.getPrevPosX();
+			prevY[i] 	= planet.getPrevPosY();
+			testParticle[i] = planet.isTestParticle();
+
+			views[i] = planet;
+			planet.attach(this, i);
+		}
+	}
+
+	/**
+	 * @param planets List of planets
+	 * @return True if the store holds exactly these planets in this order
+	 */
+	public boolean isBoundTo(ArrayList<Planet> planets){
+
+		if(planets.size() != count){
+			return false;
+		}
+
+		for(int i = 0; i < count; i++){
+			if(planets.get(i) != views[i] || !views[i].isViewOf(this, i)){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return Number of bodies in the store
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @param index Index of a body
+	 * @return Planet bound to that index
+	 */
+	public Planet getPlanet(int index){
+		return views[index];
+	}
+
+	/**
+	 * @param index Index of a body
+	 * @return True if the body pulls on the others
+	 */
+	boolean isSource(int index){
+		return !testParticle[index] && mass[index] != 0;
+	}
+
+	/**
+	 * @return True if every body is a source, so the kernels can do without the source list
+	 */
+	boolean allSources(){
+		return sourceCount == count;
+	}
+
+	/**
+	 * @param mass Mass of a body
+	 * @return What the body's force is divided by for its acceleration: its mass, or 1 for a
+	 * 			massless test particle, whose force is its acceleration
+	 */
+	static double inertia(double mass){
+		return mass != 0 ? mass : 1;
+	}
+
+	private void findSources(){
+		sourceCount = 0;
+		for(int i = 0; i < count; i++){
+			if(isSource(i)){
+				sources[sourceCount++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Zero the forces of every body before a new calculation
+	 */
+	public void resetForces(){
+		Arrays.fill(fx, 0, count, 0.0);
+		Arrays.fill(fy, 0, count, 0.0);
+	}
+
+	/**
+	 * Zero the potential energies of every body before a new calculation
+	 */
+	void resetPotentials(){
+		Arrays.fill(potential, 0, count, 0.0);
+	}
+
+	private void ensureCapacity(int capacity){
+		if(capacity > x.length){
+			x 		= new double[capacity];
+			y 		= new double[capacity];
+			vx 		= new double[capacity];
+			vy 		= new double[capacity];
+			fx 		= new double[capacity];
+			fy 		= new double[capacity];
+			mass 	= new double[capacity];
+			prevX 	= new double[capacity];
+			prevY 	= new double[capacity];
+			potential = new double[capacity];
+			testParticle = new boolean[capacity];
+			sources = new int[capacity];
+			views 	= new Planet[capacity];
+		}
+	}
+
+}
@@ -0,0 +1,282 @@
+package simulation.classes;
+
+/**
+ * Adaptive Runge-Kutta integrator using the Dormand-Prince 5(4) pair. Each timestep is
+ * covered by as many internal steps as the error tolerances require: the difference
+ * between the embedded 4th and 5th order solutions estimates the error of an internal
+ * step, which is rejected and retried with a smaller size if the estimate is too large.
+ * The step size carries over between timesteps, so a long timestep on a quiet system
+ * costs a few force evaluations while a close approach is resolved automatically.
+ *
+ * The error is measured per body and component (positions in AU, velocities in AU/year)
+ * against atol + rtol * |value|, and the worst one decides, so a single close encounter
+ * is not hidden by many quiet bodies.
+ *
+ * The last stage of a step is evaluated at the step's end point and reused as the first
+ * stage of the next one. A timestep therefore costs 6 force evaluations per internal step
+ * plus one at its start, since the bodies may have been edited in between.
+ */
+public class DormandPrinceIntegrator implements Integrator {
+
+	public static final double DEFAULT_TOLERANCE = 1e-9;
+
+	private static final int STAGES = 7;
+
+	// Butcher tableau: weights of each stage on the previous ones. The forces don't depend
+	// on time, so the stage nodes aren't needed. The last stage's weights are those of the
+	// 5th order solution.
+	private static final double[][] A = {
+			{},
+			{ 1.0/5 },
+			{ 3.0/40, 9.0/40 },
+			{ 44.0/45, -56.0/15, 32.0/9 },
+			{ 19372.0/6561, -25360.0/2187, 64448.0/6561, -212.0/729 },
+			{ 9017.0/3168, -355.0/33, 46732.0/5247, 49.0/176, -5103.0/18656 },
+			{ 35.0/384, 0, 500.0/1113, 125.0/192, -2187.0/6784, 11.0/84 } };
+
+	// Difference between the 5th and 4th order weights, giving the error estimate
+	private static final double[] E = { 71.0/57600, 0, -71.0/16695, 71.0/1920, -17253.0/339200, 22.0/525, -1.0/40 };
+
+	private static final double SAFETY = 0.9;
+	private static final double MIN_FACTOR = 0.2;		// limits on the change of step size after one step
+	private static final double MAX_FACTOR = 5;
+
+	private final double atol;			// absolute tolerance, in AU and AU/year
+	private final double rtol;			// relative tolerance
+
+	private double stepSize = 0;		// size of the next internal step, 0 before the first one
+	private long accepted = 0;
+	private long rejected = 0;
+	private long evaluations = 0;
+
+	// Velocity and acceleration of the bodies at each stage, and the state at the start
+	// of the internal step
+	private double[][] stageVX = new double[STAGES][0];
+	private double[][] stageVY = new double[STAGES][0];
+	private double[][] stageAX = new double[STAGES][0];
+	private double[][] stageAY = new double[STAGES][0];
+	private double[] startX = new double[0];
+	private double[] startY = new double[0];
+	private double[] startVX = new double[0];
+	private double[] startVY = new double[0];
+
+	public DormandPrinceIntegrator(){
+		this(DEFAULT_TOLERANCE, DEFAULT_TOLERANCE);
+	}
+
+	/**
+	 * @param atol Absolute error tolerance per internal step, in AU and AU/year
+	 * @param rtol Relative error tolerance per internal step
+	 */
+	public DormandPrinceIntegrator(double atol, double rtol){
+		if(!(atol > 0) || !(rtol >= 0)){
+			throw new IllegalArgumentException("Tolerances must be positive: " + atol + ", " + rtol);
+		}
+		this.atol = atol;
+		this.rtol = rtol;
+	}
+
+	@Override
+	public void step(Simulation simulation, BodyStore bodies, double timestep){
+
+		int n = bodies.count;
+		resize(n);
+
+		System.arraycopy(bodies.x, 0, bodies.prevX, 0, n);
+		System.arraycopy(bodies.y, 0, bodies.prevY, 0, n);
+
+		if(stepSize <= 0){
+			stepSize = timestep;
+		}
+
+		evaluate(simulation, bodies, 0);
+		System.arraycopy(bodies.vx, 0, stageVX[0], 0, n);
+		System.arraycopy(bodies.vy, 0, stageVY[0], 0, n);
+
+		double remaining = timestep;
+		while(remaining > 0){
+
+			// Don't leave a sliver of the timestep for a tiny last step
+			boolean last = stepSize >= remaining * (1 - 1e-9);
+			double h = last ? remaining : stepSize;
+
+			if(h <= timestep * 1e-12){
+				throw new IllegalStateException("Step size underflow, the tolerances can't be met at t + "
+						+ (timestep - remaining) + " years");
+			}
+
+			double error = attempt(simulation, bodies, h);
+			double factor = error == 0 ? MAX_FACTOR
+					: Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, SAFETY * Math.pow(error, -0.2)));
+
+			if(error <= 1){
+				accepted++;
+				remaining = last ? 0 : remaining - h;
+				swapFirstAndLastStage();
+
+				// A step cut short to end on the timestep says little about the size that
+				// would have been used otherwise
+				stepSize = last && h < stepSize ? Math.max(stepSize, h * factor) : h * factor;
+			}else{
+				rejected++;
+				restoreStart(bodies);
+				stepSize = h * Math.min(1, factor);
+			}
+		}
+	}
+
+	/**
+	 * Try one internal step from the current state, leaving the bodies at its end point
+	 *
+	 * @return Estimated error relative to the tolerances, accept the step if at most 1
+	 */
+	private double attempt(Simulation simulation, BodyStore bodies, double h){
+
+		int n = bodies.count;
+		double[] x = bodies.x, y = bodies.y;
+		double[] vx = bodies.vx, vy = bodies.vy;
+
+		System.arraycopy(x, 0, startX, 0, n);
+		System.arraycopy(y, 0, startY, 0, n);
+		System.arraycopy(vx, 0, startVX, 0, n);
+		System.arraycopy(vy, 0, startVY, 0, n);
+
+		for(int s = 1; s < STAGES; s++){
+			double[] a = A[s];
+
+			for(int i = 0; i < n; i++){
+				double dx = 0, dy = 0, dvx = 0, dvy = 0;
+				for(int j = 0; j < s; j++){
+					dx 	+= a[j] * stageVX[j][i];
+					dy 	+= a[j] * stageVY[j][i];
+					dvx += a[j] * stageAX[j][i];
+					dvy += a[j] * stageAY[j][i];
+				}
+
+				x[i] 	= startX[i] + Planet.SCALE * h * dx;
+				y[i] 	= startY[i] + Planet.SCALE * h * dy;
+				vx[i] 	= startVX[i] + h * dvx;
+				vy[i] 	= startVY[i] + h * dvy;
+				stageVX[s][i] = vx[i];
+				stageVY[s][i] = vy[i];
+			}
+
+			evaluate(simulation, bodies, s);
+		}
+
+		// The bodies now hold the 5th order solution, compare it with the embedded one
+		double error = 0;
+		for(int i = 0; i < n; i++){
+			double ex = 0, ey = 0, evx = 0, evy = 0;
+			for(int j = 0; j < STAGES; j++){
+				ex 	+= E[j] * stageVX[j][i];
+				ey 	+= E[j] * stageVY[j][i];
+				evx += E[j] * stageAX[j][i];
+				evy += E[j] * stageAY[j][i];
+			}
+
+			error = Math.max(error, Math.abs(h * ex) / scale(startX[i] / Planet.SCALE, x[i] / Planet.SCALE));
+			error = Math.max(error, Math.abs(h * ey) / scale(startY[i] / Planet.SCALE, y[i] / Planet.SCALE));
+			error = Math.max(error, Math.abs(h * evx) / scale(startVX[i], vx[i]));
+			error = Math.max(error, Math.abs(h * evy) / scale(startVY[i], vy[i]));
+		}
+
+		// NaN from a collision must not be accepted
+		return Double.isNaN(error) ? Double.POSITIVE_INFINITY : error;
+	}
+
+	private double scale(double before, double after){
+		return atol + rtol * Math.max(Math.abs(before), Math.abs(after));
+	}
+
+	/**
+	 * Compute the forces at the bodies' current positions and keep the accelerations
+	 */
+	private void evaluate(Simulation simulation, BodyStore bodies, int stage){
+		simulation.computeForces(bodies);
+		evaluations++;
+
+		double[] ax = stageAX[stage], ay = stageAY[stage];
+		for(int i = 0; i < bodies.count; i++){
+			double inertia = BodyStore.inertia(bodies.mass[i]);
+			ax[i] = bodies.fx[i] / inertia;
+			ay[i] = bodies.fy[i] / inertia;
+		}
+	}
+
+	private void restoreStart(BodyStore bodies){
+		int n = bodies.count;
+		System.arraycopy(startX, 0, bodies.x, 0, n);
+		System.arraycopy(startY, 0, bodies.y, 0, n);
+		System.arraycopy(startVX, 0, bodies.vx, 0, n);
+		System.arraycopy(startVY, 0, bodies.vy, 0, n);
+	}
+
+	/**
+	 * The last stage of an accepted step is the first stage of the next one
+	 */
+	private void swapFirstAndLastStage(){
+		int last = STAGES - 1;
+		double[] t;
+		t = stageVX[0]; stageVX[0] = stageVX[last]; stageVX[last] = t;
+		t = stageVY[0]; stageVY[0] = stageVY[last]; stageVY[last] = t;
+		t = stageAX[0]; stageAX[0] = stageAX[last]; stageAX[last] = t;
+		t = stageAY[0]; stageAY[0] = stageAY[last]; stageAY[last] = t;
+	}
+
+	private void resize(int n){
+		if(startX.length >= n){
+			return;
+		}
+		for(int s = 0; s < STAGES; s++){
+			stageVX[s] = new double[n];
+			stageVY[s] = new double[n];
+			stageAX[s] = new double[n];
+			stageAY[s] = new double[n];
+		}
+		startX 	= new double[n];
+		startY 	= new double[n];
+		startVX = new double[n];
+		startVY = new double[n];
+	}
+
+	/**
+	 * @return Size in years of the next internal step
+	 */
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public double getAbsoluteTolerance() {
+		return atol;
+	}
+
+	public double getRelativeTolerance() {
+		return rtol;
+	}
+
+	/**
+	 * @return Number of internal steps that met the tolerances
+	 */
+	public long getAcceptedSteps() {
+		return accepted;
+	}
+
+	/**
+	 * @return Number of internal steps that were retried with a smaller size
+	 */
+	public long getRejectedSteps() {
+		return rejected;
+	}
+
+	@Override
+	public long getForceEvaluations() {
+		return evaluations;
+	}
+
+	public String toString(){
+		return "Dormand-Prince 5(4), accepted steps: " + accepted + "  rejected steps: " + rejected
+				+ "  force evaluations: " + evaluations + "  next step: " + stepSize + " years";
+	}
+
+}
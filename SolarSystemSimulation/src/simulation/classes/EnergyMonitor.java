@@ -0,0 +1,176 @@
+package simulation.classes;
+
+/**
+ * Watches the quantities gravity conserves: total energy, linear momentum and angular
+ * momentum (about the origin, in AU^2/year times mass). Any change of them is error made
+ * by the integrator, so they tell how much a timestep can be trusted.
+ *
+ * The potential energy is added up by the solvers during a force evaluation, so a
+ * measurement only costs a sweep over the bodies on top of a step, never another O(N^2)
+ * one. The simulation decides when the potential belongs to the bodies' current state,
+ * see Simulation.setEnergyMonitor.
+ *
+ * Errors are relative to the first measurement: energy against its magnitude, momenta
+ * against the sums of the bodies' own magnitudes (m |v| and m |r x v|), since the totals
+ * may well be zero. The first measurement after a reset, or after bodies are added,
+ * removed or change mass, is taken as the new reference. Measured on the simulation's
+ * thread, the getters may be called from any thread.
+ *
+ * Test particles are left out: they take energy from the sources without giving any
+ * back, so only the sources conserve anything.
+ */
+public class EnergyMonitor {
+
+	// Motion of the bodies in the state being measured, waiting for its potential energy
+	private double kinetic;
+	private double momentumX, momentumY;
+	private double angularMomentum;
+	private double momentumScale, angularScale;
+	private double totalMass;
+	private int count;
+
+	// Reference the errors are measured against
+	private volatile boolean resetRequested = true;
+	private double initialEnergy;
+	private double initialMomentumX, initialMomentumY;
+	private double initialAngularMomentum;
+	private double initialMass;
+	private int initialCount;
+
+	// Latest measurement
+	private volatile double time;
+	private volatile double energy;
+	private volatile double energyError;
+	private volatile double maxEnergyError;
+	private volatile double momentumError;
+	private volatile double angularMomentumError;
+	private volatile long measurements;
+
+	/**
+	 * Take the next measurement as the new reference
+	 */
+	public void reset(){
+		resetRequested = true;
+	}
+
+	/**
+	 * Note the kinetic energy and momenta of the bodies, the first half of a measurement
+	 *
+	 * @param bodies Bodies in the state being measured, of which the sources are measured
+	 */
+	void measureMotion(BodyStore bodies){
+		double[] x = bodies.x, y = bodies.y, vx = bodies.vx, vy = bodies.vy, mass = bodies.mass;
+		int[] sources = bodies.sources;
+		double k = 0, px = 0, py = 0, l = 0, pScale = 0, lScale = 0, m = 0;
+
+		for(int s = 0; s < bodies.sourceCount; s++){
+			int i = sources[s];
+			double mi = mass[i];
+			double v2 = vx[i]*vx[i] + vy[i]*vy[i];
+			double r = (x[i] * vy[i] - y[i] * vx[i]) / Planet.SCALE;
+
+			k 		+= 0.5 * mi * v2;
+			px 		+= mi * vx[i];
+			py 		+= mi * vy[i];
+			l 		+= mi * r;
+			pScale 	+= mi * Math.sqrt(v2);
+			lScale 	+= mi * Math.abs(r);
+			m 		+= mi;
+		}
+
+		kinetic 		= k;
+		momentumX 		= px;
+		momentumY 		= py;
+		angularMomentum = l;
+		momentumScale 	= pScale;
+		angularScale 	= lScale;
+		totalMass 		= m;
+		count 			= bodies.sourceCount;
+	}
+
+	/**
+	 * Complete a measurement started by measureMotion
+	 *
+	 * @param time Simulated time of the state measured, in years
+	 * @param potential Potential energy of the bodies in that state
+	 */
+	void record(double time, double potential){
+		double e = kinetic + potential;
+
+		if(resetRequested || count != initialCount || totalMass != initialMass){
+			resetRequested 			= false;
+			initialEnergy 			= e;
+			initialMomentumX 		= momentumX;
+			initialMomentumY 		= momentumY;
+			initialAngularMomentum 	= angularMomentum;
+			initialMass 			= totalMass;
+			initialCount 			= count;
+			maxEnergyError 			= 0;
+		}
+
+		double dx = momentumX - initialMomentumX, dy = momentumY - initialMomentumY;
+		double error = relative(e - initialEnergy, initialEnergy);
+
+		this.time 				= time;
+		energy 					= e;
+		energyError 			= error;
+		maxEnergyError 			= Math.max(maxEnergyError, error);
+		momentumError 			= relative(Math.sqrt(dx*dx + dy*dy), momentumScale);
+		angularMomentumError 	= relative(angularMomentum - initialAngularMomentum, angularScale);
+		measurements++;
+	}
+
+	private static double relative(double difference, double scale){
+		return scale == 0 ? Math.abs(difference) : Math.abs(difference / scale);
+	}
+
+	/**
+	 * @return Simulated time of the latest measurement, in years
+	 */
+	public double getTime(){
+		return time;
+	}
+
+	/**
+	 * @return Total energy at the latest measurement
+	 */
+	public double getEnergy(){
+		return energy;
+	}
+
+	/**
+	 * @return Relative change of the total energy since the reference
+	 */
+	public double getEnergyError(){
+		return energyError;
+	}
+
+	/**
+	 * @return Largest relative energy error measured since the reference
+	 */
+	public double getMaxEnergyError(){
+		return maxEnergyError;
+	}
+
+	/**
+	 * @return Change of the total linear momentum since the reference, relative to the sum of m |v|
+	 */
+	public double getMomentumError(){
+		return momentumError;
+	}
+
+	/**
+	 * @return Change of the total angular momentum since the reference, relative to the sum of m |r x v|
+	 */
+	public double getAngularMomentumError(){
+		return angularMomentumError;
+	}
+
+	/**
+	 * @return Number of measurements made so far
+	 */
+	public long getMeasurements(){
+		return measurements;
+	}
+
+}
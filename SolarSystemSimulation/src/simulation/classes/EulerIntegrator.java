@@ -0,0 +1,34 @@
+package simulation.classes;
+
+/**
+ * Semi-implicit Euler, the integrator the simulation has always used: one force
+ * evaluation per step, velocities are updated first and positions use the new velocities.
+ */
+public class EulerIntegrator implements Integrator {
+
+	private long evaluations = 0;
+
+	private BodyStore bodies;			// arguments of the step being run, for the range action
+	private double timestep;
+	private final Simulation.RangeAction integrateAction = (from, to) -> Simulation.integrate(bodies, from, to, timestep);
+
+	@Override
+	public void step(Simulation simulation, BodyStore bodies, double timestep){
+		this.bodies 	= bodies;
+		this.timestep 	= timestep;
+
+		simulation.computeForces(bodies);
+		evaluations++;
+		simulation.forEachRange(bodies.count, integrateAction);
+	}
+
+	@Override
+	public long getForceEvaluations(){
+		return evaluations;
+	}
+
+	public String toString(){
+		return "Semi-implicit Euler, force evaluations: " + evaluations;
+	}
+
+}
@@ -0,0 +1,148 @@
+package simulation.classes;
+
+/**
+ * Brute force gather in mixed precision. Before every force evaluation the sources are
+ * packed into float arrays, their positions as offsets in AU from the heaviest source,
+ * which halves the memory streamed per pair and doubles the lanes of a vector. Each pair
+ * is worked out in float, but the state stays in double and a body's force is summed in
+ * double, so the rounding of one pair (about 1e-7 of it) doesn't build up over many.
+ *
+ * Offsets from a body near the middle of the system keep the float positions as precise
+ * as the system's extent allows: two bodies at distance d, at distance R from the
+ * reference, get a relative force error of about 1e-7 * R / d. ForceComparison reports
+ * the errors against the double kernel.
+ *
+ * Test particles are handled like in PairKernel, pulled by the packed sources only.
+ */
+final class FloatKernel {
+
+	private static final double TO_AU = 1 / Planet.SCALE;
+
+	int count;						// number of sources packed
+	float[] x 		= new float[0];	// x-offset from the reference in AU
+	float[] y 		= new float[0];	// y-offset from the reference in AU
+	float[] mass 	= new float[0];	// source's mass
+	private int[] slot = new int[0];	// packed index of each body, -1 if not a source
+
+	// Position of the reference body in screen coordinates
+	double refX;
+	double refY;
+
+	/**
+	 * Pack the sources of the store at their current positions
+	 *
+	 * @param bodies Bodies whose forces are computed next
+	 */
+	void pack(BodyStore bodies){
+
+		int n = bodies.count;
+		int[] sources = bodies.sources;
+		count = bodies.sourceCount;
+
+		if(x.length < count){
+			int length = Math.max(count, x.length * 2);
+			x 		= new float[length];
+			y 		= new float[length];
+			mass 	= new float[length];
+		}
+		if(slot.length < n){
+			slot = new int[Math.max(n, slot.length * 2)];
+		}
+
+		int heaviest = count > 0 ? sources[0] : 0;
+		for(int a = 1; a < count; a++){
+			if(bodies.mass[sources[a]] > bodies.mass[heaviest]){
+				heaviest = sources[a];
+			}
+		}
+		refX = n > 0 ? bodies.x[heaviest] : 0;
+		refY = n > 0 ? bodies.y[heaviest] : 0;
+
+		for(int i = 0; i < n; i++){
+			slot[i] = -1;
+		}
+		for(int a = 0; a < count; a++){
+			int i = sources[a];
+			x[a] 	= offsetX(bodies, i);
+			y[a] 	= offsetY(bodies, i);
+			mass[a] = (float) bodies.mass[i];
+			slot[i] = a;
+		}
+	}
+
+	/**
+	 * @param bodies Bodies the sources were packed from
+	 * @param i Index of a body
+	 * @return Offset of the body from the reference in AU, rounded to float
+	 */
+	float offsetX(BodyStore bodies, int i){
+		return (float) ((bodies.x[i] - refX) * TO_AU);
+	}
+
+	/**
+	 * @param bodies Bodies the sources were packed from
+	 * @param i Index of a body
+	 * @return Offset of the body from the reference in AU, rounded to float
+	 */
+	float offsetY(BodyStore bodies, int i){
+		return (float) ((bodies.y[i] - refY) * TO_AU);
+	}
+
+	/**
+	 * @param i Index of a body
+	 * @return Index of the body among the packed sources, -1 if it isn't one
+	 */
+	int slot(int i){
+		return slot[i];
+	}
+
+	/**
+	 * Sum the forces acting on a range of bodies from all packed sources. Only writes to
+	 * the range's own forces, so disjoint ranges can run in parallel.
+	 *
+	 * @param bodies Bodies the sources were packed from, their forces are replaced
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 * @param softening Plummer softening length in AU
+	 */
+	void gather(BodyStore bodies, int from, int to, double softening){
+
+		boolean withPotential = bodies.withPotential;
+		float eps2 = (float) (softening * softening);
+
+		for(int i = from; i < to; i++){
+			float xi = offsetX(bodies, i), yi = offsetY(bodies, i);
+			int self = slot[i];
+			double fxi = 0.0, fyi = 0.0, pi = 0.0;
+
+			// All sources but the body itself: those before it, then those after it
+			int skip = self >= 0 ? self : count;
+			for(int part = 0; part < 2; part++){
+				int start = part == 0 ? 0 : skip + 1;
+				int end = part == 0 ? skip : count;
+
+				for(int b = start; b < end; b++){
+					float dx = x[b] - xi;
+					float dy = y[b] - yi;
+					float r2 = dx*dx + dy*dy + eps2;
+					float inv = 1 / (float) Math.sqrt(r2);
+					float f = mass[b] * (inv*inv*inv);
+
+					fxi += f * dx;
+					fyi += f * dy;
+					if(withPotential){
+						pi += mass[b] * inv;
+					}
+				}
+			}
+
+			double gmi = Planet.SCALED_G * BodyStore.inertia(bodies.mass[i]);
+			bodies.fx[i] = gmi * fxi;
+			bodies.fy[i] = gmi * fyi;
+			if(withPotential){
+				bodies.potential[i] = self >= 0 ? -gmi * pi : 0.0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,221 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Difference between the forces found by an approximate solver and a reference solver.
+ * Because forces on bodies deep inside a cluster nearly cancel out, the worst error is
+ * reported both relative to the body's own force and relative to the mean force.
+ *
+ * Run as a program it compares SimulationBH against SimulationBF on a random system:
+ *
+ *   java simulation.classes.ForceComparison [bodies] [theta]
+ *
+ * and, if the Vector API was added (--add-modules jdk.incubator.vector), checks that the
+ * vectorised brute force agrees with the scalar one to rounding, serial and in ranges on
+ * several threads, with a body count that doesn't fill the vectors evenly as well. Then
+ * SimulationFMM is compared against direct summation on the random disk and on each of
+ * ScenarioGenerator's systems at the orders of FMM_ORDERS: the error has to shrink with
+ * every order, down to rounding, and be within FMM_TOLERANCE at the default order. It
+ * exits with status 1 if either check fails.
+ *
+ * Last comes the accuracy report of mixed precision (see FloatKernel) against double, on
+ * the random disk and on each of ScenarioGenerator's systems, scalar and, if available,
+ * vectorised. Its errors are only reported, what is good enough depends on the use.
+ */
+public class ForceComparison {
+
+	static final double VECTOR_TOLERANCE = 1e-12;	// largest error / mean force allowed for SIMD
+	static final double FMM_TOLERANCE = 1e-3;		// largest error / mean force allowed at the default order
+	static final double FMM_ROUNDING = 1e-10;		// errors / mean force below it need not shrink further
+	static final int[] FMM_ORDERS = { 2, 4, 8, 12, 16 };
+
+	private final int bodies;
+	private final double medianRelative;	// median of |dF| / |F| over all bodies
+	private final double maxRelative;		// largest |dF| / |F|
+	private final double maxNormalised;		// largest |dF| / mean |F|
+
+	private ForceComparison(int bodies, double medianRelative, double maxRelative, double maxNormalised){
+		this.bodies 		= bodies;
+		this.medianRelative = medianRelative;
+		this.maxRelative 	= maxRelative;
+		this.maxNormalised 	= maxNormalised;
+	}
+
+	/**
+	 * @param reference Solver whose forces are taken as exact
+	 * @param candidate Solver being checked
+	 * @param planets Planets to evaluate the forces on, their forces are overwritten
+	 * @return Comparison of the two solvers' forces
+	 */
+	public static ForceComparison compare(Simulation reference, Simulation candidate, ArrayList<Planet> planets){
+
+		int count = planets.size();
+		double[] refX = new double[count];
+		double[] refY = new double[count];
+
+		reference.computeForces(planets);
+
+		double mean = 0;
+		for(int i = 0; i < count; i++){
+			refX[i] = planets.get(i).getForceX();
+			refY[i] = planets.get(i).getForceY();
+			mean += Math.sqrt(refX[i]*refX[i] + refY[i]*refY[i]) / count;
+		}
+
+		candidate.computeForces(planets);
+
+		double[] relative = new double[count];
+		double maxNormalised = 0;
+		for(int i = 0; i < count; i++){
+			double dx = planets.get(i).getForceX() - refX[i];
+			double dy = planets.get(i).getForceY() - refY[i];
+			double diff = Math.sqrt(dx*dx + dy*dy);
+			double ref = Math.sqrt(refX[i]*refX[i] + refY[i]*refY[i]);
+
+			relative[i] = ref > 0 ? diff / ref : 0;
+			maxNormalised = mean > 0 ? Math.max(maxNormalised, diff / mean) : 0;
+		}
+
+		Arrays.sort(relative);
+
+		return new ForceComparison(count, count > 0 ? relative[count / 2] : 0,
+				count > 0 ? relative[count - 1] : 0, maxNormalised);
+	}
+
+	public int getBodies() {
+		return bodies;
+	}
+
+	public double getMedianRelative() {
+		return medianRelative;
+	}
+
+	public double getMaxRelative() {
+		return maxRelative;
+	}
+
+	public double getMaxNormalised() {
+		return maxNormalised;
+	}
+
+	public String toString(){
+		return "Bodies: " + bodies + "  median relative error: " + medianRelative
+				+ "  max relative error: " + maxRelative + "  max error / mean force: " + maxNormalised;
+	}
+
+	public static void main(String[] args) {
+
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		double theta = args.length > 1 ? Double.parseDouble(args[1]) : SimulationBH.DEFAULT_THETA;
+
+		System.out.println("Barnes-Hut, theta = " + theta);
+		System.out.println(compare(new SimulationBF(), new SimulationBH(theta), Scenarios.randomDisk(count, 42)));
+
+		boolean agree = true;
+		if(SimulationBF.isVectorAvailable()){
+			agree = compareVectorized(count);
+		}else{
+			System.out.println("Vectorised brute force skipped, run with --add-modules jdk.incubator.vector");
+		}
+		agree &= compareMultipole(count);
+		reportMixedPrecision(count);
+		if(!agree){
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return True if the vectorised forces agree with the scalar ones
+	 */
+	private static boolean compareVectorized(int count){
+
+		System.out.println("Vectorised brute force, " + SimulationBF.vectorLanes() + " lanes");
+		boolean agree = true;
+		for(int threads : new int[] {1, 4}){
+			for(int n : new int[] {count, 2 * SimulationBF.vectorLanes() + 3}){
+				SimulationBF vectorized = new SimulationBF();
+				vectorized.setVectorized(true);
+				vectorized.setThreads(threads);
+				ForceComparison result = compare(new SimulationBF(), vectorized, Scenarios.randomDisk(n, 42));
+				vectorized.shutdown();
+
+				System.out.println(threads + " thread(s), " + result);
+				agree &= result.getMaxNormalised() <= VECTOR_TOLERANCE;
+			}
+		}
+		if(!agree){
+			System.out.println("Vectorised forces differ from the scalar ones by more than " + VECTOR_TOLERANCE);
+		}
+		return agree;
+	}
+
+	/**
+	 * @return True if the multipole forces get closer to the direct ones with every order,
+	 * 			until they only differ by rounding, and are within FMM_TOLERANCE at the
+	 * 			default order
+	 */
+	private static boolean compareMultipole(int count){
+
+		ArrayList<String> names = new ArrayList<>();
+		ArrayList<ArrayList<Planet>> systems = systems(count, names);
+
+		System.out.println("Fast multipole against brute force");
+		boolean agree = true;
+		for(int k = 0; k < systems.size(); k++){
+			double previous = Double.POSITIVE_INFINITY;
+			for(int order : FMM_ORDERS){
+				ForceComparison result = compare(new SimulationBF(), new SimulationFMM(order), systems.get(k));
+				System.out.println(names.get(k) + ", order " + order + ": " + result);
+
+				double error = result.getMaxNormalised();
+				agree &= error < previous || error <= FMM_ROUNDING;
+				agree &= order != SimulationFMM.DEFAULT_ORDER || error <= FMM_TOLERANCE;
+				previous = error;
+			}
+		}
+		if(!agree){
+			System.out.println("Multipole forces don't converge to the direct ones, or miss " + FMM_TOLERANCE
+					+ " at order " + SimulationFMM.DEFAULT_ORDER);
+		}
+		return agree;
+	}
+
+	private static void reportMixedPrecision(int count){
+
+		ArrayList<String> names = new ArrayList<>();
+		ArrayList<ArrayList<Planet>> systems = systems(count, names);
+
+		System.out.println("Mixed precision brute force against double");
+		for(boolean vectorized : new boolean[] {false, true}){
+			if(vectorized && !SimulationBF.isVectorAvailable()){
+				break;
+			}
+			for(int k = 0; k < systems.size(); k++){
+				SimulationBF mixed = new SimulationBF();
+				mixed.setVectorized(vectorized);
+				mixed.setMixedPrecision(true);
+				ForceComparison result = compare(new SimulationBF(), mixed, systems.get(k));
+				System.out.println((vectorized ? "Vectorised, " : "Scalar, ") + names.get(k) + ": " + result);
+			}
+		}
+	}
+
+	/**
+	 * @param names List the names of the systems are added to
+	 * @return The random disk and each of ScenarioGenerator's systems
+	 */
+	private static ArrayList<ArrayList<Planet>> systems(int count, ArrayList<String> names){
+
+		ArrayList<ArrayList<Planet>> systems = new ArrayList<>();
+		names.add("Random disk");
+		systems.add(Scenarios.randomDisk(count, 42));
+		for(ScenarioGenerator.Kind kind : ScenarioGenerator.Kind.values()){
+			names.add(kind.toString());
+			systems.add(new ScenarioGenerator(kind, count, 42).generate());
+		}
+		return systems;
+	}
+
+}
@@ -0,0 +1,377 @@
+package simulation.classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Runs a simulation without a window, as fast as the CPU allows. The system is read
+ * from a saved system file, stepped for a number of steps or a span of simulated time
+ * and written back out, optionally with periodic states along the way.
+ *
+ *   java simulation.classes.HeadlessRunner system.csv [options]
+ *
+ * Only the JavaFX colour class is used (through Planet), so no display is needed.
+ */
+public class HeadlessRunner {
+
+	private static final double MIN_TIMESTEP_DIVISOR = 100;	// default shortest tuned step, as in the window
+
+	private static final String USAGE =
+			"Usage: HeadlessRunner <system file> [options]\n"
+			+ "  --steps N         number of steps to run (default 1000)\n"
+			+ "  --years T         run for T simulated years instead of a number of steps\n"
+			+ "  --timestep T      timestep in years (default one day, " + Planet.ONE_DAY + ")\n"
+			+ "  --solver NAME     bf (brute force, default), simd (brute force with the Vector API,\n"
+			+ "                    needs java --add-modules jdk.incubator.vector), bh (Barnes-Hut)\n"
+			+ "                    or fmm (fast multipole method)\n"
+			+ "  --theta T         Barnes-Hut opening angle (default " + SimulationBH.DEFAULT_THETA + ")\n"
+			+ "  --order P         fast multipole expansion order, 0 to " + SimulationFMM.MAX_ORDER
+			+ " (default " + SimulationFMM.DEFAULT_ORDER + ")\n"
+			+ "  --softening E     Plummer softening length in AU for bf and simd (default 0)\n"
+			+ "  --precision NAME  double (default) or mixed (bf and simd: pairs in float, sums and\n"
+			+ "                    state in double)\n"
+			+ "  --threads N       worker threads (default 1)\n"
+			+ "  --integrator NAME euler (semi-implicit Euler, default), leapfrog, yoshida (4th order\n"
+			+ "                    symplectic), block (leapfrog with per-body block timesteps)\n"
+			+ "                    or dp (adaptive Dormand-Prince 5(4))\n"
+			+ "  --tolerance E     absolute and relative error tolerance for dp (default "
+			+ DormandPrinceIntegrator.DEFAULT_TOLERANCE + ")\n"
+			+ "  --eta E           fraction of a body's dynamical time used as its step for block (default "
+			+ BlockTimestepIntegrator.DEFAULT_ETA + ")\n"
+			+ "  --monitor yes|no  measure energy and momentum errors after every step (default no)\n"
+			+ "  --energy-budget E tune the timestep to the longest one keeping the relative energy\n"
+			+ "                    change within E per simulated year, starting from --timestep;\n"
+			+ "                    implies --monitor yes, and --years sets the length of the run\n"
+			+ "  --min-timestep T  shortest timestep --energy-budget may choose, in years (default\n"
+			+ "                    --timestep / " + (int) MIN_TIMESTEP_DIVISOR + "); the run stops with an error if the\n"
+			+ "                    budget can't be kept even at this timestep\n"
+			+ "  --record FILE     stream the trajectory to FILE while running\n"
+			+ "  --record-every K  record every K steps (default 1)\n"
+			+ "  --every K         write the state every K steps and report progress\n"
+			+ "  --out FILE        file receiving the final state (default <system>-final.csv)";
+
+	private HeadlessRunner(){}
+
+	public static void main(String[] args) {
+
+		try{
+			run(args);
+		}catch(IllegalArgumentException ex){
+			System.err.println(ex.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}catch(IOException | IllegalStateException ex){
+			System.err.println("Error encountered!: " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void run(String[] args) throws IOException{
+
+		if(args.length == 0){
+			throw new IllegalArgumentException("No system file given");
+		}
+
+		File input = new File(args[0]);
+		long steps = 1000;
+		double years = -1;
+		double timestep = Planet.ONE_DAY;
+		String solver = "bf";
+		double theta = SimulationBH.DEFAULT_THETA;
+		int order = SimulationFMM.DEFAULT_ORDER;
+		double softening = 0;
+		String precision = "double";
+		int threads = 1;
+		String integrator = "euler";
+		double tolerance = DormandPrinceIntegrator.DEFAULT_TOLERANCE;
+		double eta = BlockTimestepIntegrator.DEFAULT_ETA;
+		long every = 0;
+		File record = null;
+		int recordEvery = 1;
+		File output = null;
+		boolean monitored = false;
+		double budget = 0;
+		double minTimestep = -1;
+
+		for(int i = 1; i < args.length; i++){
+			String option = args[i];
+			if(i + 1 >= args.length){
+				throw new IllegalArgumentException("Missing value for " + option);
+			}
+			String value = args[++i];
+
+			switch(option){
+			case "--steps":
+				steps = Long.parseLong(value);
+				break;
+			case "--years":
+				years = Double.parseDouble(value);
+				break;
+			case "--timestep":
+				timestep = Double.parseDouble(value);
+				break;
+			case "--solver":
+				solver = value;
+				break;
+			case "--theta":
+				theta = Double.parseDouble(value);
+				break;
+			case "--order":
+				order = Integer.parseInt(value);
+				break;
+			case "--softening":
+				softening = Double.parseDouble(value);
+				break;
+			case "--precision":
+				precision = value;
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--integrator":
+				integrator = value;
+				break;
+			case "--tolerance":
+				tolerance = Double.parseDouble(value);
+				break;
+			case "--eta":
+				eta = Double.parseDouble(value);
+				break;
+			case "--monitor":
+				monitored = parseYesNo(option, value);
+				break;
+			case "--energy-budget":
+				budget = Double.parseDouble(value);
+				if(!(budget > 0)){
+					throw new IllegalArgumentException("Energy budget must be positive");
+				}
+				monitored = true;
+				break;
+			case "--min-timestep":
+				minTimestep = Double.parseDouble(value);
+				break;
+			case "--every":
+				every = Long.parseLong(value);
+				break;
+			case "--record":
+				record = new File(value);
+				break;
+			case "--record-every":
+				recordEvery = Integer.parseInt(value);
+				break;
+			case "--out":
+				output = new File(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+
+		if(timestep <= 0){
+			throw new IllegalArgumentException("Timestep must be positive");
+		}
+		if(minTimestep < 0){
+			minTimestep = timestep / MIN_TIMESTEP_DIVISOR;
+		}else if(minTimestep == 0 || minTimestep > timestep){
+			throw new IllegalArgumentException("Minimum timestep must be positive and no longer than the timestep");
+		}
+		if(years >= 0){
+			steps = (long) Math.ceil(years / timestep);
+		}
+		boolean byTime = budget > 0 && years >= 0;		// the number of steps depends on the timesteps chosen
+		if(output == null){
+			output = siblingFile(input, "final");
+		}
+
+		Simulation sim = createSimulation(solver, theta, softening, order);
+		setPrecision(sim, precision);
+		sim.setThreads(threads);
+		sim.setIntegrator(createIntegrator(integrator, tolerance, eta));
+		Simulation.timestep = timestep;
+
+		EnergyMonitor monitor = monitored ? new EnergyMonitor() : null;
+		sim.setEnergyMonitor(monitor);
+		TimestepController controller = null;
+		if(budget > 0){
+			controller = new TimestepController(budget);
+			controller.setLimits(minTimestep, Double.POSITIVE_INFINITY);
+			sim.setTimestepController(controller);
+		}
+
+		ArrayList<Planet> planets = SystemFile.load(input);
+		long testParticles = planets.stream().filter(Planet::isTestParticle).count();
+		System.out.println("Loaded " + planets.size() + " bodies"
+				+ (testParticles > 0 ? " (" + testParticles + " test particles)" : "")
+				+ " from " + input + ", running "
+				+ (byTime ? years + " years in steps starting at " : steps + " steps of ")
+				+ timestep + " years with " + sim.getClass().getSimpleName() + " in " + precision + " precision"
+				+ " and " + sim.getIntegrator().getClass().getSimpleName()
+				+ " on " + threads + " thread(s)");
+
+		TrajectoryRecorder recorder = null;
+		if(record != null){
+			recorder = new TrajectoryRecorder(record, planets, recordEvery);
+			recorder.setWaitForWriter(true);
+			sim.getBodies().bind(planets);
+			recorder.record(sim.getBodies(), 0, 0);
+		}
+
+		long start = System.nanoTime();
+		long lastReport = start;
+
+		long step = 0;
+		while(byTime ? sim.getTime() < years : step < steps){
+			sim.checkForces(planets);
+			step++;
+
+			if(controller != null && controller.isStuck()){
+				// Going on at the shortest timestep would break the budget, or never end with --years
+				throw new IllegalStateException(String.format(Locale.ROOT,
+						"energy budget %.2e exceeded at the minimum timestep of %s years after %d steps (t = %.4f years)",
+						budget, minTimestep, step, sim.getTime()));
+			}
+
+			if(recorder != null && step % recordEvery == 0){
+				recorder.record(sim.getBodies(), step, sim.getTime());
+			}
+
+			if(every > 0 && step % every == 0){
+				long now = System.nanoTime();
+				SystemFile.save(siblingFile(output, "step" + step), planets);
+				System.out.println(String.format(Locale.ROOT, "step %d  t = %.4f years  %.1f steps/s",
+						step, sim.getTime(), every / ((now - lastReport) / 1e9)) + energyReport(monitor));
+				lastReport = System.nanoTime();
+			}
+		}
+
+		if(recorder != null){
+			recorder.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		sim.shutdown();
+		SystemFile.save(output, planets);
+
+		System.out.println(String.format(Locale.ROOT, "Finished %d steps (%.4f years) in %.3f s: %.1f steps/s",
+				step, sim.getTime(), seconds, step / seconds));
+		System.out.println(sim.getIntegrator());
+		if(monitor != null){
+			System.out.println("Energy and momenta:" + energyReport(monitor)
+					+ String.format(Locale.ROOT, ", largest energy error %.2e", monitor.getMaxEnergyError()));
+		}
+		if(budget > 0){
+			System.out.println("Final timestep: " + Simulation.timestep + " years");
+		}
+		if(recorder != null){
+			System.out.println(recorder + ", trajectory written to " + record);
+		}
+		System.out.println("Final state written to " + output);
+	}
+
+	/**
+	 * @return Errors of the latest measurement to add to a progress line, empty if not measured
+	 */
+	private static String energyReport(EnergyMonitor monitor){
+		if(monitor == null){
+			return "";
+		}
+		return String.format(Locale.ROOT, "  energy error %.2e  momentum %.2e  angular momentum %.2e",
+				monitor.getEnergyError(), monitor.getMomentumError(), monitor.getAngularMomentumError());
+	}
+
+	private static boolean parseYesNo(String option, String value){
+		switch(value){
+		case "yes":
+			return true;
+		case "no":
+			return false;
+		default:
+			throw new IllegalArgumentException("Expected yes or no for " + option + ": " + value);
+		}
+	}
+
+	/**
+	 * @param name Short name of a solver, as accepted by --solver
+	 * @param theta Barnes-Hut opening angle
+	 * @param softening Plummer softening length in AU
+	 * @param order Fast multipole expansion order
+	 * @return New simulation using that solver
+	 */
+	static Simulation createSimulation(String name, double theta, double softening, int order){
+		switch(name){
+		case "bf":
+			return new SimulationBF(softening);
+		case "simd":
+			if(!SimulationBF.isVectorAvailable()){
+				throw new IllegalArgumentException(
+						"Solver simd needs the Vector API, run java with --add-modules jdk.incubator.vector");
+			}
+			SimulationBF vectorized = new SimulationBF(softening);
+			vectorized.setVectorized(true);
+			return vectorized;
+		case "bh":
+			return new SimulationBH(theta);
+		case "fmm":
+			return new SimulationFMM(order);
+		default:
+			throw new IllegalArgumentException("Unknown solver " + name);
+		}
+	}
+
+	/**
+	 * @param sim Simulation to set the precision of
+	 * @param name Precision of the forces, as accepted by --precision
+	 */
+	static void setPrecision(Simulation sim, String name){
+		switch(name){
+		case "double":
+			break;
+		case "mixed":
+			if(!(sim instanceof SimulationBF)){
+				throw new IllegalArgumentException("Mixed precision is only available for the brute force solvers");
+			}
+			((SimulationBF) sim).setMixedPrecision(true);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown precision " + name);
+		}
+	}
+
+	/**
+	 * @param name Short name of an integrator, as accepted by --integrator
+	 * @param tolerance Error tolerance of adaptive integrators
+	 * @param eta Fraction of the dynamical time used as step by block timesteps
+	 * @return New integrator of that kind
+	 */
+	static Integrator createIntegrator(String name, double tolerance, double eta){
+		switch(name){
+		case "euler":
+			return new EulerIntegrator();
+		case "leapfrog":
+			return new LeapfrogIntegrator();
+		case "yoshida":
+			return new YoshidaIntegrator();
+		case "block":
+			return new BlockTimestepIntegrator(eta);
+		case "dp":
+			return new DormandPrinceIntegrator(tolerance, tolerance);
+		default:
+			throw new IllegalArgumentException("Unknown integrator " + name);
+		}
+	}
+
+	/**
+	 * @param file A file
+	 * @param suffix Text added to the file's name
+	 * @return File next to the given one, named "<name>-<suffix>" with the same extension
+	 */
+	private static File siblingFile(File file, String suffix){
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		String stem = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : ".csv";
+		return new File(file.getAbsoluteFile().getParentFile(), stem + "-" + suffix + extension);
+	}
+
+}
@@ -0,0 +1,24 @@
+package simulation.classes;
+
+/**
+ * Advances the bodies of a simulation through time. The simulation decides how forces
+ * are found, the integrator decides where and how often they are evaluated.
+ */
+public interface Integrator {
+
+	/**
+	 * Advance the bodies by one timestep, keeping their positions at the start of the
+	 * step as their previous positions
+	 *
+	 * @param simulation Simulation computing the forces, through computeForces(BodyStore)
+	 * @param bodies Bodies taking part in the simulation
+	 * @param timestep Time difference of the step in years
+	 */
+	void step(Simulation simulation, BodyStore bodies, double timestep);
+
+	/**
+	 * @return Number of times the forces on all bodies have been evaluated so far
+	 */
+	long getForceEvaluations();
+
+}
@@ -0,0 +1,120 @@
+package simulation.classes;
+
+/**
+ * Text of the detailed labels (position, velocity and distance to the Sun), kept between
+ * frames. A label is only rebuilt when one of its displayed digits has changed, and the
+ * digits are looked at a few times a second at most, so drawing labels doesn't produce new
+ * strings every frame.
+ */
+final class LabelCache {
+
+	static final long UPDATE_INTERVAL = 250_000_000L;	// nanoseconds between looks at the digits
+	private static final int VALUES = 5;				// x, y, vx, vy and distance to the Sun
+
+	private String[] text = new String[0];
+	private String[] names = new String[0];			// name each label was built with
+	private long[] shown = new long[0];				// displayed values, see update(), VALUES per body
+	private final StringBuilder builder = new StringBuilder(128);
+
+	private long updated;							// time of the last look at the digits
+	private boolean started = false;				// the digits have been looked at before
+	private boolean refresh;						// look at the digits this frame
+
+	/**
+	 * Decide whether the labels may change in this frame
+	 *
+	 * @param now Time of the frame in nanoseconds, as from System.nanoTime()
+	 * @param count Number of bodies that may get a label
+	 */
+	void beginFrame(long now, int count){
+		if(text.length < count){
+			text 	= new String[count];
+			names 	= new String[count];
+			shown 	= new long[count * VALUES];
+		}
+
+		refresh = !started || now - updated >= UPDATE_INTERVAL;
+		if(refresh){
+			updated = now;
+			started = true;
+		}
+	}
+
+	/**
+	 * @param planet Planet being labelled
+	 * @param state Positions and velocities of the planets
+	 * @param i Index of the planet in the snapshot
+	 * @return Text of the planet's detailed label
+	 */
+	String get(Planet planet, Snapshot state, int i){
+		String name = planet.getName();
+		if(text[i] != null && names[i] == name && !refresh){
+			return text[i];
+		}
+
+		double dx = state.x[0] / Planet.SCALE - state.x[i] / Planet.SCALE;
+		double dy = state.y[0] / Planet.SCALE - state.y[i] / Planet.SCALE;
+
+		int at = i * VALUES;
+		boolean changed = text[i] == null || names[i] != name;
+		changed |= update(at, state.x[i]);
+		changed |= update(at + 1, state.y[i]);
+		changed |= update(at + 2, state.vx[i]);
+		changed |= update(at + 3, state.vy[i]);
+		changed |= update(at + 4, Math.sqrt(dx * dx + dy * dy));
+
+		if(changed){
+			builder.setLength(0);
+			builder.append(name).append("\nPos- X: ");
+			appendHundredths(shown[at]);
+			builder.append(" Y: ");
+			appendHundredths(shown[at + 1]);
+			builder.append("\nVel- X: ");
+			appendHundredths(shown[at + 2]);
+			builder.append(" Y: ");
+			appendHundredths(shown[at + 3]);
+			builder.append("  AU/year\nDistance to Sun: ");
+			appendHundredths(shown[at + 4]);
+			builder.append(" AU");
+
+			text[i] 	= builder.toString();
+			names[i] 	= name;
+		}
+		return text[i];
+	}
+
+	/**
+	 * Keep a value as shown, its magnitude in hundredths with all bits flipped if negative
+	 * (so that, like String.format, -0.001 shows as -0.00)
+	 *
+	 * @return True if the value shows differently than before
+	 */
+	private boolean update(int at, double value){
+		long hundredths = Math.round(Math.abs(value) * 100);
+		if(value < 0){
+			hundredths = ~hundredths;
+		}
+		if(shown[at] == hundredths){
+			return false;
+		}
+		shown[at] = hundredths;
+		return true;
+	}
+
+	/**
+	 * Append a value kept by update() with two decimals, like String.format("%.2f", value)
+	 */
+	private void appendHundredths(long hundredths){
+		if(hundredths < 0){
+			builder.append('-');
+			hundredths = ~hundredths;
+		}
+		long fraction = hundredths % 100;
+		builder.append(hundredths / 100).append('.');
+		if(fraction < 10){
+			builder.append('0');
+		}
+		builder.append(fraction);
+	}
+
+}
@@ -0,0 +1,17 @@
+package simulation.classes;
+
+/**
+ * Kick-drift-kick leapfrog, also known as velocity Verlet. Second order and symplectic,
+ * for one force evaluation per step like semi-implicit Euler.
+ */
+public class LeapfrogIntegrator extends SymplecticIntegrator {
+
+	public LeapfrogIntegrator(){
+		super(new double[]{ 0.5, 0.5 }, new double[]{ 1 });
+	}
+
+	public String toString(){
+		return "Leapfrog (kick-drift-kick), force evaluations: " + getForceEvaluations();
+	}
+
+}
@@ -1,22 +1,20 @@
 package simulation.classes;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Optional;
-import java.util.Scanner;
 
-import javafx.animation.Animation;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -27,23 +25,25 @@ import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Modality;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.RadioMenuItem;
+import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
 import javafx.scene.control.ToggleButton;
-import javafx.scene.image.Image;
-import javafx.scene.image.ImageView;
+import javafx.scene.control.ToggleGroup;
 import javafx.scene.control.ButtonBar.ButtonData;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
@@ -54,9 +54,32 @@ import javafx.scene.layout.Pane;
 import javafx.scene.paint.Color;
 
 public class Main extends Application {
-	private static boolean ENABLED_TRACES = false;
-	private static boolean ENABLED_LABELS = false;
-	private static boolean ENABLED_LINES_TO_SUN = false;
+	// Draws the planets, holds the traces/labels/lines to Sun switches
+	private final PlanetRenderer renderer = new PlanetRenderer();
+
+	// Frame times and step rates, shown from the View menu
+	private final PerfOverlay perfOverlay = new PerfOverlay();
+
+	// Measures energy and momenta while selected in the Edit menu
+	private final EnergyMonitor energyMonitor = new EnergyMonitor();
+
+	// Simulation engine used for every step, chosen from the Edit menu
+	private Simulation sim = new SimulationBF();
+
+	// Steps the simulation on its own thread, independently of the drawing
+	private SimulationLoop simLoop;
+
+	// Streams the trajectory to a file while "Record trajectory" is checked
+	private TrajectoryRecorder recorder;
+
+	// Plays a recorded trajectory instead of the simulation while the playback window is open
+	private TrajectoryPlayer player;
+	private Slider playbackScrubber;
+	private Label playbackTime;
+	private boolean updatingScrubber = false;
+
+	// The accuracy slider is being moved to the automatic timestep, not by the user
+	private boolean updatingTimestep = false;
 
 	public static void main(String[] args) {
 		launch(args);
@@ -149,7 +172,25 @@ public class Main extends Application {
 			Menu menuView = new Menu("View");
 			menuBar.getMenus().addAll(menuFile, menuEdit, menuView);
 
+			// Trace settings, each trail length item carries its number of points
+			Menu menuTraceLength = new Menu("Trace length");
+			ToggleGroup traceLengthGroup = new ToggleGroup();
+			for (int length : new int[] { 500, TraceStore.DEFAULT_LENGTH, 10000 }) {
+				RadioMenuItem traceLength = new RadioMenuItem(length + " points per planet");
+				traceLength.setUserData(length);
+				traceLength.setToggleGroup(traceLengthGroup);
+				traceLength.setSelected(length == TraceStore.DEFAULT_LENGTH);
+				menuTraceLength.getItems().add(traceLength);
+			}
+			CheckMenuItem fadeTraces = new CheckMenuItem("Fade older parts of traces");
+			fadeTraces.setSelected(renderer.isFadeTraces());
+
+			CheckMenuItem showPerfOverlay = new CheckMenuItem("Performance overlay");
+
+			menuView.getItems().addAll(menuTraceLength, fadeTraces, new SeparatorMenuItem(), showPerfOverlay);
+
 			MenuItem loadDefSys = new MenuItem("Load default system");
+			MenuItem generateSys = new MenuItem("Generate system");
 			MenuItem createSys = new MenuItem("Create new system");
 			MenuItem saveSys = new MenuItem("Save system");
 			MenuItem loadSys = new MenuItem("Load system");
@@ -158,7 +199,92 @@ public class Main extends Application {
 				saveSys.setDisable(true);
 			}
 
-			menuFile.getItems().addAll(loadDefSys, createSys, saveSys, loadSys);
+			CheckMenuItem recordTrajectory = new CheckMenuItem("Record trajectory");
+			MenuItem playTrajectory = new MenuItem("Play trajectory");
+
+			menuFile.getItems().addAll(loadDefSys, generateSys, createSys, saveSys, loadSys, recordTrajectory, playTrajectory);
+
+			Menu menuSolver = new Menu("Solver");
+			ToggleGroup solverGroup = new ToggleGroup();
+			RadioMenuItem bruteForceSolver = new RadioMenuItem("Brute force (exact)");
+			RadioMenuItem vectorSolver = new RadioMenuItem("Brute force, vectorized (" + SimulationBF.vectorLanes() + " lanes)");
+			RadioMenuItem barnesHutSolver = new RadioMenuItem("Barnes-Hut (theta = " + SimulationBH.DEFAULT_THETA + ")");
+			RadioMenuItem multipoleSolver = new RadioMenuItem("Fast multipole (order " + SimulationFMM.DEFAULT_ORDER + ")");
+
+			bruteForceSolver.setToggleGroup(solverGroup);
+			vectorSolver.setToggleGroup(solverGroup);
+			barnesHutSolver.setToggleGroup(solverGroup);
+			multipoleSolver.setToggleGroup(solverGroup);
+			bruteForceSolver.setSelected(true);
+			vectorSolver.setDisable(!SimulationBF.isVectorAvailable());	// needs --add-modules jdk.incubator.vector
+
+			menuSolver.getItems().addAll(bruteForceSolver, vectorSolver, barnesHutSolver, multipoleSolver);
+
+			int cores = Runtime.getRuntime().availableProcessors();
+			CheckMenuItem parallelSolver = new CheckMenuItem("Parallel evaluation (" + cores + " threads)");
+			parallelSolver.setDisable(cores == 1);
+
+			Menu menuIntegrator = new Menu("Integrator");
+			ToggleGroup integratorGroup = new ToggleGroup();
+			RadioMenuItem eulerIntegrator = new RadioMenuItem("Semi-implicit Euler");
+			RadioMenuItem leapfrogIntegrator = new RadioMenuItem("Leapfrog (symplectic, 2nd order)");
+			RadioMenuItem yoshidaIntegrator = new RadioMenuItem("Yoshida (symplectic, 4th order)");
+			RadioMenuItem blockIntegrator = new RadioMenuItem("Leapfrog with block timesteps per body");
+			RadioMenuItem adaptiveIntegrator = new RadioMenuItem("Adaptive Dormand-Prince 5(4)");
+
+			eulerIntegrator.setToggleGroup(integratorGroup);
+			leapfrogIntegrator.setToggleGroup(integratorGroup);
+			yoshidaIntegrator.setToggleGroup(integratorGroup);
+			blockIntegrator.setToggleGroup(integratorGroup);
+			adaptiveIntegrator.setToggleGroup(integratorGroup);
+			eulerIntegrator.setSelected(true);
+
+			menuIntegrator.getItems().addAll(eulerIntegrator, leapfrogIntegrator, yoshidaIntegrator, blockIntegrator,
+					adaptiveIntegrator);
+
+			// Fast-forward runs several steps for every frame drawn, instead of keeping to the
+			// calculation frequency. Each item carries its number of steps per frame.
+			Menu menuFastForward = new Menu("Fast-forward");
+			ToggleGroup fastForwardGroup = new ToggleGroup();
+			RadioMenuItem fastForwardOff = new RadioMenuItem("Off (use the calculation frequency)");
+			fastForwardOff.setUserData(0);
+			fastForwardOff.setToggleGroup(fastForwardGroup);
+			fastForwardOff.setSelected(true);
+			menuFastForward.getItems().add(fastForwardOff);
+
+			for (int stepsPerFrame : new int[] { 10, 100, 1000 }) {
+				RadioMenuItem fastForward = new RadioMenuItem(stepsPerFrame + " steps per frame");
+				fastForward.setUserData(stepsPerFrame);
+				fastForward.setToggleGroup(fastForwardGroup);
+				menuFastForward.getItems().add(fastForward);
+			}
+
+			RadioMenuItem fastForwardMax = new RadioMenuItem("As many steps per frame as possible");
+			fastForwardMax.setUserData(SimulationLoop.AS_MANY_AS_POSSIBLE);
+			fastForwardMax.setToggleGroup(fastForwardGroup);
+			menuFastForward.getItems().add(fastForwardMax);
+
+			// The energy monitor measures energy and momenta after every step, shown in the
+			// performance overlay. The automatic timestep grows the timestep as far as the
+			// energy budget of each item allows (0 for off), and needs the monitor.
+			CheckMenuItem monitorEnergy = new CheckMenuItem("Monitor energy and momentum");
+			Menu menuAutoTimestep = new Menu("Automatic timestep");
+			ToggleGroup autoTimestepGroup = new ToggleGroup();
+			RadioMenuItem autoTimestepOff = new RadioMenuItem("Off (use the accuracy slider)");
+			autoTimestepOff.setUserData(0.0);
+			autoTimestepOff.setToggleGroup(autoTimestepGroup);
+			autoTimestepOff.setSelected(true);
+			menuAutoTimestep.getItems().add(autoTimestepOff);
+
+			for (String budget : new String[] { "1e-4", "1e-6", "1e-8" }) {
+				RadioMenuItem autoTimestep = new RadioMenuItem("Energy error below " + budget + " per year");
+				autoTimestep.setUserData(Double.parseDouble(budget));
+				autoTimestep.setToggleGroup(autoTimestepGroup);
+				menuAutoTimestep.getItems().add(autoTimestep);
+			}
+
+			menuEdit.getItems().addAll(menuSolver, menuIntegrator, menuFastForward, parallelSolver,
+					new SeparatorMenuItem(), monitorEnergy, menuAutoTimestep);
 
 			Label accuracySliderLabel = new Label(
 					"Simulation Accuracy (Timestep used in calculation)\n<One day - One month>");
@@ -168,10 +294,16 @@ public class Main extends Application {
 
 			Canvas mainCanvas = new Canvas();
 			Canvas traceCanvas = new Canvas();
+			Canvas overlayCanvas = new Canvas(440, 120);
 
 			GraphicsContext gcMain = mainCanvas.getGraphicsContext2D();
 			GraphicsContext gcTrace = traceCanvas.getGraphicsContext2D();
-			canvasContainer = new Pane(traceCanvas, mainCanvas);
+			GraphicsContext gcOverlay = overlayCanvas.getGraphicsContext2D();
+			canvasContainer = new Pane(traceCanvas, mainCanvas, overlayCanvas);
+
+			// The overlay sits in the top left corner, clicks go through to the planets
+			overlayCanvas.setMouseTransparent(true);
+			overlayCanvas.setVisible(false);
 
 			mainCanvas.setWidth(screenBounds.getWidth());
 			mainCanvas.setHeight(screenBounds.getHeight());
@@ -222,28 +354,76 @@ public class Main extends Application {
 			sliders.add(speedSliderLabel, 1, 0);
 			sliders.add(speedSlider, 1, 1);
 
-			// Declare an instance of Brute Force Simulation class
-			SimulationBF sim = new SimulationBF();
-
 			// Populate starting screen with planets
 			drawPlanets(planets, gcMain, gcTrace);
 
-			// Create a Timeline object that will periodically re-draw planets as their
-			// positions change
-			Timeline timeline = new Timeline(
-					new KeyFrame(Duration.seconds(1 / speedSlider.getValue()), new EventHandler<ActionEvent>() {
-						@Override
-						public void handle(ActionEvent e) {
-							e.consume();
-							sim.checkForces(planets);
+			// Create the simulation thread, it waits until the simulation is started
+			simLoop = new SimulationLoop(planets, sim, speedSlider.getValue());
+
+			// A step that fails pauses the loop, the user is told why
+			simLoop.setFailureListener(ex -> Platform.runLater(() -> {
+				startPauseSim.setSelected(false);
+				Alert error = new Alert(AlertType.ERROR);
+				error.setHeaderText("The simulation stopped");
+				error.setContentText("A step failed: " + ex);
+				error.show();
+			}));
+
+			// Re-draw the planets at the display's refresh rate whenever the simulation
+			// thread has published a new state, or the recording being played has moved on
+			AnimationTimer renderTimer = new AnimationTimer() {
+				private long lastFrame = 0;
+
+				@Override
+				public void handle(long now) {
+					double seconds = lastFrame == 0 ? 0 : (now - lastFrame) / 1e9;
+					lastFrame = now;
+
+					long drawTime = -1;
+					int bodies;
+
+					if (player != null) {
+						try {
+							player.advance(seconds);
+						} catch (IOException ex) {
+							System.out.println("Error encountered!: " + ex.getMessage());
+						}
 
+						Snapshot snapshot = player.takeSnapshot();
+						if (snapshot != null) {
+							long drawStart = System.nanoTime();
 							gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
-							drawPlanets(planets, gcMain, gcTrace);
+							renderer.draw(player.getPlanets(), snapshot, gcMain, gcTrace);
+							drawTime = System.nanoTime() - drawStart;
+							updatePlayback();
 						}
-					}));
+						bodies = player.getPlanets().size();
+					} else {
+						Snapshot snapshot = simLoop.takeSnapshot();
 
-			// Set the Timeline to repeat forever
-			timeline.setCycleCount(Animation.INDEFINITE);
+						if (snapshot != null && snapshot.size() == planets.size()) {
+							long drawStart = System.nanoTime();
+							gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
+							renderer.draw(planets, snapshot, gcMain, gcTrace);
+							drawTime = System.nanoTime() - drawStart;
+						}
+						bodies = planets.size();
+					}
+
+					// Show the timestep chosen by the automatic timestep
+					if (sim.getTimestepController() != null && accuracySlider.getValue() != Simulation.timestep) {
+						updatingTimestep = true;
+						accuracySlider.setValue(Simulation.timestep);
+						updatingTimestep = false;
+					}
+
+					perfOverlay.frame(now, drawTime);
+					if (overlayCanvas.isVisible() && perfOverlay.update(now, simLoop, bodies)) {
+						perfOverlay.draw(gcOverlay);
+					}
+				}
+			};
+			renderTimer.start();
 
 			// Set the scene and display it
 			Scene scene = new Scene(layout, primaryStage.getWidth(), primaryStage.getHeight());
@@ -254,6 +434,181 @@ public class Main extends Application {
 			// ------------------------------------------------- ACTION LISTENERS
 			// -------------------------------------------------
 
+			bruteForceSolver.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					replaceSimulation(new SimulationBF());
+				}
+			});
+
+			vectorSolver.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					SimulationBF vectorized = new SimulationBF();
+					vectorized.setVectorized(true);
+					replaceSimulation(vectorized);
+				}
+			});
+
+			barnesHutSolver.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					replaceSimulation(new SimulationBH());
+				}
+			});
+
+			multipoleSolver.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					replaceSimulation(new SimulationFMM());
+				}
+			});
+
+			parallelSolver.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					simLoop.runBetweenSteps(() -> sim.setThreads(parallelSolver.isSelected() ? cores : 1));
+				}
+			});
+
+			eulerIntegrator.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					simLoop.runBetweenSteps(() -> sim.setIntegrator(new EulerIntegrator()));
+				}
+			});
+
+			leapfrogIntegrator.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					simLoop.runBetweenSteps(() -> sim.setIntegrator(new LeapfrogIntegrator()));
+				}
+			});
+
+			yoshidaIntegrator.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					simLoop.runBetweenSteps(() -> sim.setIntegrator(new YoshidaIntegrator()));
+				}
+			});
+
+			blockIntegrator.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					simLoop.runBetweenSteps(() -> sim.setIntegrator(new BlockTimestepIntegrator()));
+				}
+			});
+
+			adaptiveIntegrator.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+					simLoop.runBetweenSteps(() -> sim.setIntegrator(new DormandPrinceIntegrator()));
+				}
+			});
+
+			recordTrajectory.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+
+					if (!recordTrajectory.isSelected()) {
+						stopRecording();
+						return;
+					}
+
+					FileChooser fileChooser = new FileChooser();
+					fileChooser.setTitle("Record Trajectory");
+					fileChooser.setInitialFileName(TrajectoryFormat.EXTENSION);
+					fileChooser.getExtensionFilters().add(new ExtensionFilter("Trajectory files (*.straj)", "*.straj"));
+
+					File file = fileChooser.showSaveDialog(primaryStage);
+					if (file == null) {
+						recordTrajectory.setSelected(false);
+						return;
+					}
+					if (!file.getPath().toLowerCase().endsWith(TrajectoryFormat.EXTENSION)) {
+						file = new File(file.getPath() + TrajectoryFormat.EXTENSION);
+					}
+
+					try {
+						recorder = new TrajectoryRecorder(file, planets, 1);
+						simLoop.setRecorder(recorder);
+					} catch (IOException ex) {
+						System.out.println("Error encountered!: " + ex.getMessage());
+						recordTrajectory.setSelected(false);
+					}
+				}
+			});
+
+			playTrajectory.setOnAction(new EventHandler<ActionEvent>() {
+				@Override
+				public void handle(ActionEvent e) {
+					e.consume();
+
+					if (player != null) {
+						return;
+					}
+
+					FileChooser fileChooser = new FileChooser();
+					fileChooser.setTitle("Play Trajectory");
+					fileChooser.getExtensionFilters().add(new ExtensionFilter("Trajectory files (*.straj)", "*.straj"));
+
+					File file = fileChooser.showOpenDialog(primaryStage);
+					if (file == null) {
+						return;
+					}
+
+					try {
+						player = new TrajectoryPlayer(file);
+					} catch (IOException ex) {
+						System.out.println("Error encountered!: " + ex.getMessage());
+						return;
+					}
+
+					// The simulation stays paused while the recording is shown
+					if (startPauseSim.isSelected()) {
+						simLoop.stop();
+						startPauseSim.setSelected(false);
+					}
+					startPauseSim.setDisable(true);
+
+					gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
+					gcTrace.clearRect(0, 0, traceCanvas.getWidth(), traceCanvas.getHeight());
+					renderer.clearTraces();
+
+					Stage playback = createPlaybackStage(primaryStage, () -> {
+						gcTrace.clearRect(0, 0, traceCanvas.getWidth(), traceCanvas.getHeight());
+						renderer.clearTraces();
+					});
+
+					playback.setOnHidden(event -> {
+						try {
+							player.close();
+						} catch (IOException ex) {
+							System.out.println("Error encountered!: " + ex.getMessage());
+						}
+						player = null;
+						startPauseSim.setDisable(false);
+
+						gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
+						gcTrace.clearRect(0, 0, traceCanvas.getWidth(), traceCanvas.getHeight());
+						renderer.clearTraces();
+						drawPlanets(planets, gcMain, gcTrace);
+					});
+					playback.show();
+				}
+			});
+
 			loadDefSys.setOnAction(new EventHandler<ActionEvent>() {
 				public void handle(ActionEvent e) {
 
@@ -277,7 +632,7 @@ public class Main extends Application {
 
 						// Stop the animation if play button is selected
 						if (startPauseSim.isSelected()) {
-							timeline.stop();
+							simLoop.stop();
 							startPauseSim.setSelected(false);
 						}
 
@@ -285,32 +640,7 @@ public class Main extends Application {
 						planets.clear();
 						gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
 
-						planets.add(
-								new Planet("Sun", 500.0, 365.0, 0.0, 0.0, 0.0, 0.0, Planet.SUN_MASS, Color.YELLOW, 6));
-
-						planets.add(new Planet("Mercury", 505.85, 365.0, 0.0, 9.9921636, 0.0, 0.0, Planet.MERCURY_MASS,
-								Color.RED, 3));
-
-						planets.add(new Planet("Venus", 510.86, 365.0, 0.0, 7.3781799, 0.0, 0.0, Planet.VENUS_MASS,
-								Color.SADDLEBROWN, 3));
-
-						planets.add(new Planet("Earth", 515, 365.0, 0.0, 6.283, 0.0, 0.0, Planet.EARTH_MASS, Color.BLUE,
-								3));
-
-						planets.add(new Planet("Mars", 522.86, 365.0, 0.0, 5.0804039, 0.0, 0.0, Planet.MARS_MASS,
-								Color.FIREBRICK, 3));
-
-						planets.add(new Planet("Jupiter", 578.045, 365.0, 0.0, 2.7615473, 0.0, 0.0, Planet.MARS_MASS,
-								Color.ROSYBROWN, 4));
-
-						planets.add(new Planet("Saturn", 642.95, 365.0, 0.0, 2.023729, 0.0, 0.0, Planet.MARS_MASS,
-								Color.GOLD, 4));
-
-						planets.add(new Planet("Uranus", 787.7, 365.0, 0.0, 1.433475, 0.0, 0.0, Planet.MARS_MASS,
-								Color.AQUAMARINE, 4));
-
-						planets.add(new Planet("Neptune", 950.9, 365.0, 0.0, 1.138348, 0.0, 0.0, Planet.MARS_MASS,
-								Color.DODGERBLUE, 4));
+						planets.addAll(Scenarios.solarSystem());
 
 						for(Planet item:planets) {
 							planetsStatic.add(item);
@@ -332,6 +662,114 @@ public class Main extends Application {
 				}
 			});
 
+			generateSys.setOnAction(new EventHandler<ActionEvent>() {
+				public void handle(ActionEvent e) {
+
+					e.consume();
+
+					Dialog<ScenarioGenerator> dialog = new Dialog<>();
+					dialog.setTitle("Generate System");
+					dialog.setHeaderText(planets.isEmpty() ? "Choose the kind and size of the system:"
+							: "Generating a system will remove the current system!");
+
+					ButtonType generateButton = new ButtonType("Generate", ButtonData.OK_DONE);
+					dialog.getDialogPane().getButtonTypes().addAll(generateButton, ButtonType.CANCEL);
+
+					GridPane grid = new GridPane();
+					grid.setHgap(10);
+					grid.setVgap(10);
+					grid.setPadding(new Insets(20, 150, 10, 10));
+
+					ComboBox<ScenarioGenerator.Kind> kind = new ComboBox<ScenarioGenerator.Kind>(
+							FXCollections.observableArrayList(ScenarioGenerator.Kind.values()));
+					TextField count = new TextField("100000");
+					TextField seed = new TextField("1");
+					kind.setValue(ScenarioGenerator.Kind.BELT);
+
+					grid.add(new Label("Kind of system:"), 0, 0);
+					grid.add(kind, 1, 0);
+					grid.add(new Label("Number of bodies:"), 0, 1);
+					grid.add(count, 1, 1);
+					grid.add(new Label("Seed  (same seed, same system) :"), 0, 2);
+					grid.add(seed, 1, 2);
+
+					dialog.getDialogPane().setContent(grid);
+
+					dialog.setResultConverter(dialogButton -> {
+						if (dialogButton != generateButton) {
+							return null;
+						}
+						try {
+							return new ScenarioGenerator(kind.getValue(), Integer.parseInt(count.getText().trim()),
+									Long.parseLong(seed.getText().trim()));
+						} catch (IllegalArgumentException ex) {
+							Alert error = new Alert(AlertType.ERROR);
+							error.setHeaderText(null);
+							error.setContentText("Invalid number of bodies or seed: " + ex.getMessage());
+							error.showAndWait();
+							return null;
+						}
+					});
+
+					Optional<ScenarioGenerator> result = dialog.showAndWait();
+
+					if (result.isPresent()) {
+
+						// Millions of bodies take a while, generate them in the background and
+						// only replace the planets once they are all there
+						ScenarioGenerator generator = result.get();
+						Task<ArrayList<Planet>> generation = new Task<ArrayList<Planet>>() {
+							@Override
+							protected ArrayList<Planet> call() {
+								return generator.generate();
+							}
+						};
+
+						generateSys.setDisable(true);
+						generateSys.setText("Generating system...");
+
+						generation.setOnSucceeded(done -> {
+							generateSys.setDisable(false);
+							generateSys.setText("Generate system");
+
+							// Stop the animation if play button is selected
+							if (startPauseSim.isSelected()) {
+								simLoop.stop();
+								startPauseSim.setSelected(false);
+							}
+
+							// Replace the planets and clear the screen
+							ArrayList<Planet> generated = generation.getValue();
+							planets.clear();
+							planetsStatic.clear();
+							planets.addAll(generated);
+							planetsStatic.addAll(generated);
+							gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
+
+							drawPlanets(planets, gcMain, gcTrace);
+							resetMeasurements();
+
+							saveSys.setDisable(planets.isEmpty());
+						});
+
+						generation.setOnFailed(failed -> {
+							generateSys.setDisable(false);
+							generateSys.setText("Generate system");
+
+							Alert error = new Alert(AlertType.ERROR);
+							error.setHeaderText(null);
+							error.setContentText("The system could not be generated: " + generation.getException());
+							error.show();
+						});
+
+						Thread thread = new Thread(generation, "Generator");
+						thread.setDaemon(true);
+						thread.start();
+					}
+
+				}
+			});
+
 			createSys.setOnAction(new EventHandler<ActionEvent>() {
 				public void handle(ActionEvent e) {
 
@@ -353,7 +791,7 @@ public class Main extends Application {
 
 						// Stop the animation if play button is selected
 						if (startPauseSim.isSelected()) {
-							timeline.stop();
+							simLoop.stop();
 							startPauseSim.setSelected(false);
 						}
 
@@ -375,62 +813,51 @@ public class Main extends Application {
 			});
 
 			saveSys.setOnAction(new EventHandler<ActionEvent>() {
-				public void handle(ActionEvent e) throws NullPointerException{
+				public void handle(ActionEvent e) {
 
 					//Consume event
 					e.consume();
 
 					//Check if the simulation is running, stop if it is
 					if(startPauseSim.isSelected()) {
-						timeline.stop();
+						simLoop.stop();
 						startPauseSim.setSelected(false);
 					}
 
 					//Create necessary objects for saving the file
 					FileChooser fileChooser = new FileChooser();
-					PrintWriter output = null;
 
 					//Set extra options to objects
 					fileChooser.setTitle("Save System");
 					fileChooser.setInitialDirectory(new File("/home/bullseye/"));
 					fileChooser.setInitialFileName(".csv");
-					fileChooser.getExtensionFilters().add(new ExtensionFilter("CSV files (*.csv)","*.csv"));
 
-					try{
+					ExtensionFilter csvFilter = new ExtensionFilter("CSV files (*.csv)", "*.csv");
+					ExtensionFilter binaryFilter = new ExtensionFilter("Binary system files (*.ssim)", "*.ssim");
+					ExtensionFilter compressedFilter = new ExtensionFilter("Compressed binary system files (*.ssim)", "*.ssim");
+					fileChooser.getExtensionFilters().addAll(csvFilter, binaryFilter, compressedFilter);
 
-						//Display FileChooser
-						File file = fileChooser.showSaveDialog(primaryStage);
-						String filePath = file.getPath();
+					//Display FileChooser
+					File file = fileChooser.showSaveDialog(primaryStage);
 
-						//If a file is successfully chosen
-						if(file != null) {
+					//If a file is successfully chosen
+					if(file != null) {
 
-							//If a chosen file doesn't end with ".csv"
-							if(!filePath.toLowerCase().endsWith(".csv")){
-								file = new File(filePath + ".csv");
-							}
+						ExtensionFilter format = fileChooser.getSelectedExtensionFilter();
+						boolean binary = format == binaryFilter || format == compressedFilter;
+						String extension = binary ? BinarySystemFile.EXTENSION : ".csv";
 
-							//Initiate file writer
-							output = new PrintWriter(file);
+						//If a chosen file doesn't end with the format's extension
+						if(!file.getPath().toLowerCase().endsWith(extension)){
+							file = new File(file.getPath() + extension);
+						}
 
+						try{
 							//Write planets' info to a file
-							for(Planet planet:planets) {
-								output.write(planet.getName() + ",");
-								output.write(planet.getPosX() + ",");
-								output.write(planet.getPosY() + ",");
-								output.write(planet.getVelX() + ",");
-								output.write(planet.getVelY() + ",");
-								output.write(planet.getForceX() + ",");
-								output.write(planet.getForceY() + ",");
-								output.write(planet.getMass() + ",");
-								output.write(planet.getColor() + ",");
-
-								//If it's the last planet to be saved
-								if(planets.indexOf(planet) == planets.size()) {
-									output.write(planet.getSize() + "");
-								}else {
-									output.write(planet.getSize() + "\n");
-								}
+							if(binary) {
+								BinarySystemFile.save(file, planets, format == compressedFilter);
+							}else {
+								SystemFile.save(file, planets);
 							}
 
 							//Display a "success" message
@@ -440,12 +867,9 @@ public class Main extends Application {
 							alert.setContentText("System saved successfully!");
 							alert.show();
 
+						}catch(IOException ex) {
+							System.out.println("Error encountered!: " + ex.getMessage());
 						}
-
-					}catch(FileNotFoundException ex) {
-						System.out.println("Error encountered!: File Not Found");
-					}finally {
-						output.close();
 					}
 				}
 			});
@@ -458,61 +882,55 @@ public class Main extends Application {
 
 					//Check if the simulation is running, stop if it is
 					if(startPauseSim.isSelected()) {
-						timeline.stop();
+						simLoop.stop();
 						startPauseSim.setSelected(false);
 					}
 
 					//Define objects for file reading
 					FileChooser fileChooser = new FileChooser();
-					Scanner input = null;
-					Scanner lineInput = null;
 
 					//Set extra options to objects
 					fileChooser.setTitle("Load System");
 					fileChooser.setInitialDirectory(new File("/home/bullseye/"));
+					fileChooser.getExtensionFilters().addAll(
+							new ExtensionFilter("System files (*.csv, *.ssim)", "*.csv", "*.ssim"),
+							new ExtensionFilter("All files", "*.*"));
+
+					File file = fileChooser.showOpenDialog(primaryStage);
+					if(file == null) {
+						return;
+					}
 
 					try {
-						//Clear the current list of planets
+						ArrayList<Planet> loaded = SystemFile.load(file);
+
+						//Replace the current list of planets
 						planets.clear();
 						planetsStatic.clear();
-						
-						File file = fileChooser.showOpenDialog(primaryStage);
-						input = new Scanner(file);
-
-						//For every line of input in a file
-						while(input.hasNextLine()) {
-
-							//Take in each line and add its information to a new planet object
-							String line = input.nextLine();
-							lineInput = new Scanner(line);
-							lineInput.useDelimiter(",");
-							
-							String name = lineInput.next();
-							Double posX = lineInput.nextDouble();
-							Double posY = lineInput.nextDouble();
-							Double velX = lineInput.nextDouble();
-							Double velY = lineInput.nextDouble();
-							Double forceX = lineInput.nextDouble();
-							Double forceY = lineInput.nextDouble();
-							Double mass = lineInput.nextDouble();
-							Color color = Color.valueOf(lineInput.next().toLowerCase());
-							Double size = lineInput.nextDouble();
-
-							planets.add(new Planet(name, posX, posY, velX, velY, forceX, forceY, mass, color, size));
-							planetsStatic.add(new Planet(name, posX, posY, velX, velY, forceX, forceY, mass, color, size));
 
+						for(Planet planet : loaded) {
+							planets.add(planet);
+							Planet copy = new Planet(planet.getName(), planet.getPosX(), planet.getPosY(),
+									planet.getVelX(), planet.getVelY(), planet.getForceX(), planet.getForceY(),
+									planet.getMass(), planet.getColor(), planet.getSize());
+							copy.setTestParticle(planet.isTestParticle());
+							planetsStatic.add(copy);
 						}
-						
+
 						//Draw the new list of planets
+						gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
 						drawPlanets(planets, gcMain, gcTrace);
 
-					}catch(FileNotFoundException ex) {
+					}catch(IOException ex) {
 						ex.printStackTrace();
-						System.out.println("Error encountered!: File Not Found");
-					}finally {
-						input.close();
+						System.out.println("Error encountered!: " + ex.getMessage());
+						return;
 					}
-					
+
+					if (!planets.isEmpty()) {
+						saveSys.setDisable(false);
+					}
+
 					//Display a "success" message
 					Alert alert = new Alert(AlertType.INFORMATION);
 					alert.setTitle("Load System");
@@ -530,9 +948,9 @@ public class Main extends Application {
 					e.consume();
 
 					if (startPauseSim.isSelected()) {
-						timeline.play();
+						simLoop.play();
 					} else {
-						timeline.pause();
+						simLoop.pause();
 					}
 
 				}
@@ -543,7 +961,7 @@ public class Main extends Application {
 				public void handle(ActionEvent e) {
 					e.consume();
 
-					timeline.stop();
+					simLoop.stop();
 
 					gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
 					planets.clear();
@@ -568,9 +986,10 @@ public class Main extends Application {
 
 						planets.add(planet);
 					}
+					resetMeasurements();
 
 					if (startPauseSim.isSelected()) {
-						timeline.play();
+						simLoop.play();
 					}
 
 				}
@@ -581,11 +1000,11 @@ public class Main extends Application {
 				public void handle(ActionEvent e) {
 					e.consume();
 
-					if (Main.ENABLED_TRACES) {
-						Main.ENABLED_TRACES = false;
+					if (renderer.isTraces()) {
+						renderer.setTraces(false);
 						gcTrace.clearRect(0, 0, traceCanvas.getWidth(), traceCanvas.getHeight());
 					} else {
-						Main.ENABLED_TRACES = true;
+						renderer.setTraces(true);
 					}
 
 				}
@@ -596,11 +1015,7 @@ public class Main extends Application {
 				public void handle(ActionEvent e) {
 					e.consume();
 
-					if (Main.ENABLED_LABELS) {
-						Main.ENABLED_LABELS = false;
-					} else {
-						Main.ENABLED_LABELS = true;
-					}
+					renderer.setLabels(!renderer.isLabels());
 
 				}
 			});
@@ -610,11 +1025,7 @@ public class Main extends Application {
 				public void handle(ActionEvent e) {
 					e.consume();
 
-					if (Main.ENABLED_LINES_TO_SUN) {
-						Main.ENABLED_LINES_TO_SUN = false;
-					} else {
-						Main.ENABLED_LINES_TO_SUN = true;
-					}
+					renderer.setLinesToSun(!renderer.isLinesToSun());
 
 				}
 			});
@@ -633,224 +1044,56 @@ public class Main extends Application {
 						warning.showAndWait();
 
 					} else {
-						timeline.stop();
-
-						ArrayList<Button> planetButtons = new ArrayList<Button>();
-						ArrayList<Button> deleteButtons = new ArrayList<Button>();
-
-						Image deleteImg = new Image("Cross.png");
-
-						Dialog<ButtonType> newDialog = new Dialog<>();
-						newDialog.setTitle("Planet Properties");
-						newDialog.setHeaderText("Please select which planet\n you'd like to change:");
-
-						newDialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
-
-						GridPane list = new GridPane();
-
-						list.setHgap(10);
-						list.setVgap(5);
-
-						newDialog.getDialogPane().setContent(list);
-
-						EventHandler<ActionEvent> planetClick = event -> {
-							event.consume();
-
-							Object source = event.getSource();
-
-							for (Button button : planetButtons) {
-								if (button.equals(source)) {
-
-									String name = button.getText();
-
-									Dialog<String[]> planetDialog = new Dialog<>();
-									planetDialog.setTitle("Planet Properties");
-									planetDialog.setHeaderText("Change Planet Properties: " + name);
-
-									ButtonType changeButton = new ButtonType("Change", ButtonData.OK_DONE);
-
-									planetDialog.getDialogPane().getButtonTypes().addAll(changeButton,
-											ButtonType.CANCEL);
-
-									GridPane dataGrid = new GridPane();
-									dataGrid.setHgap(10);
-									dataGrid.setVgap(10);
-									dataGrid.setPadding(new Insets(20, 150, 10, 10));
-
-									TextField posX = new TextField();
-									TextField posY = new TextField();
-									TextField velX = new TextField();
-									TextField velY = new TextField();
-									TextField mass = new TextField();
-									ComboBox<String> colours = new ComboBox<String>(colourKeyList);
-
-									for (Planet planet : planets) {
-										if (planet.getName().equals(name)) {
-
-											posX.setText(Double.toString(planet.getPosX()));
-											posY.setText(Double.toString(planet.getPosY()));
-											velX.setText(Double.toString(planet.getVelX()));
-											velY.setText(Double.toString(planet.getVelY()));
-											mass.setText(Double.toString(planet.getMass()));
-											colours.setValue("Blue");
-											break;
-
-										}
-
-									}
-
-									dataGrid.add(new Label("Position along X-axis  (0 to 1000) :"), 0, 0);
-									dataGrid.add(posX, 1, 0);
-									dataGrid.add(new Label("Position along Y-axis  (0 to 735) :"), 0, 1);
-									dataGrid.add(posY, 1, 1);
-									dataGrid.add(new Label("Velocity along X-axis  (Try between -6 and 6) :"), 0, 2);
-									dataGrid.add(velX, 1, 2);
-									dataGrid.add(new Label("Velocity along Y-axis  (Try between -6 and 6) :"), 0, 3);
-									dataGrid.add(velY, 1, 3);
-									dataGrid.add(new Label("Mass  (Sun's mass = 1) :"), 0, 4);
-									dataGrid.add(mass, 1, 4);
-									dataGrid.add(new Label("Planet's color:"), 0, 5);
-									dataGrid.add(colours, 1, 5);
-
-									planetDialog.getDialogPane().setContent(dataGrid);
-
-									planetDialog.setResultConverter(dialogButton -> {
-										if (dialogButton == changeButton) {
-											String[] res = { posX.getText(), posY.getText(), velX.getText(),
-													velY.getText(), mass.getText(), colours.getValue() };
-											return res;
-										} else {
-											planetDialog.close();
-										}
-										return null;
-									});
-
-									Optional<String[]> planetResult = planetDialog.showAndWait();
-
-									planetResult.ifPresent(newData -> {
-
-										for (Planet planet : planets) {
-											if (planet.getName().equals(name)) {
-												planet.setPosX(Double.parseDouble(newData[0]));
-												planet.setPosY(Double.parseDouble(newData[1]));
-												planet.setVelX(Double.parseDouble(newData[2]));
-												planet.setVelY(Double.parseDouble(newData[3]));
-												planet.setMass(Double.parseDouble(newData[4]));
-												planet.setColor(Color.valueOf(newData[5].toUpperCase()));
-												break;
-											}
-										}
-
-										newDialog.close();
-
-										if (!planets.isEmpty()) {
-											saveSys.setDisable(false);
-										}
-
-										timeline.play();
-
-									});
-
-								}
-							}
-						};
-
-						EventHandler<ActionEvent> delClick = event -> {
-							event.consume();
-
-							Object source = event.getSource();
-
-							for (int x = 0; x < planets.size(); x++) {
-								if (deleteButtons.get(x).equals(source)) {
-
-									Alert alert = new Alert(AlertType.INFORMATION);
-									alert.setHeaderText(null);
-									alert.setContentText(
-											"Planet \"" + planets.get(x).getName() + "\" has been deleted!");
-									alert.showAndWait();
-
-									planets.remove(x);
-									planetButtons.remove(x);
-									deleteButtons.remove(x);
-
-									gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
-									drawPlanets(planets, gcMain, gcTrace);
-
-									newDialog.close();
-
-								}
-							}
-						};
-
-						for (int x = 0; x < planets.size(); x++) {
-
-							if(x>29) {
-								Alert warning = new Alert(AlertType.WARNING);
-								warning.setTitle("Limit Reached");
-								warning.setHeaderText(null);
-								warning.setContentText("Number of present planets reached maximum (30)!"+
-										"Only first 30 planets will be loaded");
-								warning.showAndWait();
-
-								break;
-							}
-
-							planetButtons.add(x, new Button(planets.get(x).getName()));
-							planetButtons.get(x).setMaxWidth(Double.MAX_VALUE);
-							planetButtons.get(x).setOnAction(planetClick);
-
-							deleteButtons.add(x, new Button());
-							deleteButtons.get(x).setGraphic(new ImageView(deleteImg));
-							deleteButtons.get(x).setMaxWidth(Double.MAX_VALUE);
-							deleteButtons.get(x).setOnAction(delClick);
-
-							if(x>19) {
-								list.add(planetButtons.get(x), 4, x-20);
-								list.add(deleteButtons.get(x), 5, x-20);
-							}else if(x>9) {
-								list.add(planetButtons.get(x), 2, x-10);
-								list.add(deleteButtons.get(x), 3, x-10);
-							}else {
-								list.add(planetButtons.get(x), 0, x);
-								list.add(deleteButtons.get(x), 1, x);
-							}
+						simLoop.stop();
 
+						BodyEditor editor = new BodyEditor(planets, colourKeyList);
+						if (editor.showAndWait(primaryStage)) {
+							resetMeasurements();
+							gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
+							drawPlanets(planets, gcMain, gcTrace);
+							saveSys.setDisable(planets.isEmpty());
 						}
 
-						Optional<ButtonType> result = newDialog.showAndWait();
-
-						if (result.get() == ButtonType.CANCEL) {
-							newDialog.close();
-							if (startPauseSim.isSelected()) {
-								timeline.play();
-							}
+						if (startPauseSim.isSelected()) {
+							simLoop.play();
 						}
 
 					}
 				}
 			});
 
-			speedSlider.valueProperty().addListener(new ChangeListener<Number>() {
-				@Override
-				public void changed(ObservableValue<? extends Number> ov, Number oldVal, Number newVal) {
+			traceLengthGroup.selectedToggleProperty().addListener((observable, oldVal, newVal) -> {
+				if (newVal != null) {
+					renderer.setTraceLength((Integer) newVal.getUserData());
+				}
+			});
 
-					KeyFrame newKeyFrame = new KeyFrame(Duration.seconds(1 / (double) newVal),
-							new EventHandler<ActionEvent>() {
-						@Override
-						public void handle(ActionEvent event) {
+			fadeTraces.setOnAction(e -> {
+				e.consume();
+				renderer.setFadeTraces(fadeTraces.isSelected());
+			});
 
-							sim.checkForces(planets);
+			showPerfOverlay.setOnAction(e -> {
+				e.consume();
+				overlayCanvas.setVisible(showPerfOverlay.isSelected());
+			});
 
-							gcMain.clearRect(0, 0, mainCanvas.getWidth(), mainCanvas.getHeight());
-							drawPlanets(planets, gcMain, gcTrace);
-						}
-					});
+			fastForwardGroup.selectedToggleProperty().addListener((observable, oldVal, newVal) -> {
+				if (newVal == null) {
+					return;
+				}
+				int stepsPerFrame = (Integer) newVal.getUserData();
+				simLoop.setFastForward(stepsPerFrame);
+
+				// The calculation frequency only applies when not fast-forwarding
+				speedSlider.setDisable(stepsPerFrame != 0);
+			});
 
-					timeline.stop();
-					timeline.getKeyFrames().setAll(newKeyFrame);
+			speedSlider.valueProperty().addListener(new ChangeListener<Number>() {
+				@Override
+				public void changed(ObservableValue<? extends Number> ov, Number oldVal, Number newVal) {
 
-					if (startPauseSim.isSelected())
-						timeline.play();
+					simLoop.setStepsPerSecond((double) newVal);
 				}
 			});
 
@@ -858,12 +1101,31 @@ public class Main extends Application {
 				@Override
 				public void changed(ObservableValue<? extends Number> ov, Number oldVal, Number newVal) {
 
-					timeline.stop();
+					if (updatingTimestep) {
+						return;
+					}
+					simLoop.runBetweenSteps(() -> SimulationBF.timestep = (double) newVal);
+				}
+			});
 
-					SimulationBF.timestep = (double) newVal;
+			monitorEnergy.setOnAction(e -> {
+				e.consume();
+				applyEnergySettings(monitorEnergy.isSelected(), (Double) autoTimestepGroup.getSelectedToggle().getUserData());
+			});
 
-					timeline.play();
+			autoTimestepGroup.selectedToggleProperty().addListener((observable, oldVal, newVal) -> {
+				if (newVal == null) {
+					return;
 				}
+				double budget = (Double) newVal.getUserData();
+
+				// The controller needs the monitor's measurements and takes over the timestep
+				if (budget > 0) {
+					monitorEnergy.setSelected(true);
+				}
+				monitorEnergy.setDisable(budget > 0);
+				accuracySlider.setDisable(budget > 0);
+				applyEnergySettings(monitorEnergy.isSelected(), budget);
 			});
 
 			// Create new planet dialog
@@ -872,97 +1134,91 @@ public class Main extends Application {
 				public void handle(MouseEvent mouseEvent) {
 					mouseEvent.consume();
 
-					timeline.stop();
-
-					if(planets.size()<30) {
-
-						Dialog<String[]> newDialog = new Dialog<>();
-						newDialog.setTitle("Add a new Planet");
-						newDialog.setHeaderText("Enter new planet's data:");
-
-						ButtonType createButton = new ButtonType("Create", ButtonData.OK_DONE);
-
-						newDialog.getDialogPane().getButtonTypes().addAll(createButton, ButtonType.CANCEL);
-
-						GridPane grid = new GridPane();
-						grid.setHgap(10);
-						grid.setVgap(10);
-						grid.setPadding(new Insets(20, 150, 10, 10));
-
-						TextField name = new TextField();
-						TextField velX = new TextField();
-						TextField velY = new TextField();
-						TextField mass = new TextField();
-						TextField size = new TextField();
-						ComboBox<String> colours = new ComboBox<String>(colourKeyList);
-
-						name.setPromptText("Name");
-						velX.setPromptText("X-velocity");
-						velY.setPromptText("Y-velocity");
-						mass.setPromptText("Mass");
-						size.setPromptText("Size");
-						colours.setValue("Blue");
-
-						grid.add(new Label("Name:"), 0, 0);
-						grid.add(name, 1, 0);
-						grid.add(new Label("Velocity along X-axis  (Try between -6 and 6) :"), 0, 1);
-						grid.add(velX, 1, 1);
-						grid.add(new Label("Velocity along Y-axis  (Try between -6 and 6) :"), 0, 2);
-						grid.add(velY, 1, 2);
-						grid.add(new Label("Mass  (Sun's mass = 1) :"), 0, 3);
-						grid.add(mass, 1, 3);
-						grid.add(new Label("Size  (Sun's size = 6, Planet's = 3-4) :"), 0, 4);
-						grid.add(size, 1, 4);
-						grid.add(new Label("Planet's color:"), 0, 5);
-						grid.add(colours, 1, 5);
-
-						newDialog.getDialogPane().setContent(grid);
-
-						newDialog.setResultConverter(dialogButton -> {
-							if (dialogButton == createButton) {
-								String[] res = { name.getText(), velX.getText(), velY.getText(), mass.getText(),
-										size.getText(), colours.getValue() };
-
-								return res;
-							} else {
-
-								if (startPauseSim.isSelected()) {
-									timeline.play();
-								}
-								newDialog.close();
-							}
-							return null;
+					simLoop.stop();
+
+
+					Dialog<String[]> newDialog = new Dialog<>();
+					newDialog.setTitle("Add a new Planet");
+					newDialog.setHeaderText("Enter new planet's data:");
+
+					ButtonType createButton = new ButtonType("Create", ButtonData.OK_DONE);
+
+					newDialog.getDialogPane().getButtonTypes().addAll(createButton, ButtonType.CANCEL);
+
+					GridPane grid = new GridPane();
+					grid.setHgap(10);
+					grid.setVgap(10);
+					grid.setPadding(new Insets(20, 150, 10, 10));
+
+					TextField name = new TextField();
+					TextField velX = new TextField();
+					TextField velY = new TextField();
+					TextField mass = new TextField();
+					TextField size = new TextField();
+					ComboBox<String> colours = new ComboBox<String>(colourKeyList);
+					CheckBox testParticle = new CheckBox("Test particle  (pulled by the others, pulls on none)");
+
+					name.setPromptText("Name");
+					velX.setPromptText("X-velocity");
+					velY.setPromptText("Y-velocity");
+					mass.setPromptText("Mass");
+					size.setPromptText("Size");
+					colours.setValue("Blue");
+
+					grid.add(new Label("Name:"), 0, 0);
+					grid.add(name, 1, 0);
+					grid.add(new Label("Velocity along X-axis  (Try between -6 and 6) :"), 0, 1);
+					grid.add(velX, 1, 1);
+					grid.add(new Label("Velocity along Y-axis  (Try between -6 and 6) :"), 0, 2);
+					grid.add(velY, 1, 2);
+					grid.add(new Label("Mass  (Sun's mass = 1) :"), 0, 3);
+					grid.add(mass, 1, 3);
+					grid.add(new Label("Size  (Sun's size = 6, Planet's = 3-4) :"), 0, 4);
+					grid.add(size, 1, 4);
+					grid.add(new Label("Planet's color:"), 0, 5);
+					grid.add(colours, 1, 5);
+					grid.add(testParticle, 0, 6, 2, 1);
+
+					newDialog.getDialogPane().setContent(grid);
+
+					newDialog.setResultConverter(dialogButton -> {
+						if (dialogButton == createButton) {
+							String[] res = { name.getText(), velX.getText(), velY.getText(), mass.getText(),
+									size.getText(), colours.getValue(), String.valueOf(testParticle.isSelected()) };
+
+							return res;
+						} else {
 
-						});
+							if (startPauseSim.isSelected()) {
+								simLoop.play();
+							}
+							newDialog.close();
+						}
+						return null;
 
-						Optional<String[]> result = newDialog.showAndWait();
+					});
 
-						result.ifPresent(planetDetails -> {
-							planets.add(new Planet(planetDetails[0], mouseEvent.getSceneX(), mouseEvent.getSceneY(),
-									Double.parseDouble(planetDetails[1]), Double.parseDouble(planetDetails[2]), 0.0, 0.0,
-									Double.parseDouble(planetDetails[3]), Color.valueOf(planetDetails[5].toUpperCase()),
-									Double.parseDouble(planetDetails[4])));
+					Optional<String[]> result = newDialog.showAndWait();
 
-							if (startPauseSim.isSelected()) {
-								timeline.play();
-							}
+					result.ifPresent(planetDetails -> {
+						Planet planet = new Planet(planetDetails[0], mouseEvent.getSceneX(), mouseEvent.getSceneY(),
+								Double.parseDouble(planetDetails[1]), Double.parseDouble(planetDetails[2]), 0.0, 0.0,
+								Double.parseDouble(planetDetails[3]), Color.valueOf(planetDetails[5].toUpperCase()),
+								Double.parseDouble(planetDetails[4]));
+						planet.setTestParticle(Boolean.parseBoolean(planetDetails[6]));
+						planets.add(planet);
 
-							drawPlanets(planets, gcMain, gcTrace);
+						if (startPauseSim.isSelected()) {
+							simLoop.play();
+						}
 
-							if (!planets.isEmpty()) {
-								saveSys.setDisable(false);
-							}
+						drawPlanets(planets, gcMain, gcTrace);
 
-						});
-					}else {
-						Alert warning = new Alert(AlertType.WARNING);
-						warning.setTitle("Limit Reached	");
-						warning.setHeaderText(null);
-						warning.setContentText("Maximum number of planets reached!"+
-								"Can't add any more planets");
+						if (!planets.isEmpty()) {
+							saveSys.setDisable(false);
+						}
 
-						warning.showAndWait();
-					}
+					});
 				}
 			});
 
@@ -971,76 +1227,155 @@ public class Main extends Application {
 		}
 	}
 
+	@Override
+	public void stop() {
+		// Finish writing a trajectory that is still being recorded when the window closes
+		if (recorder != null) {
+			simLoop.setRecorder(null);
+			try {
+				recorder.close();
+			} catch (IOException ex) {
+				System.out.println("Error encountered!: " + ex.getMessage());
+			}
+		}
+	}
+
 	// ------------------------------------------------- OTHER METHODS
 	// -------------------------------------------------
 
-	private void drawPlanets(ArrayList<Planet> planets, GraphicsContext main, GraphicsContext trace) {
-		for (Planet planet : planets) {
+	private void replaceSimulation(Simulation next) {
+		Simulation previous = sim;
+
+		next.setThreads(previous.getThreads());
+
+		// The monitor and controller are reset on the way, which must not happen while the
+		// previous simulation is still stepping with them
+		simLoop.runBetweenSteps(() -> {
+			next.setIntegrator(previous.getIntegrator());
+			next.setTimestepController(previous.getTimestepController());
+			next.setEnergyMonitor(previous.getEnergyMonitor());
+			simLoop.setSimulation(next);
+		});
+		sim = next;
+		previous.shutdown();
+	}
 
-			if (Main.ENABLED_LINES_TO_SUN && planets.indexOf(planet) != 0) {
-				main.setStroke(planet.getColor());
-				main.setLineWidth(0.3);
-				main.strokeLine(planet.getPosX(), planet.getPosY(), planets.get(0).getPosX(), planets.get(0).getPosY());
-			}
+	private void applyEnergySettings(boolean monitored, double budget) {
+		TimestepController controller = budget > 0 ? new TimestepController(budget) : null;
+		if (controller != null) {
+			controller.setLimits(Planet.ONE_DAY / 100, Planet.ONE_YEAR / 12);
+		}
 
-			main.setFill(planet.getColor());
-			main.fillOval(planet.getPosX() - planet.getSize() / 2, planet.getPosY() - planet.getSize() / 2,
-					planet.getSize(), planet.getSize());
-
-			if (Main.ENABLED_LABELS) {
-				String formattedPositionX = String.format("%.2f", planet.getPosX());
-				String formattedPositionY = String.format("%.2f", planet.getPosY());
-				String formattedVelocityX = String.format("%.2f", planet.getVelX());
-				String formattedVelocityY = String.format("%.2f", planet.getVelY());
-				String formattedDistanceToSun = String.format("%.2f", planet.getDistance(planets.get(0)));
-
-				String display = (planet.getName() + "\nPos- X: " + formattedPositionX + " Y: " + formattedPositionY
-						+ "\nVel- X: " + formattedVelocityX + " Y: " + formattedVelocityY + "  AU/year"
-						+ "\nDistance to Sun: " + formattedDistanceToSun + " AU");
-
-				main.setFill(Color.WHITE);
-
-				switch (planets.indexOf(planet)) {
-				case 0:
-					main.fillText(planet.getName(), planet.getPosX() + planet.getSize(),
-							planet.getPosY() + planet.getSize());
-					break;
-				case 1:
-					main.fillText(display, 330, 15);
-					main.fillText(planet.getName(), planet.getPosX() + planet.getSize(),
-							planet.getPosY() + planet.getSize());
-					break;
-				case 2:
-					main.fillText(display, 330, 85);
-					main.fillText(planet.getName(), planet.getPosX() + planet.getSize(),
-							planet.getPosY() + planet.getSize());
-					break;
-				case 3:
-					main.fillText(display, 515, 15);
-					main.fillText(planet.getName(), planet.getPosX() + planet.getSize(),
-							planet.getPosY() + planet.getSize());
-					break;
-				case 4:
-					main.fillText(display, 515, 85);
-					main.fillText(planet.getName(), planet.getPosX() + planet.getSize(),
-							planet.getPosY() + planet.getSize());
-					break;
-				default:
-					main.fillText(display, planet.getPosX() + planet.getSize(), planet.getPosY() + planet.getSize());
-				}
+		simLoop.runBetweenSteps(() -> {
+			simLoop.getSimulation().setTimestepController(controller);
+			simLoop.getSimulation().setEnergyMonitor(monitored ? energyMonitor : null);
+		});
+	}
+
+	// The bodies were edited, energy and momenta are measured against their new state
+	private void resetMeasurements() {
+		simLoop.runBetweenSteps(() -> simLoop.getSimulation().resetMeasurements());
+	}
 
-			} else {
-				main.setFill(Color.WHITE);
-				main.fillText(planet.getName(), planet.getPosX() + planet.getSize(),
-						planet.getPosY() + planet.getSize());
+	private void stopRecording() {
+		if (recorder == null) {
+			return;
+		}
+
+		simLoop.setRecorder(null);
+		try {
+			recorder.close();
+
+			Alert alert = new Alert(AlertType.INFORMATION);
+			alert.setTitle("Record Trajectory");
+			alert.setHeaderText(null);
+			alert.setContentText("Trajectory saved: " + recorder.getRecordedFrames() + " frames, "
+					+ recorder.getDroppedFrames() + " dropped");
+			alert.show();
+		} catch (IOException ex) {
+			System.out.println("Error encountered!: " + ex.getMessage());
+		}
+		recorder = null;
+	}
+
+	/**
+	 * @param owner Main window
+	 * @param clearTraces Clears the trace canvas, called when jumping to another time
+	 * @return Window with the controls of the trajectory being played
+	 */
+	private Stage createPlaybackStage(Stage owner, Runnable clearTraces) {
+		Stage stage = new Stage();
+		stage.initOwner(owner);
+		stage.setTitle("Trajectory Playback");
+		stage.setResizable(false);
+
+		playbackTime = new Label();
+		playbackScrubber = new Slider(player.getStartTime(), player.getEndTime(), player.getTime());
+		playbackScrubber.setPrefWidth(400);
+
+		ToggleButton playPause = new ToggleButton("Play/Pause");
+		Label speedLabel = new Label("Years per second");
+		Slider speedSlider = new Slider(0.1, 100, player.getSpeed());
+		speedSlider.setShowTickLabels(true);
+		speedSlider.setMajorTickUnit(20);
+
+		GridPane layout = new GridPane();
+		layout.setHgap(10);
+		layout.setVgap(10);
+		layout.setPadding(new Insets(10));
+		layout.add(playbackTime, 0, 0, 2, 1);
+		layout.add(playbackScrubber, 0, 1, 2, 1);
+		layout.add(playPause, 0, 2);
+		layout.add(speedLabel, 0, 3);
+		layout.add(speedSlider, 1, 3);
+
+		playbackScrubber.valueProperty().addListener((observable, oldVal, newVal) -> {
+			if (updatingScrubber) {
+				return;
+			}
+			try {
+				player.setTime(newVal.doubleValue());
+				clearTraces.run();
+			} catch (IOException ex) {
+				System.out.println("Error encountered!: " + ex.getMessage());
+			}
+		});
+
+		playPause.setOnAction(e -> {
+			e.consume();
+			try {
+				player.setPlaying(playPause.isSelected());
+			} catch (IOException ex) {
+				System.out.println("Error encountered!: " + ex.getMessage());
 			}
+		});
 
-			if (Main.ENABLED_TRACES) {
+		speedSlider.valueProperty().addListener((observable, oldVal, newVal) -> player.setSpeed(newVal.doubleValue()));
 
-				trace.setStroke(planet.getColor());
-				trace.strokeLine(planet.getPrevPosX(), planet.getPrevPosY(), planet.getPosX(), planet.getPosY());
+		// Let the button pop out again when playback reaches the end
+		playbackScrubber.valueProperty().addListener((observable, oldVal, newVal) -> {
+			if (playPause.isSelected() && !player.isPlaying()) {
+				playPause.setSelected(false);
 			}
+		});
 
-		}
+		updatePlayback();
+		stage.setScene(new Scene(layout));
+		return stage;
+	}
+
+	/**
+	 * Show the time of the frame being played on the playback window's controls
+	 */
+	private void updatePlayback() {
+		updatingScrubber = true;
+		playbackScrubber.setValue(player.getTime());
+		updatingScrubber = false;
+
+		playbackTime.setText(String.format("Time: %.2f of %.2f years", player.getTime(), player.getEndTime()));
+	}
+
+	private void drawPlanets(ArrayList<Planet> planets, GraphicsContext main, GraphicsContext trace) {
+		renderer.draw(planets, main, trace);
 	}
 }
\ No newline at end of file
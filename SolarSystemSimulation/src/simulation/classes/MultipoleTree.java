@@ -0,0 +1,691 @@
+package simulation.classes;
+
+import java.util.Arrays;
+
+/**
+ * Fast multipole method over the bodies, used by SimulationFMM. The bodies are sorted into
+ * an adaptive quadtree whose leaves hold at most LEAF_SIZE bodies. Every node gets a
+ * multipole expansion of the mass inside it, and the far field of every node is gathered
+ * into a local expansion, so each body only sums the bodies of neighbouring leaves
+ * directly. The number of expansions, and so the cost, grows linearly with the bodies.
+ *
+ * The potential is the 1/r of Newtonian gravity in the plane. With z and s the complex
+ * positions of a body and a source, both measured from a node's centre,
+ *
+ *   1 / |z - s| = |z|^-1 (1 - s/z)^-1/2 (1 - conj(s)/conj(z))^-1/2
+ *
+ * is a double series in s and conj(s), so a multipole expansion keeps the coefficients
+ * M(k, l), the sum of m s^k conj(s)^l over its sources, for k + l up to the order. Local
+ * expansions are polynomials in z and conj(z) of the same order. Their error shrinks like
+ * (ratio)^(order + 1), where the ratio of the sizes of two nodes to their distance is
+ * below theta whenever they interact through expansions.
+ *
+ * Nodes interact through a dual tree walk: a pair of nodes far enough apart exchanges
+ * local expansions both ways, otherwise the larger one is opened, and pairs of leaves too
+ * close for that become each other's neighbours. The tree is built and the expansions are
+ * found serially, the bodies' forces can then be computed from several threads at once.
+ * Test particles are in the tree but carry no mass, so they never pull, and two nodes of
+ * test particles only don't interact at all.
+ */
+public class MultipoleTree {
+
+	private static final int LEAF_SIZE = 64;		// bodies a leaf is split above
+	private static final int MAX_DEPTH = 48;		// deeper leaves keep all their bodies
+	private static final int NONE = -1;			// first child of a leaf
+	private static final double TO_AU = 1 / Planet.SCALE;
+
+	private final int order;
+	private final int terms;						// coefficients per expansion, k + l <= order
+	private final double theta;
+	private final int[] row;						// coefficient (k, l) is at row[k] + l
+
+	// Series coefficients
+	private final double[][] binomial;				// binomial[n][k] = n choose k
+	private final double[][] shift;					// shift[k][n] = a(k) * binom(-(k + 1/2), n)
+
+	// Scratch space of the serial passes
+	private final double[] powRe, powIm;			// powers of a complex number up to 2 * order
+	private final double[] tmpRe, tmpIm;			// (order + 1)^2 intermediate sums
+
+	// Nodes; a leaf has no children, the children of a node are numbered consecutively
+	private int nodeCount;
+	private double[] boxX = new double[0];			// square the node covers, in AU
+	private double[] boxY = new double[0];
+	private double[] boxHalf = new double[0];
+	private double[] centreX = new double[0];		// centre of the expansions, in AU
+	private double[] centreY = new double[0];
+	private double[] radius = new double[0];		// no body of the node is farther from the centre
+	private double[] mass = new double[0];
+	private int[] start = new int[0];				// range of the node's bodies in tree order
+	private int[] end = new int[0];
+	private int[] firstChild = new int[0];
+	private int[] childCount = new int[0];
+	private double[] mRe = new double[0];			// multipole expansions, terms per node
+	private double[] mIm = new double[0];
+	private double[] lRe = new double[0];			// local expansions, terms per node
+	private double[] lIm = new double[0];
+
+	// Bodies in tree order
+	private BodyStore bodies;						// store the tree was last built over
+	private int[] sorted = new int[0];				// index of the body at each position
+	private int[] position = new int[0];			// position of each body
+	private int[] leafOf = new int[0];				// leaf holding each body
+	private double[] bodyX = new double[0];			// positions in AU
+	private double[] bodyY = new double[0];
+	private double[] bodyMass = new double[0];		// 0 for test particles
+
+	// Neighbouring leaves, found as pairs and then listed per leaf
+	private int pairCount;
+	private int[] pairA = new int[64], pairB = new int[64];
+	private int[] nearStart = new int[0];
+	private int[] near = new int[0];
+
+	/**
+	 * @param order Highest order of the expansions
+	 * @param theta Largest ratio of the sizes of two nodes to their distance for which they
+	 * 				interact through expansions
+	 */
+	public MultipoleTree(int order, double theta){
+		this.order = order;
+		this.theta = theta;
+
+		row = new int[order + 2];
+		for(int k = 0; k <= order; k++){
+			row[k + 1] = row[k] + order + 1 - k;
+		}
+		terms = row[order + 1];
+
+		binomial = new double[2 * order + 1][];
+		for(int n = 0; n < binomial.length; n++){
+			binomial[n] = new double[n + 1];
+			binomial[n][0] = binomial[n][n] = 1;
+			for(int k = 1; k < n; k++){
+				binomial[n][k] = binomial[n - 1][k - 1] + binomial[n - 1][k];
+			}
+		}
+
+		// a(k) = (2k choose k) / 4^k are the coefficients of (1 - s)^-1/2
+		shift = new double[order + 1][order + 1];
+		double a = 1;
+		for(int k = 0; k <= order; k++){
+			double c = 1;
+			for(int n = 0; n <= order; n++){
+				shift[k][n] = a * c;
+				c *= -(k + 0.5 + n) / (n + 1);
+			}
+			a *= (k + 0.5) / (k + 1);
+		}
+
+		powRe = new double[2 * order + 1];
+		powIm = new double[2 * order + 1];
+		tmpRe = new double[(order + 1) * (order + 1)];
+		tmpIm = new double[(order + 1) * (order + 1)];
+	}
+
+	/**
+	 * Rebuild the tree over the current positions and find all expansions
+	 *
+	 * @param bodies Bodies the forces will be computed for
+	 */
+	public void build(BodyStore bodies){
+
+		this.bodies = bodies;
+		int n = bodies.count;
+		ensureBodies(n);
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; i++){
+			sorted[i] = i;
+			minX = Math.min(minX, bodies.x[i]);
+			minY = Math.min(minY, bodies.y[i]);
+			maxX = Math.max(maxX, bodies.x[i]);
+			maxY = Math.max(maxY, bodies.y[i]);
+		}
+
+		nodeCount = 0;
+		pairCount = 0;
+		if(n == 0){
+			return;
+		}
+
+		double half = Math.max(maxX - minX, maxY - minY) / 2 * TO_AU;
+		newNode((minX + maxX) / 2 * TO_AU, (minY + maxY) / 2 * TO_AU, half, 0, n);
+		split(0, 0);
+
+		for(int k = 0; k < n; k++){
+			int i = sorted[k];
+			bodyX[k] 	= bodies.x[i] * TO_AU;
+			bodyY[k] 	= bodies.y[i] * TO_AU;
+			bodyMass[k] = bodies.isSource(i) ? bodies.mass[i] : 0.0;
+		}
+		for(int k = 0; k < n; k++){
+			position[sorted[k]] = k;
+		}
+
+		Arrays.fill(lRe, 0, nodeCount * terms, 0.0);
+		Arrays.fill(lIm, 0, nodeCount * terms, 0.0);
+
+		// Children are created after their parent, so walking the nodes backwards visits
+		// every child before the node that contains it
+		for(int node = nodeCount - 1; node >= 0; node--){
+			if(childCount[node] == 0){
+				for(int k = start[node]; k < end[node]; k++){
+					leafOf[sorted[k]] = node;
+				}
+				gatherLeaf(node);
+			}else{
+				gatherChildren(node);
+			}
+		}
+
+		interact(0, 0);
+		listNeighbours();
+
+		for(int node = 0; node < nodeCount; node++){
+			for(int c = firstChild[node]; c < firstChild[node] + childCount[node]; c++){
+				localToChild(node, c);
+			}
+		}
+	}
+
+	/**
+	 * Store the force acting on one of the bodies in its force components, and its
+	 * potential energy if the store asks for it (none for test particles). Safe to call
+	 * from several threads at once for different bodies.
+	 *
+	 * @param body Index of the body the force acts on
+	 */
+	public void computeForce(int body){
+
+		int leaf = leafOf[body];
+		int self = position[body];
+		double x = bodyX[self], y = bodyY[self];
+
+		// Far field from the leaf's local expansion: phi = sum L(n, q) z^n conj(z)^q and
+		// its gradient, as a complex number, 2 d(phi)/d(conj z)
+		double zx = x - centreX[leaf], zy = y - centreY[leaf];
+		double phi = 0, gx = 0, gy = 0;
+		double znx = 1, zny = 0;
+		for(int n = 0; n <= order; n++){
+			// Horner in conj(z) for the polynomial of row n and its derivative
+			double pRe = 0, pIm = 0, dRe = 0, dIm = 0;
+			for(int q = order - n; q >= 0; q--){
+				double t = dRe * zx + dIm * zy;
+				dIm = dIm * zx - dRe * zy + pIm;
+				dRe = t + pRe;
+				t = pRe * zx + pIm * zy;
+				pIm = pIm * zx - pRe * zy + lIm[leaf * terms + row[n] + q];
+				pRe = t + lRe[leaf * terms + row[n] + q];
+			}
+			phi += znx * pRe - zny * pIm;
+			gx  += znx * dRe - zny * dIm;
+			gy  += znx * dIm + zny * dRe;
+
+			double t = znx * zx - zny * zy;
+			zny = znx * zy + zny * zx;
+			znx = t;
+		}
+		gx *= 2;
+		gy *= 2;
+
+		// Near field summed directly
+		for(int p = nearStart[leaf]; p < nearStart[leaf + 1]; p++){
+			int other = near[p];
+			for(int k = start[other]; k < end[other]; k++){
+				if(k == self || bodyMass[k] == 0){
+					continue;
+				}
+				double dx = bodyX[k] - x;
+				double dy = bodyY[k] - y;
+				double inv = 1 / Math.sqrt(dx*dx + dy*dy);
+				double f = bodyMass[k] * (inv*inv*inv);
+				gx += f * dx;
+				gy += f * dy;
+				phi += bodyMass[k] * inv;
+			}
+		}
+
+		double gm = Planet.SCALED_G * BodyStore.inertia(bodies.mass[body]);
+		bodies.fx[body] = gm * gx;
+		bodies.fy[body] = gm * gy;
+		if(bodies.withPotential){
+			bodies.potential[body] = bodyMass[self] != 0 ? -gm * phi : 0.0;
+		}
+	}
+
+	/**
+	 * @return Number of nodes in the current tree
+	 */
+	public int getNodeCount(){
+		return nodeCount;
+	}
+
+	/**
+	 * Sort the node's bodies into its quadrants and make a child of every one that isn't
+	 * empty, unless the node is small enough to be a leaf
+	 */
+	private void split(int node, int depth){
+		int from = start[node], to = end[node];
+		if(to - from <= LEAF_SIZE || depth == MAX_DEPTH){
+			return;
+		}
+
+		double cx = boxX[node], cy = boxY[node], quarter = boxHalf[node] / 2;
+		int right = partition(from, to, true, cx);
+		int upperLeft = partition(from, right, false, cy);
+		int upperRight = partition(right, to, false, cy);
+
+		int first = nodeCount;
+		newChild(from, upperLeft, cx - quarter, cy - quarter, quarter);
+		newChild(upperLeft, right, cx - quarter, cy + quarter, quarter);
+		newChild(right, upperRight, cx + quarter, cy - quarter, quarter);
+		newChild(upperRight, to, cx + quarter, cy + quarter, quarter);
+		firstChild[node] = first;
+		childCount[node] = nodeCount - first;
+
+		for(int c = first; c < first + childCount[node]; c++){
+			split(c, depth + 1);
+		}
+	}
+
+	private void newChild(int from, int to, double x, double y, double half){
+		if(to > from){
+			newNode(x, y, half, from, to);
+		}
+	}
+
+	/**
+	 * Move the bodies in [from, to) below the split to the front
+	 *
+	 * @return Position of the first body at or above the split
+	 */
+	private int partition(int from, int to, boolean alongX, double split){
+		double[] coordinate = alongX ? bodies.x : bodies.y;
+		int i = from, j = to - 1;
+		while(i <= j){
+			if(coordinate[sorted[i]] * TO_AU < split){
+				i++;
+			}else{
+				int swap = sorted[i];
+				sorted[i] = sorted[j];
+				sorted[j--] = swap;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Centre, size and multipole expansion of a leaf from its bodies
+	 */
+	private void gatherLeaf(int node){
+		double m = 0, mx = 0, my = 0;
+		for(int k = start[node]; k < end[node]; k++){
+			m  += bodyMass[k];
+			mx += bodyMass[k] * bodyX[k];
+			my += bodyMass[k] * bodyY[k];
+		}
+		setCentre(node, m, mx, my);
+
+		double cx = centreX[node], cy = centreY[node], r2 = 0;
+		int base = node * terms;
+		Arrays.fill(mRe, base, base + terms, 0.0);
+		Arrays.fill(mIm, base, base + terms, 0.0);
+
+		for(int k = start[node]; k < end[node]; k++){
+			double sx = bodyX[k] - cx, sy = bodyY[k] - cy;
+			r2 = Math.max(r2, sx*sx + sy*sy);
+			if(bodyMass[k] == 0){
+				continue;
+			}
+
+			powers(sx, sy, order);
+			for(int a = 0; a <= order; a++){
+				for(int b = 0; a + b <= order; b++){
+					// m s^a conj(s)^b
+					mRe[base + row[a] + b] += bodyMass[k] * (powRe[a] * powRe[b] + powIm[a] * powIm[b]);
+					mIm[base + row[a] + b] += bodyMass[k] * (powIm[a] * powRe[b] - powRe[a] * powIm[b]);
+				}
+			}
+		}
+		radius[node] = Math.sqrt(r2);
+	}
+
+	/**
+	 * Centre, size and multipole expansion of a node from its children's
+	 */
+	private void gatherChildren(int node){
+		int first = firstChild[node], last = first + childCount[node];
+
+		double m = 0, mx = 0, my = 0;
+		for(int c = first; c < last; c++){
+			m  += mass[c];
+			mx += mass[c] * centreX[c];
+			my += mass[c] * centreY[c];
+		}
+		setCentre(node, m, mx, my);
+
+		int base = node * terms;
+		Arrays.fill(mRe, base, base + terms, 0.0);
+		Arrays.fill(mIm, base, base + terms, 0.0);
+		double r = 0;
+
+		for(int c = first; c < last; c++){
+			double ex = centreX[c] - centreX[node], ey = centreY[c] - centreY[node];
+			r = Math.max(r, radius[c] + Math.sqrt(ex*ex + ey*ey));
+			if(mass[c] == 0){
+				continue;
+			}
+
+			// Moving the centre by e: s^k conj(s)^l becomes the sum over i <= k, j <= l of
+			// (k choose i)(l choose j) e^(k-i) conj(e)^(l-j) s^i conj(s)^j. First the sums
+			// over j for every i and l, then over i.
+			powers(ex, ey, order);
+			int child = c * terms;
+			for(int i = 0; i <= order; i++){
+				for(int l = 0; i + l <= order; l++){
+					double sRe = 0, sIm = 0;
+					for(int j = 0; j <= l; j++){
+						double b = binomial[l][j];
+						double eRe = powRe[l - j], eIm = -powIm[l - j];
+						double re = mRe[child + row[i] + j], im = mIm[child + row[i] + j];
+						sRe += b * (eRe * re - eIm * im);
+						sIm += b * (eRe * im + eIm * re);
+					}
+					tmpRe[row[i] + l] = sRe;
+					tmpIm[row[i] + l] = sIm;
+				}
+			}
+			for(int k = 0; k <= order; k++){
+				for(int l = 0; k + l <= order; l++){
+					double sRe = 0, sIm = 0;
+					for(int i = 0; i <= k; i++){
+						double b = binomial[k][i];
+						double eRe = powRe[k - i], eIm = powIm[k - i];
+						double re = tmpRe[row[i] + l], im = tmpIm[row[i] + l];
+						sRe += b * (eRe * re - eIm * im);
+						sIm += b * (eRe * im + eIm * re);
+					}
+					mRe[base + row[k] + l] += sRe;
+					mIm[base + row[k] + l] += sIm;
+				}
+			}
+		}
+		radius[node] = r;
+	}
+
+	/**
+	 * Centre the node's expansions on its centre of mass, or on its square if it has none
+	 */
+	private void setCentre(int node, double m, double mx, double my){
+		mass[node] 		= m;
+		centreX[node] 	= m > 0 ? mx / m : boxX[node];
+		centreY[node] 	= m > 0 ? my / m : boxY[node];
+	}
+
+	/**
+	 * Let two nodes and everything inside them act on each other, either through their
+	 * expansions or further down the tree
+	 */
+	private void interact(int a, int b){
+
+		// Nodes of test particles only have nothing to give each other
+		if(mass[a] == 0 && mass[b] == 0){
+			return;
+		}
+
+		if(a == b){
+			if(childCount[a] == 0){
+				addPair(a, a);
+				return;
+			}
+			int first = firstChild[a], last = first + childCount[a];
+			for(int c = first; c < last; c++){
+				for(int d = c; d < last; d++){
+					interact(c, d);
+				}
+			}
+			return;
+		}
+
+		double dx = centreX[a] - centreX[b], dy = centreY[a] - centreY[b];
+		double size = radius[a] + radius[b];
+		if(size * size < theta * theta * (dx*dx + dy*dy)){
+			if(mass[b] > 0){
+				multipoleToLocal(b, a);
+			}
+			if(mass[a] > 0){
+				multipoleToLocal(a, b);
+			}
+			return;
+		}
+
+		boolean leafA = childCount[a] == 0, leafB = childCount[b] == 0;
+		if(leafA && leafB){
+			if(mass[b] > 0){
+				addPair(a, b);
+			}
+			if(mass[a] > 0){
+				addPair(b, a);
+			}
+		}else if(!leafA && (leafB || radius[a] >= radius[b])){
+			for(int c = firstChild[a]; c < firstChild[a] + childCount[a]; c++){
+				interact(c, b);
+			}
+		}else{
+			for(int c = firstChild[b]; c < firstChild[b] + childCount[b]; c++){
+				interact(a, c);
+			}
+		}
+	}
+
+	/**
+	 * Add the field of the source node's multipole expansion to the target node's local
+	 * expansion. With D the target's centre seen from the source's and z measured from the
+	 * target's, every term s^k conj(s)^l / (z + D)^(k+1/2) / conj(z + D)^(l+1/2) is expanded
+	 * in powers of z / D and conj(z / D).
+	 */
+	private void multipoleToLocal(int source, int target){
+
+		double dx = centreX[target] - centreX[source], dy = centreY[target] - centreY[source];
+		double d2 = dx*dx + dy*dy;
+		double inverseDistance = 1 / Math.sqrt(d2);
+		powers(dx / d2, -dy / d2, 2 * order);	// powers of 1 / D
+
+		// First the sums over l for every k and q, then over k
+		int m = source * terms;
+		int width = order + 1;
+		for(int k = 0; k <= order; k++){
+			for(int q = 0; q <= order; q++){
+				double sRe = 0, sIm = 0;
+				for(int l = 0; k + l <= order; l++){
+					double s = shift[l][q];
+					double aRe = powRe[l + q], aIm = -powIm[l + q];
+					double re = mRe[m + row[k] + l], im = mIm[m + row[k] + l];
+					sRe += s * (aRe * re - aIm * im);
+					sIm += s * (aRe * im + aIm * re);
+				}
+				tmpRe[k * width + q] = sRe;
+				tmpIm[k * width + q] = sIm;
+			}
+		}
+
+		// The potential is real, so L(q, n) is the conjugate of L(n, q)
+		int l = target * terms;
+		for(int n = 0; n <= order; n++){
+			for(int q = n; n + q <= order; q++){
+				double sRe = 0, sIm = 0;
+				for(int k = 0; k <= order; k++){
+					double s = shift[k][n];
+					double aRe = powRe[k + n], aIm = powIm[k + n];
+					double re = tmpRe[k * width + q], im = tmpIm[k * width + q];
+					sRe += s * (aRe * re - aIm * im);
+					sIm += s * (aRe * im + aIm * re);
+				}
+				lRe[l + row[n] + q] += inverseDistance * sRe;
+				lIm[l + row[n] + q] += inverseDistance * sIm;
+				if(q > n){
+					lRe[l + row[q] + n] += inverseDistance * sRe;
+					lIm[l + row[q] + n] -= inverseDistance * sIm;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the parent's local expansion, moved to the child's centre, to the child's
+	 */
+	private void localToChild(int parent, int child){
+
+		double ex = centreX[child] - centreX[parent], ey = centreY[child] - centreY[parent];
+		powers(ex, ey, order);
+
+		// z^n conj(z)^q around the parent is the sum over i <= n, j <= q of
+		// (n choose i)(q choose j) e^(n-i) conj(e)^(q-j) z^i conj(z)^j around the child.
+		// First the sums over q for every n and j, then over n.
+		int p = parent * terms;
+		for(int n = 0; n <= order; n++){
+			for(int j = 0; n + j <= order; j++){
+				double sRe = 0, sIm = 0;
+				for(int q = j; n + q <= order; q++){
+					double b = binomial[q][j];
+					double eRe = powRe[q - j], eIm = -powIm[q - j];
+					double re = lRe[p + row[n] + q], im = lIm[p + row[n] + q];
+					sRe += b * (eRe * re - eIm * im);
+					sIm += b * (eRe * im + eIm * re);
+				}
+				tmpRe[row[n] + j] = sRe;
+				tmpIm[row[n] + j] = sIm;
+			}
+		}
+
+		int c = child * terms;
+		for(int i = 0; i <= order; i++){
+			for(int j = 0; i + j <= order; j++){
+				double sRe = 0, sIm = 0;
+				for(int n = i; n + j <= order; n++){
+					double b = binomial[n][i];
+					double eRe = powRe[n - i], eIm = powIm[n - i];
+					double re = tmpRe[row[n] + j], im = tmpIm[row[n] + j];
+					sRe += b * (eRe * re - eIm * im);
+					sIm += b * (eRe * im + eIm * re);
+				}
+				lRe[c + row[i] + j] += sRe;
+				lIm[c + row[i] + j] += sIm;
+			}
+		}
+	}
+
+	/**
+	 * Fill powRe and powIm with the powers 0 to highest of x + iy
+	 */
+	private void powers(double x, double y, int highest){
+		powRe[0] = 1;
+		powIm[0] = 0;
+		for(int k = 1; k <= highest; k++){
+			powRe[k] = powRe[k - 1] * x - powIm[k - 1] * y;
+			powIm[k] = powRe[k - 1] * y + powIm[k - 1] * x;
+		}
+	}
+
+	private void addPair(int a, int b){
+		if(pairCount == pairA.length){
+			pairA = Arrays.copyOf(pairA, pairCount * 2);
+			pairB = Arrays.copyOf(pairB, pairCount * 2);
+		}
+		pairA[pairCount] = a;
+		pairB[pairCount] = b;
+		pairCount++;
+	}
+
+	/**
+	 * Turn the pairs of neighbouring leaves into a list of neighbours per leaf
+	 */
+	private void listNeighbours(){
+		// Sized like the node and pair arrays, so they grow as rarely
+		if(nearStart.length < nodeCount + 1){
+			nearStart = new int[boxX.length + 1];
+		}
+		if(near.length < pairCount){
+			near = new int[pairA.length];
+		}
+
+		Arrays.fill(nearStart, 0, nodeCount + 1, 0);
+		for(int p = 0; p < pairCount; p++){
+			nearStart[pairA[p] + 1]++;
+		}
+		for(int node = 0; node < nodeCount; node++){
+			nearStart[node + 1] += nearStart[node];
+		}
+
+		// Every leaf's start serves as its cursor, which leaves it at the next leaf's start
+		for(int p = 0; p < pairCount; p++){
+			near[nearStart[pairA[p]]++] = pairB[p];
+		}
+		for(int node = nodeCount; node > 0; node--){
+			nearStart[node] = nearStart[node - 1];
+		}
+		nearStart[0] = 0;
+	}
+
+	private void ensureBodies(int n){
+		if(sorted.length < n){
+			int length = Math.max(n, sorted.length * 2);
+			sorted 		= new int[length];
+			position 	= new int[length];
+			leafOf 		= new int[length];
+			bodyX 		= new double[length];
+			bodyY 		= new double[length];
+			bodyMass 	= new double[length];
+
+			// Trees of the systems tried have fewer than 0.08 nodes and 1.2 pairs of
+			// neighbouring leaves per body. Room for more keeps a system whose tree changes
+			// shape from growing the arrays again and again, and the nodes get room for a
+			// close group of bodies split all the way down to MAX_DEPTH on top. A system
+			// that collapses further can still outgrow them.
+			ensureNodes(length / 8 + 4 * MAX_DEPTH);
+			if(pairA.length < 2 * length){
+				pairA = Arrays.copyOf(pairA, 2 * length);
+				pairB = Arrays.copyOf(pairB, 2 * length);
+			}
+		}
+	}
+
+	private void ensureNodes(int capacity){
+		if(boxX.length < capacity){
+			boxX 		= Arrays.copyOf(boxX, capacity);
+			boxY 		= Arrays.copyOf(boxY, capacity);
+			boxHalf 	= Arrays.copyOf(boxHalf, capacity);
+			centreX 	= Arrays.copyOf(centreX, capacity);
+			centreY 	= Arrays.copyOf(centreY, capacity);
+			radius 		= Arrays.copyOf(radius, capacity);
+			mass 		= Arrays.copyOf(mass, capacity);
+			start 		= Arrays.copyOf(start, capacity);
+			end 		= Arrays.copyOf(end, capacity);
+			firstChild 	= Arrays.copyOf(firstChild, capacity);
+			childCount 	= Arrays.copyOf(childCount, capacity);
+
+			// Expansions are found after the tree is complete, nothing to keep
+			mRe = new double[capacity * terms];
+			mIm = new double[capacity * terms];
+			lRe = new double[capacity * terms];
+			lIm = new double[capacity * terms];
+		}
+	}
+
+	private void newNode(double x, double y, double half, int from, int to){
+		if(nodeCount == boxX.length){
+			ensureNodes(Math.max(64, nodeCount * 2));
+		}
+
+		boxX[nodeCount] 		= x;
+		boxY[nodeCount] 		= y;
+		boxHalf[nodeCount] 		= half;
+		start[nodeCount] 		= from;
+		end[nodeCount] 			= to;
+		firstChild[nodeCount] 	= NONE;
+		childCount[nodeCount] 	= 0;
+		nodeCount++;
+	}
+
+}
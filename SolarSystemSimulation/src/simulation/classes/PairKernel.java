@@ -0,0 +1,333 @@
+package simulation.classes;
+
+import java.util.Arrays;
+
+/**
+ * Direct-summation gravity kernels over a BodyStore. Every pair costs one square root
+ * and no divisions: the force is G * m1 * m2 * d / r^3, with r^3 found from 1 / sqrt(r^2).
+ *
+ * An optional Plummer softening length eps replaces r^2 with r^2 + eps^2, which keeps
+ * the force finite during close encounters. With eps = 0 the force is Newtonian.
+ *
+ * Both kernels add up the contributions to a body in the same order and with the same
+ * arithmetic, so the symmetric kernel and the gather kernel give bit-identical forces.
+ *
+ * While the store asks for potentials, each pair's potential energy -G * m1 * m2 / r is
+ * added up for both bodies too, reusing the pair's 1 / r.
+ *
+ * If some bodies are test particles, only the pairs of sources are visited as above and
+ * every test particle sums the pull of the sources alone, for O(S * (S + T)) work with S
+ * sources and T test particles. Test particles are left out of the potential energy.
+ */
+final class PairKernel {
+
+	private static final double TO_AU = 1 / Planet.SCALE;
+
+	private PairKernel(){}
+
+	/**
+	 * Visit every unordered pair once and apply equal and opposite forces to both bodies
+	 * (Newton's third law), halving the work of a full N^2 sweep. Not safe to run in
+	 * parallel, since every pair writes to two bodies.
+	 *
+	 * @param bodies Bodies whose forces are replaced
+	 * @param softening Plummer softening length in AU
+	 */
+	static void symmetric(BodyStore bodies, double softening){
+
+		if(!bodies.allSources()){
+			symmetricSources(bodies, softening);
+			return;
+		}
+
+		int n = bodies.count;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		double[] fx = bodies.fx, fy = bodies.fy;
+		double[] potential = bodies.potential;
+		boolean withPotential = bodies.withPotential;
+		double eps2 = softening * softening;
+
+		bodies.resetForces();
+		if(withPotential){
+			bodies.resetPotentials();
+		}
+
+		for(int i = 0; i < n; i++){
+			double xi = x[i], yi = y[i];
+			double gmi = Planet.SCALED_G * mass[i];
+			double fxi = fx[i], fyi = fy[i];
+			double pi = withPotential ? potential[i] : 0.0;
+
+			for(int j = i + 1; j < n; j++){
+				double dx = (x[j] - xi) * TO_AU;
+				double dy = (y[j] - yi) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = gmi * mass[j] * (inv*inv*inv);
+
+				double sx = f * dx;
+				double sy = f * dy;
+				fxi += sx;
+				fyi += sy;
+				fx[j] -= sx;
+				fy[j] -= sy;
+
+				if(withPotential){
+					double p = gmi * mass[j] * inv;
+					pi -= p;
+					potential[j] -= p;
+				}
+			}
+
+			fx[i] = fxi;
+			fy[i] = fyi;
+			if(withPotential){
+				potential[i] = pi;
+			}
+		}
+	}
+
+	/**
+	 * Sum the forces acting on a range of bodies from all other bodies. Only writes to
+	 * the range's own forces, so disjoint ranges can run in parallel.
+	 *
+	 * @param bodies Bodies whose forces are replaced
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 * @param softening Plummer softening length in AU
+	 */
+	static void gather(BodyStore bodies, int from, int to, double softening){
+
+		if(!bodies.allSources()){
+			gatherSources(bodies, from, to, softening);
+			return;
+		}
+
+		int n = bodies.count;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		boolean withPotential = bodies.withPotential;
+		double eps2 = softening * softening;
+
+		for(int i = from; i < to; i++){
+			double xi = x[i], yi = y[i], mi = mass[i];
+			double fxi = 0.0, fyi = 0.0, pi = 0.0;
+
+			// Bodies before i, with the pair's arithmetic ordered as in the symmetric kernel
+			for(int j = 0; j < i; j++){
+				double dx = (xi - x[j]) * TO_AU;
+				double dy = (yi - y[j]) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = Planet.SCALED_G * mass[j] * mi * (inv*inv*inv);
+
+				fxi -= f * dx;
+				fyi -= f * dy;
+				if(withPotential){
+					pi -= Planet.SCALED_G * mass[j] * mi * inv;
+				}
+			}
+
+			double gmi = Planet.SCALED_G * mi;
+			for(int j = i + 1; j < n; j++){
+				double dx = (x[j] - xi) * TO_AU;
+				double dy = (y[j] - yi) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = gmi * mass[j] * (inv*inv*inv);
+
+				fxi += f * dx;
+				fyi += f * dy;
+				if(withPotential){
+					pi -= gmi * mass[j] * inv;
+				}
+			}
+
+			bodies.fx[i] = fxi;
+			bodies.fy[i] = fyi;
+			if(withPotential){
+				bodies.potential[i] = pi;
+			}
+		}
+	}
+
+	/**
+	 * The symmetric kernel over the sources, followed by the test particles
+	 */
+	private static void symmetricSources(BodyStore bodies, double softening){
+
+		int[] sources = bodies.sources;
+		int count = bodies.sourceCount;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		double[] fx = bodies.fx, fy = bodies.fy;
+		double[] potential = bodies.potential;
+		boolean withPotential = bodies.withPotential;
+		double eps2 = softening * softening;
+
+		bodies.resetForces();
+		if(withPotential){
+			bodies.resetPotentials();
+		}
+
+		for(int a = 0; a < count; a++){
+			int i = sources[a];
+			double xi = x[i], yi = y[i];
+			double gmi = Planet.SCALED_G * mass[i];
+			double fxi = fx[i], fyi = fy[i];
+			double pi = withPotential ? potential[i] : 0.0;
+
+			for(int b = a + 1; b < count; b++){
+				int j = sources[b];
+				double dx = (x[j] - xi) * TO_AU;
+				double dy = (y[j] - yi) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = gmi * mass[j] * (inv*inv*inv);
+
+				double sx = f * dx;
+				double sy = f * dy;
+				fxi += sx;
+				fyi += sy;
+				fx[j] -= sx;
+				fy[j] -= sy;
+
+				if(withPotential){
+					double p = gmi * mass[j] * inv;
+					pi -= p;
+					potential[j] -= p;
+				}
+			}
+
+			fx[i] = fxi;
+			fy[i] = fyi;
+			if(withPotential){
+				potential[i] = pi;
+			}
+		}
+
+		// Test particles lie in the runs between sources
+		int start = 0;
+		for(int a = 0; a < count; a++){
+			testParticles(bodies, start, sources[a], eps2);
+			start = sources[a] + 1;
+		}
+		testParticles(bodies, start, bodies.count, eps2);
+	}
+
+	/**
+	 * The gather kernel over the sources, giving the same forces as symmetricSources
+	 */
+	private static void gatherSources(BodyStore bodies, int from, int to, double softening){
+
+		int[] sources = bodies.sources;
+		int count = bodies.sourceCount;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		boolean withPotential = bodies.withPotential;
+		double eps2 = softening * softening;
+
+		// Position of the range's first source in the source list
+		int a = Arrays.binarySearch(sources, 0, count, from);
+		if(a < 0){
+			a = -a - 1;
+		}
+
+		int i = from;
+		while(i < to){
+			if(a == count || sources[a] != i){
+				int end = a == count ? to : Math.min(to, sources[a]);
+				testParticles(bodies, i, end, eps2);
+				i = end;
+				continue;
+			}
+
+			double xi = x[i], yi = y[i], mi = mass[i];
+			double fxi = 0.0, fyi = 0.0, pi = 0.0;
+
+			for(int b = 0; b < a; b++){
+				int j = sources[b];
+				double dx = (xi - x[j]) * TO_AU;
+				double dy = (yi - y[j]) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = Planet.SCALED_G * mass[j] * mi * (inv*inv*inv);
+
+				fxi -= f * dx;
+				fyi -= f * dy;
+				if(withPotential){
+					pi -= Planet.SCALED_G * mass[j] * mi * inv;
+				}
+			}
+
+			double gmi = Planet.SCALED_G * mi;
+			for(int b = a + 1; b < count; b++){
+				int j = sources[b];
+				double dx = (x[j] - xi) * TO_AU;
+				double dy = (y[j] - yi) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = gmi * mass[j] * (inv*inv*inv);
+
+				fxi += f * dx;
+				fyi += f * dy;
+				if(withPotential){
+					pi -= gmi * mass[j] * inv;
+				}
+			}
+
+			bodies.fx[i] = fxi;
+			bodies.fy[i] = fyi;
+			if(withPotential){
+				bodies.potential[i] = pi;
+			}
+			a++;
+			i++;
+		}
+	}
+
+	/**
+	 * Sum the pull of the sources on a run of bodies that aren't any. Source after source
+	 * sweeps the whole run, which streams through the run's arrays instead of going round a
+	 * short loop over the sources for every body, about twice as fast with few sources.
+	 * Each body still adds up the sources in order, so any split into runs gives the same
+	 * forces.
+	 */
+	private static void testParticles(BodyStore bodies, int from, int to, double eps2){
+
+		int[] sources = bodies.sources;
+		int count = bodies.sourceCount;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		double[] fx = bodies.fx, fy = bodies.fy;
+
+		// The forces hold the accelerations until every source is added
+		for(int i = from; i < to; i++){
+			fx[i] = 0.0;
+			fy[i] = 0.0;
+		}
+
+		for(int b = 0; b < count; b++){
+			int j = sources[b];
+			double xj = x[j], yj = y[j];
+			double gmj = Planet.SCALED_G * mass[j];
+
+			for(int i = from; i < to; i++){
+				double dx = (xj - x[i]) * TO_AU;
+				double dy = (yj - y[i]) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double g = gmj * (inv*inv*inv);
+
+				fx[i] += g * dx;
+				fy[i] += g * dy;
+			}
+		}
+
+		for(int i = from; i < to; i++){
+			double inertia = BodyStore.inertia(mass[i]);
+			fx[i] *= inertia;
+			fy[i] *= inertia;
+		}
+		if(bodies.withPotential){
+			Arrays.fill(bodies.potential, from, to, 0.0);
+		}
+	}
+
+}
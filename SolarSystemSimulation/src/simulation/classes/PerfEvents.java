@@ -0,0 +1,153 @@
+package simulation.classes;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events for the phases of the simulation, so a recording shows where the
+ * time goes without attaching a profiler, e.g.
+ *
+ *   java -XX:StartFlightRecording=filename=sim.jfr ...   or   jcmd <pid> JFR.start
+ *
+ * Events are only created while a recording has them enabled, so steps and frames don't
+ * allocate otherwise. The begin methods return null when the event is disabled.
+ */
+final class PerfEvents {
+
+	private static final String CATEGORY = "Solar System Simulation";
+
+	@Name("simulation.Step")
+	@Label("Step")
+	@Category(CATEGORY)
+	@Description("One timestep of the simulation")
+	static class StepEvent extends Event {
+		@Label("Bodies")
+		int bodies;
+		@Label("Integrator")
+		String integrator;
+	}
+
+	@Name("simulation.Force")
+	@Label("Force Evaluation")
+	@Category(CATEGORY)
+	@Description("Forces of all bodies computed at their current positions")
+	static class ForceEvent extends Event {
+		@Label("Bodies")
+		int bodies;
+		@Label("Solver")
+		String solver;
+	}
+
+	@Name("simulation.Integrate")
+	@Label("Integration")
+	@Category(CATEGORY)
+	@Description("Bodies moved or kicked by an integrator; block timesteps also compute the forces of the active bodies here")
+	static class IntegrateEvent extends Event {
+		@Label("Bodies")
+		int bodies;
+	}
+
+	@Name("simulation.Render")
+	@Label("Render")
+	@Category(CATEGORY)
+	@Description("Planets, labels and traces drawn for one frame")
+	static class RenderEvent extends Event {
+		@Label("Bodies")
+		int bodies;
+		@Label("Traces")
+		boolean traces;
+	}
+
+	@Name("simulation.IO")
+	@Label("File I/O")
+	@Category(CATEGORY)
+	@Description("System or trajectory file read or written")
+	static class IoEvent extends Event {
+		@Label("Operation")
+		String operation;
+		@Label("File")
+		String file;
+		@Label("Bytes")
+		@Description("Bytes read or written, 0 for seeks")
+		@DataAmount
+		long bytes;
+	}
+
+	private static final EventType STEP 		= EventType.getEventType(StepEvent.class);
+	private static final EventType FORCE 		= EventType.getEventType(ForceEvent.class);
+	private static final EventType INTEGRATE 	= EventType.getEventType(IntegrateEvent.class);
+	private static final EventType RENDER 		= EventType.getEventType(RenderEvent.class);
+	private static final EventType IO 			= EventType.getEventType(IoEvent.class);
+
+	private PerfEvents(){}
+
+	static StepEvent beginStep(){
+		if(!STEP.isEnabled()){
+			return null;
+		}
+		StepEvent event = new StepEvent();
+		event.begin();
+		return event;
+	}
+
+	static ForceEvent beginForce(){
+		if(!FORCE.isEnabled()){
+			return null;
+		}
+		ForceEvent event = new ForceEvent();
+		event.begin();
+		return event;
+	}
+
+	static IntegrateEvent beginIntegrate(){
+		if(!INTEGRATE.isEnabled()){
+			return null;
+		}
+		IntegrateEvent event = new IntegrateEvent();
+		event.begin();
+		return event;
+	}
+
+	static RenderEvent beginRender(){
+		if(!RENDER.isEnabled()){
+			return null;
+		}
+		RenderEvent event = new RenderEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * @param operation What is done, e.g. "load system"
+	 * @param file File read or written
+	 */
+	static IoEvent beginIo(String operation, File file){
+		if(!IO.isEnabled()){
+			return null;
+		}
+		IoEvent event = new IoEvent();
+		event.operation = operation;
+		event.file = file.getPath();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * @param event Event returned by beginIo, may be null
+	 * @param bytes Number of bytes read or written
+	 */
+	static void commitIo(IoEvent event, long bytes){
+		if(event != null){
+			event.bytes = bytes;
+			event.commit();
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package simulation.classes;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * On-screen performance figures: body count, achieved against requested steps per second,
+ * how a step's time splits into forces and integration, the timestep and, if measured,
+ * the energy and momentum errors, and percentiles of the frame interval and of the time
+ * spent drawing. Frames are recorded every time, the text is only rebuilt twice a second.
+ */
+public class PerfOverlay {
+
+	static final long UPDATE_INTERVAL = 500_000_000L;	// nanoseconds between updates of the text
+	private static final int SAMPLES = 240;				// frames the percentiles are taken over
+
+	private final double[] frameIntervals = new double[SAMPLES];	// milliseconds, ring buffers
+	private final double[] drawTimes = new double[SAMPLES];
+	private final double[] sorted = new double[SAMPLES];
+	private int intervalCount = 0;
+	private int drawCount = 0;
+	private long lastFrame = 0;
+
+	// Counters at the last update, the figures shown are for the time since
+	private long updated = 0;
+	private long steps;
+	private long stepTime;
+	private long forceTime;
+	private long integrateTime;
+	private Simulation simulation;
+
+	private String[] lines = new String[0];
+
+	/**
+	 * Note an animation frame
+	 *
+	 * @param now Time of the frame in nanoseconds, as from System.nanoTime()
+	 * @param drawTime Nanoseconds spent drawing in this frame, negative if nothing was drawn
+	 */
+	public void frame(long now, long drawTime){
+		if(lastFrame != 0){
+			frameIntervals[intervalCount++ % SAMPLES] = (now - lastFrame) / 1e6;
+		}
+		lastFrame = now;
+
+		if(drawTime >= 0){
+			drawTimes[drawCount++ % SAMPLES] = drawTime / 1e6;
+		}
+	}
+
+	/**
+	 * Rebuild the text if it's time to
+	 *
+	 * @param now Time of the frame in nanoseconds, as from System.nanoTime()
+	 * @param loop Loop stepping the simulation
+	 * @param bodies Number of bodies shown
+	 * @return True if the text changed and should be drawn again
+	 */
+	public boolean update(long now, SimulationLoop loop, int bodies){
+		if(updated != 0 && now - updated < UPDATE_INTERVAL){
+			return false;
+		}
+
+		Simulation sim = loop.getSimulation();
+		long newSteps = loop.getSteps(), newStepTime = loop.getStepTime();
+		long newForceTime = sim.getForceTime(), newIntegrateTime = sim.getIntegrateTime();
+
+		String stepLine = "Step: -";
+		String rateLine = "Steps/s: -";
+		if(updated != 0 && sim == simulation){
+			double seconds = (now - updated) / 1e9;
+			long stepsMade = newSteps - steps;
+
+			rateLine = String.format(Locale.ROOT, "Steps/s: %.0f of %s, simulation busy %.0f%%",
+					stepsMade / seconds, requestedRate(loop), 100 * (newStepTime - stepTime) / 1e9 / seconds);
+			if(stepsMade > 0){
+				stepLine = String.format(Locale.ROOT, "Step: %.3f ms (forces %.3f ms, integration %.3f ms)",
+						(newStepTime - stepTime) / 1e6 / stepsMade, (newForceTime - forceTime) / 1e6 / stepsMade,
+						(newIntegrateTime - integrateTime) / 1e6 / stepsMade);
+			}
+		}
+
+		TimestepController controller = sim.getTimestepController();
+		String timestepLine = String.format(Locale.ROOT, "Timestep: %.3f days", Simulation.timestep / Planet.ONE_DAY);
+		if(controller != null && sim.getEnergyMonitor() != null){
+			timestepLine += String.format(Locale.ROOT, ", automatic (energy budget %.0e per year)", controller.getBudget());
+		}
+
+		lines = new String[] {
+				"Bodies: " + bodies,
+				rateLine,
+				stepLine,
+				timestepLine,
+				energyLine(sim.getEnergyMonitor()),
+				"Frame interval " + percentiles(frameIntervals, intervalCount),
+				"Drawing " + percentiles(drawTimes, drawCount) };
+
+		updated 		= now;
+		steps 			= newSteps;
+		stepTime 		= newStepTime;
+		forceTime 		= newForceTime;
+		integrateTime 	= newIntegrateTime;
+		simulation 		= sim;
+		return true;
+	}
+
+	/**
+	 * @param overlay Context of the canvas the overlay is drawn on, cleared first
+	 */
+	public void draw(GraphicsContext overlay){
+		double width = overlay.getCanvas().getWidth(), height = overlay.getCanvas().getHeight();
+		overlay.clearRect(0, 0, width, height);
+		overlay.setFill(Color.rgb(0, 0, 0, 0.6));
+		overlay.fillRect(0, 0, width, height);
+
+		overlay.setFill(Color.LIGHTGREEN);
+		for(int i = 0; i < lines.length; i++){
+			overlay.fillText(lines[i], 6, 16 + 16 * i);
+		}
+	}
+
+	private static String requestedRate(SimulationLoop loop){
+		int stepsPerFrame = loop.getFastForward();
+		if(stepsPerFrame == SimulationLoop.AS_MANY_AS_POSSIBLE){
+			return "as many as possible";
+		}else if(stepsPerFrame > 0){
+			return stepsPerFrame + " per frame";
+		}
+		return String.format(Locale.ROOT, "%.0f requested", loop.getStepsPerSecond());
+	}
+
+	private static String energyLine(EnergyMonitor monitor){
+		if(monitor == null){
+			return "Energy: not monitored (Edit menu)";
+		}else if(monitor.getMeasurements() == 0){
+			return "Energy error: -";
+		}
+		return String.format(Locale.ROOT, "Energy error: %.1e (max %.1e), momentum %.1e, angular momentum %.1e",
+				monitor.getEnergyError(), monitor.getMaxEnergyError(), monitor.getMomentumError(),
+				monitor.getAngularMomentumError());
+	}
+
+	/**
+	 * @return The 50th, 95th and 99th percentiles of the samples in milliseconds
+	 */
+	private String percentiles(double[] samples, int count){
+		int n = Math.min(count, SAMPLES);
+		if(n == 0){
+			return "p50/p95/p99: -";
+		}
+		System.arraycopy(samples, 0, sorted, 0, n);
+		Arrays.sort(sorted, 0, n);
+		return String.format(Locale.ROOT, "p50/p95/p99: %.1f / %.1f / %.1f ms",
+				sorted[rank(0.50, n)], sorted[rank(0.95, n)], sorted[rank(0.99, n)]);
+	}
+
+	private static int rank(double quantile, int n){
+		return Math.max(0, (int) Math.ceil(quantile * n) - 1);
+	}
+
+}
@@ -15,6 +15,7 @@ public class Planet {
 	public static final double MERCURY_MASS = 1.652e-7;			// mass of Mercury in kilograms
 	public static final double VENUS_MASS = 2.447e-6;			// mass of Venus in kilograms (0.000002447)
 	public static final double MARS_MASS = 3.213e-7;			// mass of Mars in kilograms
+	public static final double SCALE = 15;						// number of pixels in one astronomical unit on screen
 	
 	private String name;		// planet's name
 	private double posX;		// x-coordinate
@@ -33,6 +34,9 @@ public class Planet {
 	private Color color;		// colour filling
 	private Color oriColor;		// planet's original colour
 	private double size;		// displayed planet's size
+	private boolean testParticle;	// pulled by other planets but never pulling on them
+	private BodyStore store;	// store holding the simulated state while bound, null otherwise
+	private int index = -1;		// planet's index in the store
 	
 	/**
 	 * Empty constructor
@@ -106,28 +110,36 @@ public class Planet {
 	 * @return Planet's X-coordinate
 	 */
 	public double getPosX() {
-		return posX;
+		return store != null ? store.x[index] : posX;
 	}
 
 	/**
 	 * @param posX Planet's new X-coordinate
 	 */
 	public void setPosX(double posX) {
-		this.posX = posX;
+		if(store != null){
+			store.x[index] = posX;
+		}else{
+			this.posX = posX;
+		}
 	}
 
 	/**
 	 * @return Planet's Y-coordinate
 	 */
 	public double getPosY() {
-		return posY;
+		return store != null ? store.y[index] : posY;
 	}
 
 	/**
 	 * @param posY Planet's new Y-coordinate
 	 */
 	public void setPosY(double posY) {
-		this.posY = posY;
+		if(store != null){
+			store.y[index] = posY;
+		}else{
+			this.posY = posY;
+		}
 	}
 	
 	/**
@@ -148,56 +160,72 @@ public class Planet {
 	 * @return the prevPosX
 	 */
 	public double getPrevPosX() {
-		return prevPosX;
+		return store != null ? store.prevX[index] : prevPosX;
 	}
 
 	/**
 	 * @param prevPosX the prevPosX to set
 	 */
 	public void setPrevPosX(double prevPosX) {
-		this.prevPosX = prevPosX;
+		if(store != null){
+			store.prevX[index] = prevPosX;
+		}else{
+			this.prevPosX = prevPosX;
+		}
 	}
 
 	/**
 	 * @return the prevPosY
 	 */
 	public double getPrevPosY() {
-		return prevPosY;
+		return store != null ? store.prevY[index] : prevPosY;
 	}
 
 	/**
 	 * @param prevPosY the prevPosY to set
 	 */
 	public void setPrevPosY(double prevPosY) {
-		this.prevPosY = prevPosY;
+		if(store != null){
+			store.prevY[index] = prevPosY;
+		}else{
+			this.prevPosY = prevPosY;
+		}
 	}
 
 	/**
 	 * @return Planet's velocity along X-axis
 	 */
 	public double getVelX() {
-		return velX;
+		return store != null ? store.vx[index] : velX;
 	}
 
 	/**
 	 * @param velX Planet's new velocity along X-axis
 	 */
 	public void setVelX(double velX) {
-		this.velX = velX;
+		if(store != null){
+			store.vx[index] = velX;
+		}else{
+			this.velX = velX;
+		}
 	}
 
 	/**
 	 * @return Planet's velocity along Y-axis
 	 */
 	public double getVelY() {
-		return velY;
+		return store != null ? store.vy[index] : velY;
 	}
 
 	/**
 	 * @param velY Planet's new velocity along Y-axis
 	 */
 	public void setVelY(double velY) {
-		this.velY = velY;
+		if(store != null){
+			store.vy[index] = velY;
+		}else{
+			this.velY = velY;
+		}
 	}
 	
 	/**
@@ -218,42 +246,75 @@ public class Planet {
 	 * @return Force acting on planet along X-axis
 	 */
 	public double getForceX() {
-		return forceX;
+		return store != null ? store.fx[index] : forceX;
 	}
 
 	/**
 	 * @param forceX New force acting on planet along X-axis
 	 */
 	public void setForceX(double forceX) {
-		this.forceX = forceX;
+		if(store != null){
+			store.fx[index] = forceX;
+		}else{
+			this.forceX = forceX;
+		}
 	}
 
 	/**
 	 * @return Force acting on planet along Y-axis
 	 */
 	public double getForceY() {
-		return forceY;
+		return store != null ? store.fy[index] : forceY;
 	}
 
 	/**
 	 * @param forceY New force acting on planet along Y-axis
 	 */
 	public void setForceY(double forceY) {
-		this.forceY = forceY;
+		if(store != null){
+			store.fy[index] = forceY;
+		}else{
+			this.forceY = forceY;
+		}
 	}
 
 	/**
 	 * @return Planet's mass
 	 */
 	public double getMass() {
-		return mass;
+		return store != null ? store.mass[index] : mass;
 	}
 
 	/**
 	 * @param mass Planet's new mass
 	 */
 	public void setMass(double mass) {
-		this.mass = mass;
+		if(store != null){
+			store.mass[index] = mass;
+		}else{
+			this.mass = mass;
+		}
+	}
+
+	/**
+	 * @return True if the planet is a test particle
+	 */
+	public boolean isTestParticle() {
+		return testParticle;
+	}
+
+	/**
+	 * A test particle feels the pull of the other planets but doesn't pull on them, like an
+	 * asteroid too small to matter. Its mass only sets its force, not its path. Planets
+	 * without mass are treated as test particles, and their force is their acceleration.
+	 *
+	 * @param testParticle True to make the planet a test particle
+	 */
+	public void setTestParticle(boolean testParticle) {
+		this.testParticle = testParticle;
+		if(store != null){
+			store.testParticle[index] = testParticle;
+		}
 	}
 
 	/**
@@ -292,8 +353,8 @@ public class Planet {
 	 */
 	
 	public double getDistance(Planet other){
-		double dx = other.getPosX()/15 - posX/15;
-		double dy = other.getPosY()/15 - posY/15;
+		double dx = other.getPosX()/15 - getPosX()/15;
+		double dy = other.getPosY()/15 - getPosY()/15;
 		return Math.sqrt(dx*dx + dy*dy);
 	}
 	
@@ -303,7 +364,7 @@ public class Planet {
 	 */
 	
 	public double getPairwiseForce(Planet other){
-		return (SCALED_G * mass * other.getMass()) / (getDistance(other)*
+		return (SCALED_G * getMass() * other.getMass()) / (getDistance(other)*
 														getDistance(other));
 	}
 	
@@ -312,52 +373,91 @@ public class Planet {
 	 */
 	
 	public void addNewForces(Planet other){
-		forceX += getPairwiseForce(other) * (other.getPosX()/15 - posX/15) / getDistance(other);
-		forceY += getPairwiseForce(other) * (other.getPosY()/15 - posY/15) / getDistance(other);
+		setForceX(getForceX() + getPairwiseForce(other) * (other.getPosX()/15 - getPosX()/15) / getDistance(other));
+		setForceY(getForceY() + getPairwiseForce(other) * (other.getPosY()/15 - getPosY()/15) / getDistance(other));
 	}
 	
 	/**
 	 * @return Planet's accelerations along x-axis
 	 */
 	public double newAccelerationX(){
-		return forceX / mass;
+		return getForceX() / BodyStore.inertia(getMass());
 	}
 	
 	/**
 	 * @return Planet's acceleration along y-axis
 	 */
 	public double newAccelerationY(){
-		return forceY / mass;
+		return getForceY() / BodyStore.inertia(getMass());
 	}
 	
 	/**
 	 * @param timestep Time difference between each simulation update
 	 */
 	public void updateVelAndPos(double timestep){
-		velX += timestep * newAccelerationX();
-		velY += timestep * newAccelerationY();
+		setVelX(getVelX() + timestep * newAccelerationX());
+		setVelY(getVelY() + timestep * newAccelerationY());
 		
-		posX += 15*timestep * velX;
-		posY += 15*timestep * velY;
+		setPosX(getPosX() + 15*timestep * getVelX());
+		setPosY(getPosY() + 15*timestep * getVelY());
 	}
 	
 	/**
 	 * Reset acting forces before new calculation
 	 */
 	public void resetForces(){
-		forceX = 0.0;
-		forceY = 0.0;
+		setForceX(0.0);
+		setForceY(0.0);
 	}
 	
 	public void resetVelocities(){
-		velX = 0.0;
-		velY = 0.0;
+		setVelX(0.0);
+		setVelY(0.0);
+	}
+	
+	/**
+	 * Bind the planet to a store, the store must already hold the planet's state
+	 * 
+	 * @param store Store holding the simulated state
+	 * @param index Planet's index in the store
+	 */
+	void attach(BodyStore store, int index){
+		this.store = store;
+		this.index = index;
+	}
+	
+	/**
+	 * Copy the state held in the store back into the planet and release it
+	 */
+	void detach(){
+		if(store != null){
+			posX 	= store.x[index];
+			posY 	= store.y[index];
+			prevPosX= store.prevX[index];
+			prevPosY= store.prevY[index];
+			velX 	= store.vx[index];
+			velY 	= store.vy[index];
+			forceX 	= store.fx[index];
+			forceY 	= store.fy[index];
+			mass 	= store.mass[index];
+			store 	= null;
+			index 	= -1;
+		}
+	}
+	
+	/**
+	 * @param store A store
+	 * @param index Index in that store
+	 * @return True if the planet is bound to that index of that store
+	 */
+	boolean isViewOf(BodyStore store, int index){
+		return this.store == store && this.index == index;
 	}
 	
 	public String toString(){
-		return "Planet- " + this.name + "\nPosition- X:" + posX + "  Y:" + posY
-				+ "\nVelocity- X:" + this.velX + "  Y:" + this.velY + "\nForce- X:" +
-				this.forceX + "  Y:" + this.forceY + "\nMass- " + this.mass + "\nColour- ";
+		return "Planet- " + this.name + "\nPosition- X:" + getPosX() + "  Y:" + getPosY()
+				+ "\nVelocity- X:" + getVelX() + "  Y:" + getVelY() + "\nForce- X:" +
+				getForceX() + "  Y:" + getForceY() + "\nMass- " + getMass() + "\nColour- ";
 	}
 	
 }
@@ -0,0 +1,236 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws the planets, their labels and their traces onto canvases. Kept apart from Main
+ * so that rendering can also be done onto offscreen canvases, e.g. by the benchmarks.
+ *
+ * Large systems mostly consist of tiny bodies, so drawing is kept to what can be seen:
+ * bodies off the canvas are skipped, bodies smaller than a couple of pixels are drawn as
+ * a single pixel, only once per pixel however many share it, and small bodies get no
+ * name label.
+ */
+public class PlanetRenderer {
+
+	private boolean traces = false;			// draw each planet's path on the trace canvas
+	private boolean labels = false;			// show position, velocity and distance to the Sun
+	private boolean linesToSun = false;		// connect every planet to the first one
+
+	private static final double POINT_SIZE = 2;		// bodies smaller than this are drawn as one pixel
+	private static final double LABEL_SIZE = 3;		// bodies smaller than this get no name label
+
+	private final Snapshot current = new Snapshot();	// state of the planets drawn while paused
+	private final TraceStore traceStore = new TraceStore();
+	private final LabelCache labelCache = new LabelCache();
+	private long[] drawnPixels = new long[0];		// pixels already holding a point this frame
+
+	public boolean isTraces() {
+		return traces;
+	}
+
+	public void setTraces(boolean traces) {
+		this.traces = traces;
+		if (!traces) {
+			traceStore.clear();
+		}
+	}
+
+	/**
+	 * @return Points kept for each planet's trace
+	 */
+	public int getTraceLength() {
+		return traceStore.getLength();
+	}
+
+	/**
+	 * @param length Points kept for each planet's trace, clears the traces
+	 */
+	public void setTraceLength(int length) {
+		traceStore.setLength(length);
+	}
+
+	public boolean isFadeTraces() {
+		return traceStore.isFade();
+	}
+
+	public void setFadeTraces(boolean fade) {
+		traceStore.setFade(fade);
+	}
+
+	/**
+	 * Forget the traces drawn so far, e.g. after jumping to another time
+	 */
+	public void clearTraces() {
+		traceStore.clear();
+	}
+
+	public boolean isLabels() {
+		return labels;
+	}
+
+	public void setLabels(boolean labels) {
+		this.labels = labels;
+	}
+
+	public boolean isLinesToSun() {
+		return linesToSun;
+	}
+
+	public void setLinesToSun(boolean linesToSun) {
+		this.linesToSun = linesToSun;
+	}
+
+	/**
+	 * Draw the planets where they are now, used while the simulation isn't running
+	 *
+	 * @param planets Planets to draw
+	 * @param main Context of the canvas holding the planets
+	 * @param trace Context of the canvas holding the planets' paths
+	 */
+	public void draw(ArrayList<Planet> planets, GraphicsContext main, GraphicsContext trace) {
+		current.fill(planets);
+		draw(planets, current, main, trace);
+	}
+
+	/**
+	 * @param planets Planets to draw, giving their names, colours and sizes
+	 * @param state Positions and velocities of the planets, in the same order
+	 * @param main Context of the canvas holding the planets
+	 * @param trace Context of the canvas holding the planets' paths
+	 */
+	public void draw(ArrayList<Planet> planets, Snapshot state, GraphicsContext main, GraphicsContext trace) {
+		PerfEvents.RenderEvent event = PerfEvents.beginRender();
+
+		drawFrame(planets, state, main, trace);
+
+		if (event != null) {
+			event.bodies = state.count;
+			event.traces = traces;
+			event.commit();
+		}
+	}
+
+	private void drawFrame(ArrayList<Planet> planets, Snapshot state, GraphicsContext main, GraphicsContext trace) {
+		int count = Math.min(planets.size(), state.count);
+		double[] x = state.x, y = state.y;
+
+		// The traces are drawn again from the store every frame
+		if (traces) {
+			traceStore.add(state);
+			trace.clearRect(0, 0, trace.getCanvas().getWidth(), trace.getCanvas().getHeight());
+			traceStore.draw(planets, trace);
+		}
+
+		int width = (int) Math.ceil(main.getCanvas().getWidth());
+		int height = (int) Math.ceil(main.getCanvas().getHeight());
+		clearDrawnPixels(width, height);
+		Color fill = null;
+
+		if (labels) {
+			labelCache.beginFrame(System.nanoTime(), count);
+		}
+
+		for (int i = 0; i < count; i++) {
+			Planet planet = planets.get(i);
+			double size = planet.getSize();
+
+			if (linesToSun && i != 0) {
+				main.setStroke(planet.getColor());
+				main.setLineWidth(0.3);
+				main.strokeLine(x[i], y[i], x[0], y[0]);
+			}
+
+			// Skip bodies entirely off the canvas
+			double radius = size / 2;
+			if (x[i] + radius < 0 || y[i] + radius < 0 || x[i] - radius > width || y[i] - radius > height) {
+				continue;
+			}
+
+			if (size < POINT_SIZE) {
+				int px = (int) x[i], py = (int) y[i];
+				if (px < width && py < height && markPixel(py * width + px)) {
+					if (fill != planet.getColor()) {
+						fill = planet.getColor();
+						main.setFill(fill);
+					}
+					main.fillRect(px, py, 1, 1);
+				}
+				continue;
+			}
+
+			if (fill != planet.getColor()) {
+				fill = planet.getColor();
+				main.setFill(fill);
+			}
+			main.fillOval(x[i] - radius, y[i] - radius, size, size);
+
+			if (size < LABEL_SIZE) {
+				continue;
+			}
+
+			// Labels change the fill
+			fill = Color.WHITE;
+
+			if (labels) {
+				String display = labelCache.get(planet, state, i);
+
+				main.setFill(Color.WHITE);
+
+				switch (i) {
+				case 0:
+					main.fillText(planet.getName(), x[i] + planet.getSize(), y[i] + planet.getSize());
+					break;
+				case 1:
+					main.fillText(display, 330, 15);
+					main.fillText(planet.getName(), x[i] + planet.getSize(), y[i] + planet.getSize());
+					break;
+				case 2:
+					main.fillText(display, 330, 85);
+					main.fillText(planet.getName(), x[i] + planet.getSize(), y[i] + planet.getSize());
+					break;
+				case 3:
+					main.fillText(display, 515, 15);
+					main.fillText(planet.getName(), x[i] + planet.getSize(), y[i] + planet.getSize());
+					break;
+				case 4:
+					main.fillText(display, 515, 85);
+					main.fillText(planet.getName(), x[i] + planet.getSize(), y[i] + planet.getSize());
+					break;
+				default:
+					main.fillText(display, x[i] + planet.getSize(), y[i] + planet.getSize());
+				}
+
+			} else {
+				main.setFill(Color.WHITE);
+				main.fillText(planet.getName(), x[i] + planet.getSize(), y[i] + planet.getSize());
+			}
+
+		}
+	}
+
+	private void clearDrawnPixels(int width, int height) {
+		int words = (int) (((long) width * height + 63) >>> 6);
+		if (drawnPixels.length < words) {
+			drawnPixels = new long[words];
+		} else {
+			Arrays.fill(drawnPixels, 0, words, 0L);
+		}
+	}
+
+	/**
+	 * @param pixel Index of a pixel, row after row
+	 * @return True if no point was drawn on the pixel yet this frame
+	 */
+	private boolean markPixel(int pixel) {
+		long bit = 1L << pixel;
+		long word = drawnPixels[pixel >>> 6];
+		drawnPixels[pixel >>> 6] = word | bit;
+		return (word & bit) == 0;
+	}
+
+}
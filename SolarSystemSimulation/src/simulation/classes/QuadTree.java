@@ -0,0 +1,253 @@
+package simulation.classes;
+
+import java.util.Arrays;
+
+/**
+ * Quadtree over the bodies' positions, used by the Barnes-Hut solver. Nodes are stored
+ * in flat arrays that are reused between steps, so rebuilding the tree every step does
+ * not allocate once the arrays have grown to fit the system.
+ *
+ * Only the sources are inserted, test particles never pull on anything, but the force on
+ * any body can be found from the tree.
+ */
+public class QuadTree {
+
+	private static final int MAX_DEPTH = 48;		// deeper leaves keep all their bodies in one chain
+	private static final int EMPTY = -1;
+
+	private int nodeCount;
+	private double[] centreX   = new double[64];	// geometric centre of the node's square
+	private double[] centreY   = new double[64];
+	private double[] halfSize  = new double[64];	// half of the square's side length
+	private double[] mass      = new double[64];	// total mass inside the node
+	private double[] comX      = new double[64];	// centre of mass of the node
+	private double[] comY      = new double[64];
+	private double[] offset    = new double[64];	// distance between centre of mass and centre, in AU
+	private int[] firstChild   = new int[64];		// index of the first of 4 children, EMPTY for leaves
+	private int[] firstBody    = new int[64];		// first body of a leaf's chain, EMPTY if none
+	private int[] depth        = new int[64];
+
+	private BodyStore bodies;						// store the tree was last built over
+	private int[] nextBody    = new int[16];		// next body in the same leaf, EMPTY at the end
+
+	// Traversal stack, one per thread so that forces can be computed in parallel
+	private final ThreadLocal<int[]> stacks = ThreadLocal.withInitial(() -> new int[4 * (MAX_DEPTH + 1)]);
+
+	/**
+	 * Rebuild the tree over the current positions of the sources
+	 *
+	 * @param bodies Bodies whose sources are inserted
+	 */
+	public void build(BodyStore bodies){
+
+		this.bodies = bodies;
+		int bodyCount = bodies.count;
+		int[] sources = bodies.sources;
+		int sourceCount = bodies.sourceCount;
+		double[] bodyX = bodies.x, bodyY = bodies.y, bodyMass = bodies.mass;
+
+		if(nextBody.length < bodyCount){
+			nextBody = new int[Math.max(bodyCount, nextBody.length * 2)];
+		}
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+
+		for(int s = 0; s < sourceCount; s++){
+			int i = sources[s];
+			minX = Math.min(minX, bodyX[i]);
+			minY = Math.min(minY, bodyY[i]);
+			maxX = Math.max(maxX, bodyX[i]);
+			maxY = Math.max(maxY, bodyY[i]);
+		}
+
+		nodeCount = 0;
+		if(sourceCount == 0){
+			return;
+		}
+
+		// Root square slightly larger than the bounding box so that no body sits on its edge
+		double half = Math.max(maxX - minX, maxY - minY) / 2 * 1.0001;
+		if(half <= 0){
+			half = 1;
+		}
+		newNode((minX + maxX) / 2, (minY + maxY) / 2, half, 0);
+
+		for(int s = 0; s < sourceCount; s++){
+			insert(sources[s]);
+		}
+
+		// Children are always created after their parent, so walking the nodes backwards
+		// visits every child before the node that contains it
+		for(int node = nodeCount - 1; node >= 0; node--){
+			double m = 0, mx = 0, my = 0;
+
+			if(firstChild[node] == EMPTY){
+				for(int b = firstBody[node]; b != EMPTY; b = nextBody[b]){
+					m  += bodyMass[b];
+					mx += bodyMass[b] * bodyX[b];
+					my += bodyMass[b] * bodyY[b];
+				}
+			}else{
+				for(int c = firstChild[node]; c < firstChild[node] + 4; c++){
+					m  += mass[c];
+					mx += mass[c] * comX[c];
+					my += mass[c] * comY[c];
+				}
+			}
+
+			mass[node] = m;
+			comX[node] = m > 0 ? mx / m : centreX[node];
+			comY[node] = m > 0 ? my / m : centreY[node];
+
+			double ox = comX[node] - centreX[node];
+			double oy = comY[node] - centreY[node];
+			offset[node] = Math.sqrt(ox*ox + oy*oy) / Planet.SCALE;
+		}
+	}
+
+	/**
+	 * Store the force acting on one of the bodies in its force components, and its
+	 * potential energy if the store asks for it (none for test particles). Safe to call from
+	 * several threads at once for different bodies.
+	 *
+	 * @param body Index of the body the force acts on
+	 * @param theta Opening angle, nodes appearing smaller than this are treated as one body.
+	 * 				The distance is measured from the node's centre of mass and padded by the
+	 * 				offset of that centre, which guards against lopsided nodes.
+	 */
+	public void computeForce(int body, double theta){
+
+		double[] bodyX = bodies.x, bodyY = bodies.y, bodyMass = bodies.mass;
+		double x = bodyX[body] / Planet.SCALE;
+		double y = bodyY[body] / Planet.SCALE;
+		boolean source = bodies.isSource(body);
+		double m = source ? bodyMass[body] : BodyStore.inertia(bodyMass[body]);
+		double fx = 0, fy = 0, potential = 0;
+
+		int[] stack = stacks.get();
+		int top = 0;
+		if(nodeCount > 0){
+			stack[top++] = 0;
+		}
+
+		while(top > 0){
+			int node = stack[--top];
+
+			if(mass[node] == 0){
+				continue;
+			}
+
+			if(firstChild[node] == EMPTY){
+				for(int b = firstBody[node]; b != EMPTY; b = nextBody[b]){
+					if(b != body){
+						double dx = bodyX[b] / Planet.SCALE - x;
+						double dy = bodyY[b] / Planet.SCALE - y;
+						double r = Math.sqrt(dx*dx + dy*dy);
+						double f = Planet.SCALED_G * m * bodyMass[b] / (r*r*r);
+						fx += f * dx;
+						fy += f * dy;
+						potential -= f * r * r;
+					}
+				}
+				continue;
+			}
+
+			double dx = comX[node] / Planet.SCALE - x;
+			double dy = comY[node] / Planet.SCALE - y;
+			double r2 = dx*dx + dy*dy;
+			double open = 2 * halfSize[node] / Planet.SCALE / theta + offset[node];
+
+			if(open*open < r2){
+				double r = Math.sqrt(r2);
+				double f = Planet.SCALED_G * m * mass[node] / (r2*r);
+				fx += f * dx;
+				fy += f * dy;
+				potential -= f * r2;
+			}else{
+				int child = firstChild[node];
+				stack[top++] = child;
+				stack[top++] = child + 1;
+				stack[top++] = child + 2;
+				stack[top++] = child + 3;
+			}
+		}
+
+		bodies.fx[body] = fx;
+		bodies.fy[body] = fy;
+		if(bodies.withPotential){
+			bodies.potential[body] = source ? potential : 0.0;
+		}
+	}
+
+	/**
+	 * @return Number of nodes in the current tree
+	 */
+	public int getNodeCount(){
+		return nodeCount;
+	}
+
+	private void insert(int body){
+		int node = 0;
+		nextBody[body] = EMPTY;
+
+		while(true){
+			if(firstChild[node] != EMPTY){
+				node = firstChild[node] + quadrant(node, body);
+			}else if(firstBody[node] == EMPTY){
+				firstBody[node] = body;
+				return;
+			}else if(depth[node] >= MAX_DEPTH){
+				nextBody[body] = firstBody[node];
+				firstBody[node] = body;
+				return;
+			}else{
+				// Occupied leaf above the depth limit holds exactly one body, push it down a level
+				int other = firstBody[node];
+				firstBody[node] = EMPTY;
+				split(node);
+				firstBody[firstChild[node] + quadrant(node, other)] = other;
+			}
+		}
+	}
+
+	private void split(int node){
+		double quarter = halfSize[node] / 2;
+		int level = depth[node] + 1;
+
+		firstChild[node] = nodeCount;
+		newNode(centreX[node] - quarter, centreY[node] - quarter, quarter, level);
+		newNode(centreX[node] + quarter, centreY[node] - quarter, quarter, level);
+		newNode(centreX[node] - quarter, centreY[node] + quarter, quarter, level);
+		newNode(centreX[node] + quarter, centreY[node] + quarter, quarter, level);
+	}
+
+	private int quadrant(int node, int body){
+		return (bodies.x[body] >= centreX[node] ? 1 : 0) + (bodies.y[body] >= centreY[node] ? 2 : 0);
+	}
+
+	private void newNode(double x, double y, double half, int level){
+		if(nodeCount == centreX.length){
+			int capacity = nodeCount * 2;
+			centreX 	= Arrays.copyOf(centreX, capacity);
+			centreY 	= Arrays.copyOf(centreY, capacity);
+			halfSize 	= Arrays.copyOf(halfSize, capacity);
+			mass 		= Arrays.copyOf(mass, capacity);
+			comX 		= Arrays.copyOf(comX, capacity);
+			comY 		= Arrays.copyOf(comY, capacity);
+			offset 		= Arrays.copyOf(offset, capacity);
+			firstChild 	= Arrays.copyOf(firstChild, capacity);
+			firstBody 	= Arrays.copyOf(firstBody, capacity);
+			depth 		= Arrays.copyOf(depth, capacity);
+		}
+
+		centreX[nodeCount] 		= x;
+		centreY[nodeCount] 		= y;
+		halfSize[nodeCount] 	= half;
+		firstChild[nodeCount] 	= EMPTY;
+		firstBody[nodeCount] 	= EMPTY;
+		depth[nodeCount] 		= level;
+		nodeCount++;
+	}
+
+}
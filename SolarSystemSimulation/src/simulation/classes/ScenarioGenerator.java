@@ -0,0 +1,429 @@
+package simulation.classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Procedural systems of any size, for large workloads: asteroid belts, Kuiper belts,
+ * Plummer star clusters and two colliding galaxies. Positions are in screen pixels around
+ * the centre of the default canvas, velocities in AU per year, like in Scenarios.
+ *
+ * Asteroids and Kuiper belt objects are test particles: they keep their masses, but only
+ * the Sun and planets pull on them, so a belt costs O(N) per step instead of O(N^2).
+ *
+ * Every body is drawn from its own random generator, seeded from the seed and its index,
+ * so a body doesn't depend on any other and the bodies can be created in parallel, in any
+ * order, and still come out the same for the same seed. Systems can be created as planets
+ * or streamed straight to a binary system file without ever holding them all.
+ *
+ *   java simulation.classes.ScenarioGenerator <kind> <bodies> <file> [--seed S]
+ */
+public class ScenarioGenerator {
+
+	/**
+	 * The kinds of system that can be generated
+	 */
+	public enum Kind {
+		BELT("belt", "Asteroid belt"),
+		KUIPER("kuiper", "Kuiper belt"),
+		PLUMMER("plummer", "Plummer star cluster"),
+		GALAXIES("galaxies", "Colliding galaxies");
+
+		private final String key;
+		private final String title;
+
+		Kind(String key, String title){
+			this.key = key;
+			this.title = title;
+		}
+
+		/**
+		 * @return Short name used on the command line
+		 */
+		public String getKey(){
+			return key;
+		}
+
+		@Override
+		public String toString(){
+			return title;
+		}
+
+		/**
+		 * @param key Short name of a kind
+		 * @return The kind with that name
+		 */
+		public static Kind named(String key){
+			for(Kind kind : values()){
+				if(kind.key.equals(key)){
+					return kind;
+				}
+			}
+			throw new IllegalArgumentException("Unknown scenario " + key);
+		}
+	}
+
+	private static final String USAGE =
+			"Usage: ScenarioGenerator <kind> <bodies> <file> [--seed S]\n"
+			+ "  kind              belt (asteroid belt), kuiper (Kuiper belt), plummer (star cluster)\n"
+			+ "                    or galaxies (two colliding galaxies)\n"
+			+ "  bodies            number of bodies, including the Sun and planets or galaxy cores\n"
+			+ "  file              binary system file (" + BinarySystemFile.EXTENSION + ") to write\n"
+			+ "  --seed S          seed of the random generator (default 1)";
+
+	// Kirkwood gaps, semi-major axes in AU cleared by resonances with Jupiter
+	private static final double[] KIRKWOOD_GAPS = { 2.50, 2.82, 2.95, 3.27 };
+	private static final double GAP_WIDTH = 0.03;
+
+	private static final double PLUMMER_MASS = Planet.SUN_MASS;	// whole cluster
+	private static final double PLUMMER_RADIUS = 4;				// scale radius in AU
+	private static final int VIRIAL_SAMPLE = 2048;					// bodies the potential energy is estimated from
+
+	private static final double CORE_MASS = Planet.SUN_MASS;		// per galaxy
+	private static final double DISK_MASS = 0.25 * Planet.SUN_MASS;
+	private static final double DISK_SCALE = 2;					// exponential scale length in AU
+	private static final double GALAXY_X = 12, GALAXY_Y = 3;		// AU from the centre at the start
+
+	private final Kind kind;
+	private final int count;
+	private final long seed;
+	private final double velocityScale;							// brings a Plummer cluster into equilibrium
+
+	/**
+	 * @param kind Kind of system
+	 * @param count Number of bodies, including the Sun and planets or the galaxy cores
+	 * @param seed Seed of the random generators
+	 */
+	public ScenarioGenerator(Kind kind, int count, long seed){
+		if(count < 0){
+			throw new IllegalArgumentException("Number of bodies can't be negative: " + count);
+		}
+		this.kind = kind;
+		this.count = count;
+		this.seed = seed;
+		this.velocityScale = kind == Kind.PLUMMER ? virialScale() : 1;
+	}
+
+	/**
+	 * @return New list of all bodies, created in parallel
+	 */
+	public ArrayList<Planet> generate(){
+		List<Planet> fixed = fixedBodies();
+		Planet[] bodies = new Planet[count];
+		IntStream.range(0, count).parallel().forEach(i -> bodies[i] = i < fixed.size() ? fixed.get(i) : body(i));
+		return new ArrayList<Planet>(Arrays.asList(bodies));
+	}
+
+	/**
+	 * Write the system to a binary system file, creating the bodies as they're written
+	 *
+	 * @param file File to write, replaced if it exists
+	 * @throws IOException If the file can't be written
+	 */
+	public void save(File file) throws IOException{
+		List<Planet> fixed = fixedBodies();
+		PerfEvents.IoEvent event = PerfEvents.beginIo("generate system", file);
+		BinarySystemFile.save(file, count, i -> i < fixed.size() ? fixed.get(i) : body(i));
+		PerfEvents.commitIo(event, file.length());
+	}
+
+	/**
+	 * @return The bodies every system of this kind starts with, cut down to the number of bodies
+	 */
+	private List<Planet> fixedBodies(){
+		ArrayList<Planet> fixed = new ArrayList<Planet>();
+
+		switch(kind){
+		case BELT:
+		case KUIPER:
+			fixed = Scenarios.solarSystem();
+			break;
+		case GALAXIES:
+			double speed = approachSpeed();
+			fixed.add(new Planet("Galaxy A", Scenarios.CENTRE_X - Planet.SCALE * GALAXY_X,
+					Scenarios.CENTRE_Y - Planet.SCALE * GALAXY_Y, speed, 0.0, 0.0, 0.0, CORE_MASS, Color.WHITE, 4));
+			fixed.add(new Planet("Galaxy B", Scenarios.CENTRE_X + Planet.SCALE * GALAXY_X,
+					Scenarios.CENTRE_Y + Planet.SCALE * GALAXY_Y, -speed, 0.0, 0.0, 0.0, CORE_MASS, Color.WHITE, 4));
+			break;
+		default:
+			break;
+		}
+
+		return fixed.subList(0, Math.min(fixed.size(), count));
+	}
+
+	/**
+	 * @param i Index of a body after the fixed ones
+	 * @return The body at that index
+	 */
+	Planet body(int i){
+		SplittableRandom random = new SplittableRandom(mix(seed, i));
+
+		switch(kind){
+		case BELT:
+			return asteroid(i, random);
+		case KUIPER:
+			return kuiperObject(i, random);
+		case PLUMMER:
+			return clusterStar(i, random);
+		default:
+			return galaxyStar(i, random);
+		}
+	}
+
+	/**
+	 * Main belt asteroid between 2.1 and 3.3 AU, outside the Kirkwood gaps
+	 */
+	private Planet asteroid(int i, SplittableRandom random){
+		double a;
+		do{
+			a = random.nextDouble(2.1, 3.3);
+		}while(inGap(a));
+
+		return orbit("Asteroid " + i, a, random.nextDouble(0, 0.25), random,
+				logUniform(random, 1e-13, 1e-10), Color.DARKGRAY);
+	}
+
+	/**
+	 * Kuiper belt object: a quarter are plutinos in 3:2 resonance with Neptune at 39.4 AU,
+	 * the rest classical ones on low-eccentricity orbits between 42 and 48 AU
+	 */
+	private Planet kuiperObject(int i, SplittableRandom random){
+		double a, e;
+		if(random.nextDouble() < 0.25){
+			a = random.nextDouble(39.2, 39.6);
+			e = random.nextDouble(0.1, 0.3);
+		}else{
+			a = random.nextDouble(42, 48);
+			e = random.nextDouble(0, 0.1);
+		}
+
+		return orbit("Kuiper object " + i, a, e, random, logUniform(random, 1e-12, 1e-9), Color.LIGHTSTEELBLUE);
+	}
+
+	/**
+	 * Test particle on a Kepler orbit around the Sun, at a random point in time of the orbit
+	 *
+	 * @param a Semi-major axis in AU
+	 * @param e Eccentricity
+	 */
+	private static Planet orbit(String name, double a, double e, SplittableRandom random, double mass, Color color){
+		double periapsis = random.nextDouble(0, 2 * Math.PI);
+		double meanAnomaly = random.nextDouble(0, 2 * Math.PI);
+
+		// Kepler's equation M = E - e sin E, by Newton's method
+		double eccentric = meanAnomaly;
+		for(int n = 0; n < 20; n++){
+			double delta = (eccentric - e * Math.sin(eccentric) - meanAnomaly) / (1 - e * Math.cos(eccentric));
+			eccentric -= delta;
+			if(Math.abs(delta) < 1e-12){
+				break;
+			}
+		}
+
+		double cosE = Math.cos(eccentric), sinE = Math.sin(eccentric);
+		double r = a * (1 - e * cosE);
+		double cosF = (cosE - e) / (1 - e * cosE);
+		double sinF = Math.sqrt(1 - e * e) * sinE / (1 - e * cosE);
+		double speed = Math.sqrt(Planet.SCALED_G * Planet.SUN_MASS / (a * (1 - e * e)));
+
+		// Position and velocity with the periapsis along x, then turned to the periapsis
+		double x = r * cosF, y = r * sinF;
+		double vx = -speed * sinF, vy = speed * (e + cosF);
+		double cos = Math.cos(periapsis), sin = Math.sin(periapsis);
+
+		Planet planet = new Planet(name, Scenarios.CENTRE_X + Planet.SCALE * (x * cos - y * sin),
+				Scenarios.CENTRE_Y + Planet.SCALE * (x * sin + y * cos),
+				vx * cos - vy * sin, vx * sin + vy * cos, 0.0, 0.0, mass, color, 1);
+		planet.setTestParticle(true);
+		return planet;
+	}
+
+	/**
+	 * Star of a Plummer sphere, drawn in three dimensions (Aarseth, Henon and Wielen 1974)
+	 * and seen from above. The projected cluster isn't in equilibrium in the plane as it
+	 * is, so the velocities are scaled to make it virialised.
+	 */
+	private Planet clusterStar(int i, SplittableRandom random){
+		double[] state = plummer(random);
+		return new Planet("Star " + i, Scenarios.CENTRE_X + Planet.SCALE * state[0],
+				Scenarios.CENTRE_Y + Planet.SCALE * state[1], velocityScale * state[2], velocityScale * state[3],
+				0.0, 0.0, PLUMMER_MASS / count, Color.LIGHTYELLOW, 1);
+	}
+
+	/**
+	 * @return Projected position (AU) and velocity (AU per year) of a star, before scaling
+	 */
+	private static double[] plummer(SplittableRandom random){
+		double r;
+		do{
+			r = PLUMMER_RADIUS / Math.sqrt(Math.pow(1 - random.nextDouble(), -2.0 / 3.0) - 1);
+		}while(r > 10 * PLUMMER_RADIUS);
+
+		// Speed as a fraction q of the escape speed, from g(q) = q^2 (1 - q^2)^3.5 by rejection
+		double q;
+		do{
+			q = random.nextDouble();
+		}while(random.nextDouble() * 0.1 > q * q * Math.pow(1 - q * q, 3.5));
+		double speed = q * Math.sqrt(2 * Planet.SCALED_G * PLUMMER_MASS) / Math.pow(r * r + PLUMMER_RADIUS * PLUMMER_RADIUS, 0.25);
+
+		double[] state = new double[4];
+		projectedDirection(random, r, state, 0);
+		projectedDirection(random, speed, state, 2);
+		return state;
+	}
+
+	/**
+	 * Random direction in three dimensions, of which only x and y are kept
+	 */
+	private static void projectedDirection(SplittableRandom random, double length, double[] out, int offset){
+		double z = random.nextDouble(-1, 1);
+		double angle = random.nextDouble(0, 2 * Math.PI);
+		double planar = length * Math.sqrt(1 - z * z);
+		out[offset] = planar * Math.cos(angle);
+		out[offset + 1] = planar * Math.sin(angle);
+	}
+
+	/**
+	 * Factor bringing the velocities of a Plummer cluster to 2 K = -W in the plane. Both
+	 * energies are estimated from an evenly spread sample of the stars, as the potential
+	 * energy of all of them would take O(N^2).
+	 */
+	private double virialScale(){
+		int sample = Math.min(count, VIRIAL_SAMPLE);
+		if(sample < 2){
+			return 1;
+		}
+
+		double[][] states = new double[sample][];
+		for(int s = 0; s < sample; s++){
+			long i = (long) s * count / sample;
+			states[s] = plummer(new SplittableRandom(mix(seed, (int) i)));
+		}
+
+		double m = PLUMMER_MASS / count;
+		double kinetic = 0, potential = 0;
+		for(int s = 0; s < sample; s++){
+			double[] a = states[s];
+			kinetic += 0.5 * m * (a[2] * a[2] + a[3] * a[3]);
+			for(int t = s + 1; t < sample; t++){
+				double[] b = states[t];
+				double dx = a[0] - b[0], dy = a[1] - b[1];
+				double r = Math.sqrt(dx * dx + dy * dy);
+				if(r > 0){
+					potential -= Planet.SCALED_G * m * m / r;
+				}
+			}
+		}
+
+		// Scale the sums up to all stars: the kinetic energy with the stars, the potential with the pairs
+		kinetic *= (double) count / sample;
+		potential *= (double) count * (count - 1) / ((double) sample * (sample - 1));
+		return kinetic > 0 ? Math.sqrt(-potential / (2 * kinetic)) : 1;
+	}
+
+	/**
+	 * Star of an exponential disk on a circular orbit around its galaxy's core. The first
+	 * half of the stars belong to galaxy A, turning the way the planets do, the rest to
+	 * galaxy B, turning the other way, so one galaxy meets the other prograde and the other
+	 * retrograde.
+	 */
+	private Planet galaxyStar(int i, SplittableRandom random){
+		int stars = count - 2;
+		int starsOfA = (stars + 1) / 2;
+		boolean inA = i - 2 < starsOfA;
+		double mass = DISK_MASS / (inA ? starsOfA : stars - starsOfA);
+
+		// Radius of a surface density falling off as exp(-r / scale): r exp(-r / scale) is a Gamma(2) distribution
+		double r;
+		do{
+			r = -DISK_SCALE * Math.log((1 - random.nextDouble()) * (1 - random.nextDouble()));
+		}while(r > 5 * DISK_SCALE || r < 0.05);
+
+		double x = r / DISK_SCALE;
+		double enclosed = CORE_MASS + DISK_MASS * (1 - (1 + x) * Math.exp(-x));
+		double speed = Math.sqrt(Planet.SCALED_G * enclosed / r) * (inA ? 1 : -1);
+		double angle = random.nextDouble(0, 2 * Math.PI);
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+
+		double sign = inA ? -1 : 1;
+		return new Planet("Star " + i,
+				Scenarios.CENTRE_X + Planet.SCALE * (sign * GALAXY_X + r * cos),
+				Scenarios.CENTRE_Y + Planet.SCALE * (sign * GALAXY_Y + r * sin),
+				-sign * approachSpeed() - speed * sin, speed * cos, 0.0, 0.0, mass,
+				inA ? Color.LIGHTSKYBLUE : Color.LIGHTSALMON, 1);
+	}
+
+	/**
+	 * @return Speed of each galaxy towards the other, together that of a parabolic encounter
+	 */
+	private static double approachSpeed(){
+		double distance = 2 * Math.hypot(GALAXY_X, GALAXY_Y);
+		return 0.5 * Math.sqrt(2 * Planet.SCALED_G * 2 * (CORE_MASS + DISK_MASS) / distance);
+	}
+
+	private static boolean inGap(double a){
+		for(double gap : KIRKWOOD_GAPS){
+			if(Math.abs(a - gap) < GAP_WIDTH){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static double logUniform(SplittableRandom random, double min, double max){
+		return min * Math.pow(max / min, random.nextDouble());
+	}
+
+	/**
+	 * @return Well mixed seed of a body's generator, so neighbouring bodies get unrelated ones
+	 */
+	private static long mix(long seed, int i){
+		long z = seed + (i + 1L) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	public static void main(String[] args) {
+
+		try{
+			if(args.length < 3){
+				throw new IllegalArgumentException("Kind, number of bodies and file are required");
+			}
+
+			Kind kind = Kind.named(args[0]);
+			int count = Integer.parseInt(args[1]);
+			File file = new File(args[2]);
+			long seed = 1;
+			for(int i = 3; i < args.length; i += 2){
+				if(!args[i].equals("--seed") || i + 1 >= args.length){
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+				seed = Long.parseLong(args[i + 1]);
+			}
+
+			long start = System.nanoTime();
+			new ScenarioGenerator(kind, count, seed).save(file);
+			System.out.println(String.format(Locale.ROOT, "Wrote %,d bodies (%s, seed %d) to %s in %.2f s",
+					count, kind, seed, file, (System.nanoTime() - start) / 1e9));
+
+		}catch(IllegalArgumentException ex){
+			System.err.println(ex.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}catch(IOException ex){
+			System.err.println("Error encountered!: " + ex.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Ready-made systems. Positions are in screen pixels around the centre of the default
+ * canvas (500, 365), velocities in AU per year, like everywhere else.
+ */
+public class Scenarios {
+
+	public static final double CENTRE_X = 500.0;
+	public static final double CENTRE_Y = 365.0;
+
+	private Scenarios(){}
+
+	/**
+	 * @return The Sun and the eight planets of the default system
+	 */
+	public static ArrayList<Planet> solarSystem(){
+
+		ArrayList<Planet> planets = new ArrayList<Planet>();
+
+		planets.add(new Planet("Sun", 500.0, 365.0, 0.0, 0.0, 0.0, 0.0, Planet.SUN_MASS, Color.YELLOW, 6));
+
+		planets.add(new Planet("Mercury", 505.85, 365.0, 0.0, 9.9921636, 0.0, 0.0, Planet.MERCURY_MASS,
+				Color.RED, 3));
+
+		planets.add(new Planet("Venus", 510.86, 365.0, 0.0, 7.3781799, 0.0, 0.0, Planet.VENUS_MASS,
+				Color.SADDLEBROWN, 3));
+
+		planets.add(new Planet("Earth", 515, 365.0, 0.0, 6.283, 0.0, 0.0, Planet.EARTH_MASS, Color.BLUE,
+				3));
+
+		planets.add(new Planet("Mars", 522.86, 365.0, 0.0, 5.0804039, 0.0, 0.0, Planet.MARS_MASS,
+				Color.FIREBRICK, 3));
+
+		planets.add(new Planet("Jupiter", 578.045, 365.0, 0.0, 2.7615473, 0.0, 0.0, Planet.MARS_MASS,
+				Color.ROSYBROWN, 4));
+
+		planets.add(new Planet("Saturn", 642.95, 365.0, 0.0, 2.023729, 0.0, 0.0, Planet.MARS_MASS,
+				Color.GOLD, 4));
+
+		planets.add(new Planet("Uranus", 787.7, 365.0, 0.0, 1.433475, 0.0, 0.0, Planet.MARS_MASS,
+				Color.AQUAMARINE, 4));
+
+		planets.add(new Planet("Neptune", 950.9, 365.0, 0.0, 1.138348, 0.0, 0.0, Planet.MARS_MASS,
+				Color.DODGERBLUE, 4));
+
+		return planets;
+	}
+
+	/**
+	 * A system shaped like the default one: the Sun and the planets, topped up with small
+	 * bodies on circular orbits between 0.3 and 35 AU. With 9 or fewer bodies this is the
+	 * default system cut down to that size.
+	 *
+	 * @param count Number of bodies
+	 * @param seed Seed of the random generator
+	 * @return New list of planets
+	 */
+	public static ArrayList<Planet> solarSystemLike(int count, long seed){
+
+		ArrayList<Planet> planets = solarSystem();
+		while(planets.size() > count){
+			planets.remove(planets.size() - 1);
+		}
+
+		Random random = new Random(seed);
+		for(int i = planets.size(); i < count; i++){
+			double r = 0.3 + (35 - 0.3) * random.nextDouble();
+			double angle = 2 * Math.PI * random.nextDouble();
+			double speed = Math.sqrt(Planet.SCALED_G * Planet.SUN_MASS / r);
+
+			planets.add(new Planet("Body " + i,
+					CENTRE_X + Planet.SCALE * r * Math.cos(angle), CENTRE_Y + Planet.SCALE * r * Math.sin(angle),
+					-speed * Math.sin(angle), speed * Math.cos(angle), 0.0, 0.0,
+					Planet.EARTH_MASS * 1e-3 * (0.5 + random.nextDouble()), Color.LIGHTGRAY, 1));
+		}
+
+		return planets;
+	}
+
+	/**
+	 * @param count Number of bodies
+	 * @param seed Seed of the random generator
+	 * @return Bodies at rest, spread uniformly over a disk of radius 20 AU
+	 */
+	public static ArrayList<Planet> randomDisk(int count, long seed){
+
+		Random random = new Random(seed);
+		ArrayList<Planet> planets = new ArrayList<Planet>();
+
+		for(int i = 0; i < count; i++){
+			double r = 300 * Math.sqrt(random.nextDouble());
+			double angle = 2 * Math.PI * random.nextDouble();
+			planets.add(new Planet("Body " + i, CENTRE_X + r * Math.cos(angle), CENTRE_Y + r * Math.sin(angle),
+					0.0, 0.0, 0.0, 0.0, Planet.EARTH_MASS * (0.5 + random.nextDouble()), Color.WHITE, 1));
+		}
+
+		return planets;
+	}
+
+}
@@ -0,0 +1,588 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class of every simulation engine. Subclasses only decide how the forces
+ * acting on the bodies are found, stepping them through time is left to an Integrator,
+ * semi-implicit Euler unless another one is set.
+ *
+ * The planets are bound to the engine's BodyStore before each step, so all kernels
+ * run over the packed arrays and the planets see the results through their getters.
+ *
+ * With more than one thread the bodies are split into ranges that are processed on a
+ * fork/join pool, first for the forces and then for the integration, without allocating
+ * anything per step. Every body's force
+ * is still summed in the same order, so the results are identical to the serial mode.
+ *
+ * An EnergyMonitor can watch the conserved quantities, and a TimestepController can then
+ * tune the timestep to the longest one the energy budget allows.
+ */
+public abstract class Simulation {
+
+	// Tuned by the controller on the thread stepping the simulation, read by the UI
+	public static volatile double timestep = Planet.ONE_DAY;	// time difference between each simulation update
+
+	private static final int MIN_RANGE = 64;			// smallest number of bodies handed to one task
+
+	protected final BodyStore bodies = new BodyStore();
+
+	private int threads = 1;
+	private ForkJoinPool pool;
+	private final RangeJob[] jobs = new RangeJob[4];		// one for each action run recently
+	private int nextJob = 0;
+
+	private Integrator integrator = new EulerIntegrator();
+	private int forceSettings = 0;						// changes with every setting the forces depend on
+
+	private final RangeAction forceAction = (from, to) -> computeForces(bodies, from, to);
+
+	// Time spent so far, in nanoseconds, for the performance overlay. Written by the thread
+	// stepping the simulation only.
+	private volatile long forceTime = 0;
+	private volatile long integrateTime = 0;
+
+	private double time = 0;							// simulated years stepped so far
+
+	private EnergyMonitor monitor;
+	private TimestepController controller;
+
+	// Positions and masses of the last force evaluation of all bodies and its potential
+	// energy, or, if a measurement is pending, the state whose potential energy it waits for
+	private double[] measuredX = new double[0];
+	private double[] measuredY = new double[0];
+	private double[] measuredMass = new double[0];
+	private int measuredCount = -1;
+	private double potentialEnergy;
+	private boolean pending = false;
+	private double pendingTime;
+
+	/**
+	 * @return Number that changes whenever a setting of the solver that the forces depend
+	 * 			on changes, so forces kept from before can be recognised as stale
+	 */
+	int getForceSettings(){
+		return forceSettings;
+	}
+
+	/**
+	 * Tell the integrators that forces computed so far no longer hold, to be called by
+	 * every setter of a solver setting the forces depend on
+	 */
+	protected void forceSettingsChanged(){
+		forceSettings++;
+	}
+
+	/**
+	 * Advance the system by one timestep
+	 *
+	 * @param planets Planets taking part in the simulation
+	 */
+	public void checkForces(ArrayList<Planet> planets){
+
+		PerfEvents.StepEvent event = PerfEvents.beginStep();
+
+		EnergyMonitor monitor = this.monitor;
+		if(monitor != null && !bodies.isBoundTo(planets)){
+			resetMeasurements();
+		}
+		bodies.bind(planets);
+		bodies.withPotential = monitor != null;
+
+		integrator.step(this, bodies, timestep);
+		time += timestep;
+
+		if(monitor != null){
+			measure(monitor);
+			if(controller != null){
+				timestep = controller.adjust(monitor, timestep);
+			}
+		}
+
+		if(event != null){
+			event.bodies = bodies.count;
+			event.integrator = integrator.getClass().getSimpleName();
+			event.commit();
+		}
+	}
+
+	/**
+	 * @return Store holding the state of the bodies being simulated
+	 */
+	public BodyStore getBodies(){
+		return bodies;
+	}
+
+	/**
+	 * @return Integrator advancing the bodies
+	 */
+	public Integrator getIntegrator(){
+		return integrator;
+	}
+
+	/**
+	 * @param integrator Integrator advancing the bodies from the next step on
+	 */
+	public void setIntegrator(Integrator integrator){
+		if(integrator == null){
+			throw new IllegalArgumentException("No integrator given");
+		}
+		this.integrator = integrator;
+	}
+
+	/**
+	 * @return Number of threads used for a step
+	 */
+	public int getThreads(){
+		return threads;
+	}
+
+	/**
+	 * @param threads Number of threads used for a step, 1 runs everything on the caller's thread
+	 */
+	public void setThreads(int threads){
+		if(threads < 1){
+			throw new IllegalArgumentException("Number of threads must be at least 1: " + threads);
+		}
+		if(threads != this.threads){
+			shutdown();
+			this.threads = threads;
+		}
+	}
+
+	/**
+	 * @return Simulated years stepped so far
+	 */
+	public double getTime(){
+		return time;
+	}
+
+	/**
+	 * @return Monitor measuring the conserved quantities, null if none
+	 */
+	public EnergyMonitor getEnergyMonitor(){
+		return monitor;
+	}
+
+	/**
+	 * Measure the energy and momenta after every step. The potential energy is added up
+	 * by the solver during the step's force evaluations: the state at the end of a step is
+	 * measured when the last evaluation was made at its positions (e.g. leapfrog), or else
+	 * when the next step evaluates the forces there first (e.g. Euler).
+	 *
+	 * @param monitor Monitor to measure with, null to stop measuring
+	 */
+	public void setEnergyMonitor(EnergyMonitor monitor){
+		this.monitor = monitor;
+		resetMeasurements();
+	}
+
+	/**
+	 * Measure the energy and momenta against the bodies' current state from now on, e.g.
+	 * after they were edited. Done by itself when other planets are simulated.
+	 */
+	public void resetMeasurements(){
+		pending 		= false;
+		measuredCount 	= -1;
+		if(monitor != null){
+			monitor.reset();
+		}
+		if(controller != null){
+			controller.reset();
+		}
+	}
+
+	/**
+	 * @return Controller tuning the timestep, null if none
+	 */
+	public TimestepController getTimestepController(){
+		return controller;
+	}
+
+	/**
+	 * @param controller Controller setting the timestep from the energy monitor's measurements,
+	 * 			null to leave the timestep alone. Only used while there is a monitor.
+	 */
+	public void setTimestepController(TimestepController controller){
+		this.controller = controller;
+		if(controller != null){
+			controller.reset();
+		}
+	}
+
+	/**
+	 * @return Nanoseconds spent computing the forces of all bodies so far
+	 */
+	public long getForceTime(){
+		return forceTime;
+	}
+
+	/**
+	 * @return Nanoseconds spent in the integrators' ranges so far (see forEachRange)
+	 */
+	public long getIntegrateTime(){
+		return integrateTime;
+	}
+
+	/**
+	 * Stop the worker threads, they are started again if another parallel step is made
+	 */
+	public void shutdown(){
+		if(pool != null){
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Replace the forces of the planets with the ones acting on them at their current positions
+	 *
+	 * @param planets Planets taking part in the simulation
+	 */
+	void computeForces(ArrayList<Planet> planets){
+		bodies.bind(planets);
+		computeForces(bodies);
+	}
+
+	/**
+	 * Replace the forces of every body with the ones acting on it at its current position
+	 *
+	 * @param bodies Bodies taking part in the simulation
+	 */
+	protected final void computeForces(BodyStore bodies){
+		PerfEvents.ForceEvent event = PerfEvents.beginForce();
+		long start = System.nanoTime();
+
+		computeAllForces(bodies);
+		if(bodies.withPotential && monitor != null){
+			potentialFound(bodies);
+		}
+
+		forceTime += System.nanoTime() - start;
+		if(event != null){
+			event.bodies = bodies.count;
+			event.solver = getClass().getSimpleName();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Keep the potential energy of a force evaluation of all bodies, completing the
+	 * pending measurement if it was made at its positions
+	 */
+	private void potentialFound(BodyStore bodies){
+		double sum = 0;
+		for(int i = 0; i < bodies.count; i++){
+			sum += bodies.potential[i];
+		}
+		sum *= 0.5;		// every pair was counted for both bodies
+
+		if(pending){
+			if(isMeasuredState(bodies)){
+				monitor.record(pendingTime, sum);
+				pending = false;
+			}
+			return;
+		}
+
+		keepMeasuredState(bodies);
+		potentialEnergy = sum;
+	}
+
+	/**
+	 * Measure the state at the end of a step, now if the last force evaluation was made at
+	 * its positions, otherwise once its potential energy is known
+	 */
+	private void measure(EnergyMonitor monitor){
+		monitor.measureMotion(bodies);
+
+		if(!pending && isMeasuredState(bodies)){
+			monitor.record(time, potentialEnergy);
+			measuredCount = -1;
+		}else{
+			keepMeasuredState(bodies);
+			pending 	= true;
+			pendingTime = time;
+		}
+	}
+
+	private void keepMeasuredState(BodyStore bodies){
+		int n = bodies.count;
+		if(measuredX.length < n){
+			measuredX = new double[n];
+			measuredY = new double[n];
+			measuredMass = new double[n];
+		}
+		System.arraycopy(bodies.x, 0, measuredX, 0, n);
+		System.arraycopy(bodies.y, 0, measuredY, 0, n);
+		System.arraycopy(bodies.mass, 0, measuredMass, 0, n);
+		measuredCount = n;
+	}
+
+	private boolean isMeasuredState(BodyStore bodies){
+		if(bodies.count != measuredCount){
+			return false;
+		}
+		for(int i = 0; i < measuredCount; i++){
+			if(bodies.x[i] != measuredX[i] || bodies.y[i] != measuredY[i] || bodies.mass[i] != measuredMass[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Replace the forces of every body, by default range after range with
+	 * computeForces(bodies, from, to)
+	 *
+	 * @param bodies Bodies taking part in the simulation
+	 */
+	protected void computeAllForces(BodyStore bodies){
+		prepareForces(bodies);
+		runRanges(bodies.count, forceAction);
+	}
+
+	/**
+	 * Called once before the forces of a step are computed, for work shared by all bodies
+	 *
+	 * @param bodies Bodies taking part in the simulation
+	 */
+	protected void prepareForces(BodyStore bodies){}
+
+	/**
+	 * Replace the forces of a range of bodies. May be called from several threads at once
+	 * for disjoint ranges, so it must only write to the forces of its own range.
+	 *
+	 * @param bodies Bodies taking part in the simulation
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 */
+	protected abstract void computeForces(BodyStore bodies, int from, int to);
+
+	/**
+	 * Semi-implicit Euler step for a range of bodies, keeping their previous positions
+	 *
+	 * @param bodies Bodies taking part in the simulation
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 * @param timestep Time difference of the step
+	 */
+	protected static void integrate(BodyStore bodies, int from, int to, double timestep){
+
+		double[] x = bodies.x, y = bodies.y;
+		double[] vx = bodies.vx, vy = bodies.vy;
+		double[] fx = bodies.fx, fy = bodies.fy;
+		double[] mass = bodies.mass;
+
+		System.arraycopy(x, from, bodies.prevX, from, to - from);
+		System.arraycopy(y, from, bodies.prevY, from, to - from);
+
+		for(int i = from; i < to; i++){
+			double inertia = BodyStore.inertia(mass[i]);
+			vx[i] += timestep * (fx[i] / inertia);
+			vy[i] += timestep * (fy[i] / inertia);
+
+			x[i] += 15*timestep * vx[i];
+			y[i] += 15*timestep * vy[i];
+		}
+	}
+
+	/**
+	 * Run an integrator's action over the index range [0, count), split across the worker
+	 * threads. Timed as integration.
+	 *
+	 * @param count Number of bodies
+	 * @param action Action to run for each part of the range
+	 */
+	protected void forEachRange(int count, RangeAction action){
+
+		PerfEvents.IntegrateEvent event = PerfEvents.beginIntegrate();
+		long start = System.nanoTime();
+
+		runRanges(count, action);
+
+		integrateTime += System.nanoTime() - start;
+		if(event != null){
+			event.bodies = count;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Run an action over the index range [0, count), split across the worker threads
+	 *
+	 * @param count Number of bodies
+	 * @param action Action to run for each part of the range
+	 */
+	private void runRanges(int count, RangeAction action){
+
+		if(threads == 1 || count < 2 * MIN_RANGE){
+			action.run(0, count);
+			return;
+		}
+
+		if(pool == null){
+			pool = new ForkJoinPool(threads);
+		}
+
+		// A few ranges per thread so that threads finishing early can take more
+		int grain = Math.max(MIN_RANGE, count / (threads * 4));
+		RangeJob job = findJob(action);
+		job.split(count, grain);
+		job.run(pool, threads - 1);
+	}
+
+	/**
+	 * @return The job running an action, reused from step to step so that stepping doesn't
+	 * 			allocate tasks
+	 */
+	private RangeJob findJob(RangeAction action){
+		for(RangeJob job : jobs){
+			if(job != null && job.action == action){
+				return job;
+			}
+		}
+		RangeJob job = new RangeJob(action);
+		jobs[nextJob] = job;
+		nextJob = (nextJob + 1) % jobs.length;
+		return job;
+	}
+
+	/**
+	 * Work done on a range of body indices
+	 */
+	protected interface RangeAction {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Runs an action over all bodies split into ranges. The calling thread and helpers on the
+	 * pool take ranges one after the other until none are left, then the calling thread
+	 * waits for the helpers to finish, even if a range failed. Everything is reused from run to run, so stepping
+	 * doesn't allocate.
+	 */
+	private static class RangeJob {
+
+		private final RangeAction action;
+		private int count;
+		private int parts;
+
+		private final AtomicInteger next = new AtomicInteger();		// next range to take
+		private final AtomicInteger active = new AtomicInteger();	// helpers still working
+		private Helper[] helpers = new Helper[0];
+		private volatile Thread waiter;
+		private volatile Throwable error;
+
+		RangeJob(RangeAction action){
+			this.action = action;
+		}
+
+		/**
+		 * @param count Number of bodies
+		 * @param grain Smallest number of bodies in one range
+		 */
+		void split(int count, int grain){
+			this.count = count;
+			parts = Math.max(1, count / grain);
+		}
+
+		/**
+		 * @param pool Pool running the helpers
+		 * @param helpers Number of helpers working alongside the calling thread
+		 */
+		void run(ForkJoinPool pool, int helpers){
+			if(this.helpers.length != helpers){
+				this.helpers = new Helper[helpers];
+				for(int i = 0; i < helpers; i++){
+					this.helpers[i] = new Helper(this);
+				}
+			}
+
+			waiter = Thread.currentThread();
+			error = null;
+			next.set(0);
+			active.set(helpers);
+
+			for(Helper helper : this.helpers){
+				helper.submit(pool);
+			}
+			try{
+				work();
+			}catch(RuntimeException | Error ex){
+				// Stop handing out ranges, but let the helpers finish before rethrowing
+				error = ex;
+				next.set(parts);
+			}
+
+			while(active.get() > 0){
+				LockSupport.park(this);
+			}
+
+			Throwable failure = error;
+			if(failure instanceof RuntimeException){
+				throw (RuntimeException) failure;
+			}else if(failure instanceof Error){
+				throw (Error) failure;
+			}
+		}
+
+		private void work(){
+			int range;
+			while((range = next.getAndIncrement()) < parts){
+				action.run((int) ((long) range * count / parts), (int) ((long) (range + 1) * count / parts));
+			}
+		}
+
+		private void finished(Throwable failure){
+			if(failure != null){
+				error = failure;
+				next.set(parts);
+			}
+			if(active.decrementAndGet() == 0){
+				LockSupport.unpark(waiter);
+			}
+		}
+
+	}
+
+	private static class Helper extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RangeJob job;
+		private boolean submitted = false;
+
+		Helper(RangeJob job){
+			this.job = job;
+		}
+
+		void submit(ForkJoinPool pool){
+			if(submitted){
+				// The previous run told the job it finished just before completing
+				while(!isDone()){
+					Thread.yield();
+				}
+				reinitialize();
+			}
+			submitted = true;
+			pool.execute(this);
+		}
+
+		@Override
+		protected void compute(){
+			Throwable failure = null;
+			try{
+				job.work();
+			}catch(RuntimeException | Error ex){
+				failure = ex;
+			}
+			job.finished(failure);
+		}
+
+	}
+
+}
@@ -1,35 +1,136 @@
 package simulation.classes;
 
-import java.util.ArrayList;
+/**
+ * Brute force simulation, every body feels every other body. A serial step visits each
+ * pair once with PairKernel.symmetric; in parallel mode every range of bodies sums its
+ * own forces with PairKernel.gather, which gives the same forces bit for bit.
+ *
+ * Vectorised, the same two kernels come from VectorKernel instead; their forces agree with
+ * the scalar ones, and with each other, to rounding rather than bit for bit. That needs
+ * the incubating Vector API (java --add-modules jdk.incubator.vector); without it, and
+ * for systems with test particles, the scalar kernels are used as before.
+ *
+ * In mixed precision every range, serial steps included, goes through FloatKernel (or its
+ * vectorised form), which works out each pair in float from offsets to a reference body
+ * and sums the forces in double. That trades about 1e-7 of relative force error, more for
+ * close pairs far from the reference, for half the memory traffic and twice the lanes.
+ * Without the Vector API a pair costs about as much as in double, so it only pays off
+ * vectorised.
+ */
+public class SimulationBF extends Simulation {
+
+	private static final boolean VECTOR_AVAILABLE =
+			ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	private double softening;		// Plummer softening length in AU
+	private boolean vectorized = false;
+	private boolean mixedPrecision = false;
+	private final FloatKernel floats = new FloatKernel();
 
-public class SimulationBF {
-	
-	public static double timestep = Planet.ONE_DAY;
-	
 	public SimulationBF(){}
-	
-	public void checkForces(ArrayList<Planet> planets){
-		
-		for(Planet planet: planets){
-			planet.resetForces();
-			
-			for(Planet anotherPlanet: planets){
-				if(planet != anotherPlanet){
-					planet.addNewForces(anotherPlanet);
-				}
-			}
-			
-			planet.setPrevPosX(planet.getPosX());
-			planet.setPrevPosY(planet.getPosY());
-			
+
+	/**
+	 * @param softening Plummer softening length in AU, 0 for Newtonian gravity
+	 */
+	public SimulationBF(double softening){
+		setSoftening(softening);
+	}
+
+	/**
+	 * @return Plummer softening length in AU
+	 */
+	public double getSoftening() {
+		return softening;
+	}
+
+	/**
+	 * @param softening New Plummer softening length in AU, must not be negative
+	 */
+	public void setSoftening(double softening) {
+		if(softening < 0 || Double.isNaN(softening)){
+			throw new IllegalArgumentException("Softening length must not be negative: " + softening);
 		}
-		
-		for(Planet planet : planets){
-			planet.updateVelAndPos(timestep);
+		this.softening = softening;
+		forceSettingsChanged();
+	}
+
+	/**
+	 * @return True if the Vector API was added to the JVM, so vectorised forces can be used
+	 */
+	public static boolean isVectorAvailable(){
+		return VECTOR_AVAILABLE;
+	}
+
+	/**
+	 * @return Number of bodies the vectorised kernel works on at once, 1 if unavailable
+	 */
+	public static int vectorLanes(){
+		return VECTOR_AVAILABLE ? VectorKernel.lanes() : 1;
+	}
+
+	/**
+	 * @return True if forces are computed with the vectorised kernel
+	 */
+	public boolean isVectorized(){
+		return vectorized;
+	}
+
+	/**
+	 * @param vectorized True to compute forces with the vectorised kernel, ignored if the
+	 * Vector API is unavailable
+	 */
+	public void setVectorized(boolean vectorized){
+		this.vectorized = vectorized && VECTOR_AVAILABLE;
+		forceSettingsChanged();
+	}
+
+	/**
+	 * @return True if pairs are worked out in float, see FloatKernel
+	 */
+	public boolean isMixedPrecision(){
+		return mixedPrecision;
+	}
+
+	/**
+	 * @param mixedPrecision True to work out pairs in float and sum them in double, false
+	 * for double throughout
+	 */
+	public void setMixedPrecision(boolean mixedPrecision){
+		this.mixedPrecision = mixedPrecision;
+		forceSettingsChanged();
+	}
+
+	@Override
+	protected void computeAllForces(BodyStore bodies){
+		if(mixedPrecision){
+			super.computeAllForces(bodies);
+		}else if(getThreads() == 1 && vectorized && bodies.allSources()){
+			VectorKernel.symmetric(bodies, softening);
+		}else if(getThreads() == 1){
+			PairKernel.symmetric(bodies, softening);
+		}else{
+			super.computeAllForces(bodies);
+		}
+	}
+
+	@Override
+	protected void prepareForces(BodyStore bodies){
+		if(mixedPrecision){
+			floats.pack(bodies);
+		}
+	}
+
+	@Override
+	protected void computeForces(BodyStore bodies, int from, int to){
+		if(mixedPrecision && vectorized){
+			VectorKernel.gatherMixed(floats, bodies, from, to, softening);
+		}else if(mixedPrecision){
+			floats.gather(bodies, from, to, softening);
+		}else if(vectorized && bodies.allSources()){
+			VectorKernel.gather(bodies, from, to, softening);
+		}else{
+			PairKernel.gather(bodies, from, to, softening);
 		}
-		
-		
-		
 	}
 
 }
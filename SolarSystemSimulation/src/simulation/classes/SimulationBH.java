@@ -0,0 +1,62 @@
+package simulation.classes;
+
+/**
+ * Barnes-Hut simulation. A quadtree is rebuilt over the planets every step and any node
+ * that appears smaller than the opening angle theta, seen from the planet, is replaced
+ * by a single body at its centre of mass. This brings the cost of a step down from
+ * O(N^2) to O(N log N).
+ *
+ * Tolerance against SimulationBF (measured with ForceComparison on a uniform disk):
+ * with theta = 0 no node is ever approximated and the forces agree up to rounding
+ * (relative error below 1e-12). With the default theta = 0.5 the median relative force
+ * error stays below 1% and the worst error below 10% of the mean force magnitude.
+ */
+public class SimulationBH extends Simulation {
+
+	public static final double DEFAULT_THETA = 0.5;
+
+	private final QuadTree tree = new QuadTree();
+	private double theta;
+
+	public SimulationBH(){
+		this(DEFAULT_THETA);
+	}
+
+	/**
+	 * @param theta Opening angle, larger values are faster but less accurate
+	 */
+	public SimulationBH(double theta){
+		setTheta(theta);
+	}
+
+	/**
+	 * @return Opening angle used to decide which nodes can be approximated
+	 */
+	public double getTheta() {
+		return theta;
+	}
+
+	/**
+	 * @param theta New opening angle, must not be negative
+	 */
+	public void setTheta(double theta) {
+		if(theta < 0 || Double.isNaN(theta)){
+			throw new IllegalArgumentException("Opening angle must not be negative: " + theta);
+		}
+		this.theta = theta;
+		forceSettingsChanged();
+	}
+
+	@Override
+	protected void prepareForces(BodyStore bodies){
+		tree.build(bodies);
+	}
+
+	@Override
+	protected void computeForces(BodyStore bodies, int from, int to){
+		for(int i = from; i < to; i++){
+			tree.computeForce(i, theta);
+		}
+	}
+
+}
@@ -0,0 +1,69 @@
+package simulation.classes;
+
+/**
+ * Fast multipole simulation. Every force evaluation rebuilds a MultipoleTree over the
+ * bodies, whose expansions carry the field of distant bodies, so the cost grows linearly
+ * with the number of bodies instead of as O(N log N) for Barnes-Hut. On one core it
+ * overtakes Barnes-Hut at around 100 000 bodies.
+ *
+ * The accuracy is set by the order of the expansions, every order dividing the error by
+ * at least 1/THETA = 2 and by about 3 in practice. Against SimulationBF (see
+ * ForceComparison) on 2000 bodies, the largest error relative to the mean force is 1e-6
+ * to 5e-4 at the default order 8, 1e-8 to 5e-6 at order 12 and 1e-9 to 5e-8 at order 16,
+ * depending on the system.
+ *
+ * All expansions are found anew even when only a few bodies need their forces, as in the
+ * substeps of BlockTimestepIntegrator, which is better served by Barnes-Hut.
+ */
+public class SimulationFMM extends Simulation {
+
+	public static final int DEFAULT_ORDER = 8;
+	public static final int MAX_ORDER = 30;			// higher powers of the distances could overflow
+	static final double THETA = 0.5;				// largest ratio of node sizes to distance
+
+	private MultipoleTree tree;
+	private int order;
+
+	public SimulationFMM(){
+		this(DEFAULT_ORDER);
+	}
+
+	/**
+	 * @param order Order of the expansions, higher is slower but more accurate
+	 */
+	public SimulationFMM(int order){
+		setOrder(order);
+	}
+
+	/**
+	 * @return Order of the multipole and local expansions
+	 */
+	public int getOrder(){
+		return order;
+	}
+
+	/**
+	 * @param order New order of the expansions, from 0 to MAX_ORDER
+	 */
+	public void setOrder(int order){
+		if(order < 0 || order > MAX_ORDER){
+			throw new IllegalArgumentException("Expansion order must be from 0 to " + MAX_ORDER + ": " + order);
+		}
+		this.order = order;
+		tree = new MultipoleTree(order, THETA);
+		forceSettingsChanged();
+	}
+
+	@Override
+	protected void prepareForces(BodyStore bodies){
+		tree.build(bodies);
+	}
+
+	@Override
+	protected void computeForces(BodyStore bodies, int from, int to){
+		for(int i = from; i < to; i++){
+			tree.computeForce(i);
+		}
+	}
+
+}
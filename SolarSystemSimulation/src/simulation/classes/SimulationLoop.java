@@ -0,0 +1,356 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Steps a simulation on its own thread at a requested rate, independently of the UI.
+ *
+ * Results are handed over through three snapshots: one being filled by the simulation
+ * thread, one ready to be picked up and one being drawn by the UI. A new snapshot is only
+ * published once the UI has taken the previous one, so consecutive snapshots seen by the
+ * UI always connect (their previous positions are the last positions the UI was given),
+ * while the simulation keeps stepping in between.
+ *
+ * The planet list belongs to the UI thread whenever the loop is paused: pause() returns
+ * only after the step in progress has finished. A step that throws pauses the loop and is
+ * handed to the failure listener.
+ *
+ * In fast-forward mode the loop no longer keeps to a rate but runs steps back to back,
+ * either a fixed number for every snapshot the UI takes or as many as it manages in
+ * between. The positions the bodies pass through in between are kept in the snapshot,
+ * so their traces follow the path they took instead of cutting across it.
+ */
+public class SimulationLoop {
+
+	private final ArrayList<Planet> planets;
+	// Held for the duration of every step. Fair, so that the UI gets its turn between two
+	// steps even while fast-forwarding runs them back to back.
+	private final ReentrantLock stepLock = new ReentrantLock(true);
+
+	/** Fast-forward setting that runs as many steps as possible between two frames */
+	public static final int AS_MANY_AS_POSSIBLE = -1;
+
+	private Simulation simulation;
+	private volatile boolean running = false;
+	private volatile double stepsPerSecond;
+	private volatile int stepsPerFrame = 0;		// fast-forward setting, 0 when not fast-forwarding
+	private volatile long steps = 0;
+	private volatile long stepTime = 0;			// nanoseconds spent stepping so far
+	private int unpublished = 0;				// steps since the last published snapshot
+	private double time = 0;					// simulated years since the loop was created
+	private TrajectoryRecorder recorder;
+	private volatile Consumer<RuntimeException> failureListener;
+
+	// Snapshot hand-over, see class comment. ready == null implies free != null.
+	private Snapshot back = new Snapshot();							// owned by the simulation thread
+	private final AtomicReference<Snapshot> ready = new AtomicReference<Snapshot>();
+	private final AtomicReference<Snapshot> free = new AtomicReference<Snapshot>(new Snapshot());
+	private Snapshot front = new Snapshot();						// owned by the UI thread
+
+	private double[] lastX = new double[0];		// positions in the last published snapshot
+	private double[] lastY = new double[0];
+	private boolean restarted = true;			// the planets may have been edited since the last step
+
+	private final Thread thread;
+
+	/**
+	 * @param planets Planets to simulate, only touched while the loop is running
+	 * @param simulation Simulation used for each step
+	 * @param stepsPerSecond Number of steps per second
+	 */
+	public SimulationLoop(ArrayList<Planet> planets, Simulation simulation, double stepsPerSecond){
+		this.planets 		= planets;
+		this.simulation 	= simulation;
+		this.stepsPerSecond = stepsPerSecond;
+
+		thread = new Thread(this::run, "Simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Start or resume stepping
+	 */
+	public void play(){
+		stepLock.lock();
+		try{
+			running = true;
+			restarted = true;
+		}finally{
+			stepLock.unlock();
+		}
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Stop stepping, waiting for the current step to finish. Any snapshot not yet taken
+	 * by the UI is dropped, since it may be older than what the UI draws next. Must be
+	 * called from the UI thread.
+	 */
+	public void pause(){
+		stepLock.lock();
+		try{
+			running = false;
+
+			Snapshot pending = ready.get();
+			if(pending != null){
+				free.set(pending);
+				ready.set(null);
+			}
+		}finally{
+			stepLock.unlock();
+		}
+	}
+
+	/**
+	 * Same as pause(), kept for symmetry with the Timeline it replaces
+	 */
+	public void stop(){
+		pause();
+	}
+
+	/**
+	 * @return True if the loop is stepping
+	 */
+	public boolean isRunning(){
+		return running;
+	}
+
+	/**
+	 * @param stepsPerSecond Requested number of steps per second, 0 or less stops stepping
+	 */
+	public void setStepsPerSecond(double stepsPerSecond){
+		this.stepsPerSecond = stepsPerSecond;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return Requested number of steps per second
+	 */
+	public double getStepsPerSecond(){
+		return stepsPerSecond;
+	}
+
+	/**
+	 * @param stepsPerFrame Number of steps to run for every snapshot the UI takes,
+	 * 			AS_MANY_AS_POSSIBLE to run steps back to back and publish whenever the UI is
+	 * 			ready, or 0 to go back to the requested steps per second
+	 */
+	public void setFastForward(int stepsPerFrame){
+		if(stepsPerFrame < 0 && stepsPerFrame != AS_MANY_AS_POSSIBLE){
+			throw new IllegalArgumentException("Steps per frame can't be negative: " + stepsPerFrame);
+		}
+		this.stepsPerFrame = stepsPerFrame;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return Fast-forward setting, 0 when not fast-forwarding
+	 */
+	public int getFastForward(){
+		return stepsPerFrame;
+	}
+
+	/**
+	 * @return Number of steps made so far
+	 */
+	public long getSteps(){
+		return steps;
+	}
+
+	/**
+	 * @return Nanoseconds spent stepping so far, the simulation's share of the time
+	 */
+	public long getStepTime(){
+		return stepTime;
+	}
+
+	/**
+	 * @return Simulation used for each step
+	 */
+	public Simulation getSimulation(){
+		return simulation;
+	}
+
+	/**
+	 * @param simulation Simulation used from the next step on
+	 */
+	public void setSimulation(Simulation simulation){
+		runBetweenSteps(() -> this.simulation = simulation);
+	}
+
+	/**
+	 * @param recorder Recorder receiving every few steps from the next step on, null to stop
+	 * 			recording. The previous recorder is no longer called once this returns.
+	 */
+	public void setRecorder(TrajectoryRecorder recorder){
+		runBetweenSteps(() -> this.recorder = recorder);
+	}
+
+	/**
+	 * @param listener Called on the simulation thread with the exception of a step that
+	 * 			failed, after the loop has paused. Without one the exception goes to the
+	 * 			thread's uncaught exception handler.
+	 */
+	public void setFailureListener(Consumer<RuntimeException> listener){
+		this.failureListener = listener;
+	}
+
+	/**
+	 * Run a change to the simulation's settings between two steps
+	 *
+	 * @param change Change to make
+	 */
+	public void runBetweenSteps(Runnable change){
+		stepLock.lock();
+		try{
+			change.run();
+		}finally{
+			stepLock.unlock();
+		}
+	}
+
+	/**
+	 * Take the latest snapshot if a new one has been published since the last call.
+	 * Must always be called from the same (UI) thread.
+	 *
+	 * @return The new snapshot, valid until the next call, or null if there is none
+	 */
+	public Snapshot takeSnapshot(){
+		Snapshot latest = ready.get();
+		if(latest == null){
+			return null;
+		}
+
+		free.set(front);
+		front = latest;
+		ready.set(null);
+
+		if(stepsPerFrame > 0){
+			// The simulation thread may be waiting to publish its next batch of steps
+			LockSupport.unpark(thread);
+		}
+		return front;
+	}
+
+	private void run(){
+		long next = System.nanoTime();
+
+		while(true){
+			double rate = stepsPerSecond;
+			int perFrame = stepsPerFrame;
+
+			if(!running || (perFrame == 0 && rate <= 0)){
+				LockSupport.park(this);
+				next = System.nanoTime();
+				continue;
+			}
+
+			if(perFrame > 0 && unpublished >= perFrame && ready.get() != null){
+				// This frame's steps are done, wait for the UI to take the last one
+				LockSupport.park(this);
+				continue;
+			}
+
+			RuntimeException failure = null;
+			stepLock.lock();
+			try{
+				if(running){
+					if(perFrame <= 0 || unpublished < perFrame){
+						step();
+					}
+					if(ready.get() == null && unpublished > 0 && (perFrame <= 0 || unpublished >= perFrame)){
+						publish();
+					}
+				}
+			}catch(RuntimeException ex){
+				// Leave the planets as they are and wait to be started again
+				running = false;
+				failure = ex;
+			}finally{
+				stepLock.unlock();
+			}
+
+			if(failure != null){
+				Consumer<RuntimeException> listener = failureListener;
+				if(listener != null){
+					listener.accept(failure);
+				}else{
+					thread.getUncaughtExceptionHandler().uncaughtException(thread, failure);
+				}
+				continue;
+			}
+
+			if(perFrame != 0){
+				next = System.nanoTime();
+				continue;
+			}
+
+			// Keep to the requested rate, but don't try to catch up after falling far behind
+			long period = (long) (1e9 / rate);
+			next += period;
+			long wait = next - System.nanoTime();
+
+			if(wait > 0){
+				LockSupport.parkNanos(this, wait);
+			}else if(wait < -10 * period){
+				next = System.nanoTime();
+			}
+		}
+	}
+
+	private void step(){
+		BodyStore bodies = simulation.getBodies();
+		if(!restarted){
+			back.trackPath(bodies);
+		}
+
+		// The timestep may already have been tuned for the next step once this one is done
+		double before = simulation.getTime();
+		long start = System.nanoTime();
+		simulation.checkForces(planets);
+		stepTime += System.nanoTime() - start;
+		steps++;
+		unpublished++;
+		time += simulation.getTime() - before;
+
+		bodies = simulation.getBodies();
+		int n = bodies.count;
+
+		if(recorder != null && steps % recorder.getInterval() == 0){
+			recorder.record(bodies, steps, time);
+		}
+
+		if(restarted || lastX.length < n){
+			// Traces restart from where the planets are now
+			if(lastX.length < n){
+				lastX = new double[n];
+				lastY = new double[n];
+			}
+			System.arraycopy(bodies.prevX, 0, lastX, 0, n);
+			System.arraycopy(bodies.prevY, 0, lastY, 0, n);
+			back.clearPath();
+			restarted = false;
+		}
+	}
+
+	private void publish(){
+		BodyStore bodies = simulation.getBodies();
+		int n = bodies.count;
+
+		back.fill(bodies, steps, lastX, lastY);
+		System.arraycopy(bodies.x, 0, lastX, 0, n);
+		System.arraycopy(bodies.y, 0, lastY, 0, n);
+
+		Snapshot next = free.getAndSet(null);
+		ready.set(back);
+		back = next;
+		back.clearPath();
+		unpublished = 0;
+	}
+
+}
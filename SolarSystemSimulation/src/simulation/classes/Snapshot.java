@@ -0,0 +1,170 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Copy of the bodies' state at one moment, handed from the simulation thread to the UI.
+ * Arrays are reused between snapshots and only grow, so filling one does not allocate
+ * once it has reached the size of the system.
+ */
+public class Snapshot {
+
+	int count;							// number of bodies in the snapshot
+	long step;							// number of steps simulated when the snapshot was taken
+	double[] x 		= new double[0];
+	double[] y 		= new double[0];
+	double[] vx 	= new double[0];
+	double[] vy 	= new double[0];
+	double[] prevX 	= new double[0];	// position in the previous snapshot shown, for traces
+	double[] prevY 	= new double[0];
+
+	// Positions passed through since the previous snapshot, point after point, each holding
+	// all bodies. Thinned out to every second point whenever full, so they stay evenly spread.
+	private static final int MAX_PATH_POINTS = 64;
+	private static final int MAX_PATH_VALUES = 1 << 20;		// bounds the memory for large systems
+	int pathPoints;
+	double[] pathX 	= new double[0];
+	double[] pathY 	= new double[0];
+	private long pathSteps;					// steps tracked since the path was cleared
+	private long pathStride = 1;			// steps between two points
+
+	/**
+	 * Copy the current state of a store
+	 *
+	 * @param bodies Store to copy
+	 * @param step Number of steps simulated so far
+	 * @param lastX X-coordinates in the previous snapshot
+	 * @param lastY Y-coordinates in the previous snapshot
+	 */
+	void fill(BodyStore bodies, long step, double[] lastX, double[] lastY){
+		int n = bodies.count;
+		resize(n);
+		this.step = step;
+
+		System.arraycopy(bodies.x, 0, x, 0, n);
+		System.arraycopy(bodies.y, 0, y, 0, n);
+		System.arraycopy(bodies.vx, 0, vx, 0, n);
+		System.arraycopy(bodies.vy, 0, vy, 0, n);
+		System.arraycopy(lastX, 0, prevX, 0, n);
+		System.arraycopy(lastY, 0, prevY, 0, n);
+	}
+
+	/**
+	 * Copy a recorded state
+	 *
+	 * @param columns x, y, vx and vy of all bodies, one column after the other
+	 * @param n Number of bodies
+	 * @param step Step the state was recorded at
+	 * @param lastX X-coordinates in the previous snapshot
+	 * @param lastY Y-coordinates in the previous snapshot
+	 */
+	void fill(double[] columns, int n, long step, double[] lastX, double[] lastY){
+		resize(n);
+		clearPath();
+		this.step = step;
+
+		System.arraycopy(columns, 0, x, 0, n);
+		System.arraycopy(columns, n, y, 0, n);
+		System.arraycopy(columns, 2 * n, vx, 0, n);
+		System.arraycopy(columns, 3 * n, vy, 0, n);
+		System.arraycopy(lastX, 0, prevX, 0, n);
+		System.arraycopy(lastY, 0, prevY, 0, n);
+	}
+
+	/**
+	 * Copy the current state of a list of planets, with no movement since the previous snapshot
+	 *
+	 * @param planets Planets to copy
+	 */
+	void fill(ArrayList<Planet> planets){
+		int n = planets.size();
+		resize(n);
+		clearPath();
+
+		for(int i = 0; i < n; i++){
+			Planet planet = planets.get(i);
+			x[i] 	= planet.getPosX();
+			y[i] 	= planet.getPosY();
+			vx[i] 	= planet.getVelX();
+			vy[i] 	= planet.getVelY();
+			prevX[i]= x[i];
+			prevY[i]= y[i];
+		}
+	}
+
+	/**
+	 * Note where the bodies are before a step, if it's time for the next point of their path
+	 *
+	 * @param bodies Store about to be stepped, holding the same bodies as the snapshot
+	 */
+	void trackPath(BodyStore bodies){
+		long k = pathSteps++;
+		int n = bodies.count;
+		int max = n == 0 ? 0 : Math.min(MAX_PATH_POINTS, MAX_PATH_VALUES / n);
+
+		// The first position is the one the previous snapshot ended at
+		if(k == 0 || max == 0 || k % pathStride != 0){
+			return;
+		}
+
+		if(pathPoints == max){
+			int kept = 0;
+			for(int p = 1; p < pathPoints; p += 2){
+				System.arraycopy(pathX, p * n, pathX, kept * n, n);
+				System.arraycopy(pathY, p * n, pathY, kept * n, n);
+				kept++;
+			}
+			pathPoints = kept;
+			pathStride *= 2;
+
+			if(k % pathStride != 0){
+				return;
+			}
+		}
+
+		if(pathX.length < max * n){
+			pathX = Arrays.copyOf(pathX, max * n);
+			pathY = Arrays.copyOf(pathY, max * n);
+		}
+		System.arraycopy(bodies.x, 0, pathX, pathPoints * n, n);
+		System.arraycopy(bodies.y, 0, pathY, pathPoints * n, n);
+		pathPoints++;
+	}
+
+	/**
+	 * Forget the path tracked so far
+	 */
+	void clearPath(){
+		pathPoints 	= 0;
+		pathSteps 	= 0;
+		pathStride 	= 1;
+	}
+
+	/**
+	 * @return Number of bodies in the snapshot
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @return Number of steps simulated when the snapshot was taken
+	 */
+	public long getStep(){
+		return step;
+	}
+
+	private void resize(int n){
+		count = n;
+		if(n > x.length){
+			x 		= new double[n];
+			y 		= new double[n];
+			vx 		= new double[n];
+			vy 		= new double[n];
+			prevX 	= new double[n];
+			prevY 	= new double[n];
+		}
+	}
+
+}
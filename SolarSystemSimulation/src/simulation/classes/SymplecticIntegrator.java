@@ -0,0 +1,100 @@
+package simulation.classes;
+
+/**
+ * Base of the symplectic integrators, which advance the bodies by alternating kicks
+ * (velocities change by the accelerations) and drifts (positions change by the
+ * velocities). Such compositions keep the energy error bounded instead of letting it
+ * drift, so far larger timesteps can be used than with semi-implicit Euler.
+ *
+ * Every composition starts and ends with a kick, and the forces of the final kick are
+ * those of the first kick of the next step. They are reused as long as the bodies
+ * haven't been moved or edited since, so a step costs one force evaluation per drift.
+ */
+public abstract class SymplecticIntegrator implements Integrator {
+
+	private final double[] kicks;		// fraction of the timestep of each kick, one more than drifts
+	private final double[] drifts;		// fraction of the timestep of each drift, between the kicks
+
+	private long evaluations = 0;
+
+	private final Accelerations accelerations = new Accelerations();
+
+	private BodyStore bodies;			// arguments of the kick or drift being run, for the range actions
+	private double stepSize;
+	private final Simulation.RangeAction kickAction = (from, to) -> kick(bodies, from, to, stepSize);
+	private final Simulation.RangeAction driftAction = (from, to) -> drift(bodies, from, to, stepSize);
+
+	/**
+	 * @param kicks Fraction of the timestep of each kick
+	 * @param drifts Fraction of the timestep of each drift, made between two kicks
+	 */
+	protected SymplecticIntegrator(double[] kicks, double[] drifts){
+		if(kicks.length != drifts.length + 1){
+			throw new IllegalArgumentException("Expected one kick more than drifts");
+		}
+		this.kicks 	= kicks.clone();
+		this.drifts = drifts.clone();
+	}
+
+	@Override
+	public void step(Simulation simulation, BodyStore bodies, double timestep){
+
+		int n = bodies.count;
+		this.bodies = bodies;
+
+		System.arraycopy(bodies.x, 0, bodies.prevX, 0, n);
+		System.arraycopy(bodies.y, 0, bodies.prevY, 0, n);
+
+		if(!accelerations.isCurrent(simulation, bodies)){
+			evaluate(simulation, bodies);
+		}
+
+		for(int k = 0; k < kicks.length; k++){
+			stepSize = kicks[k] * timestep;
+			simulation.forEachRange(n, kickAction);
+
+			if(k < drifts.length){
+				stepSize = drifts[k] * timestep;
+				simulation.forEachRange(n, driftAction);
+				evaluate(simulation, bodies);
+			}
+		}
+
+		accelerations.remember(simulation, bodies);
+	}
+
+	private void kick(BodyStore bodies, int from, int to, double dt){
+		double[] vx = bodies.vx, vy = bodies.vy;
+		double[] ax = accelerations.ax, ay = accelerations.ay;
+		for(int i = from; i < to; i++){
+			vx[i] += dt * ax[i];
+			vy[i] += dt * ay[i];
+		}
+	}
+
+	static void drift(BodyStore bodies, int from, int to, double dt){
+		double[] x = bodies.x, y = bodies.y;
+		double[] vx = bodies.vx, vy = bodies.vy;
+		for(int i = from; i < to; i++){
+			x[i] += Planet.SCALE * dt * vx[i];
+			y[i] += Planet.SCALE * dt * vy[i];
+		}
+	}
+
+	/**
+	 * Compute the forces at the bodies' current positions and keep the accelerations
+	 */
+	private void evaluate(Simulation simulation, BodyStore bodies){
+		simulation.computeForces(bodies);
+		evaluations++;
+
+		accelerations.resize(bodies.count);
+		accelerations.update(bodies, 0, bodies.count);
+	}
+
+	@Override
+	public long getForceEvaluations(){
+		return evaluations;
+	}
+
+}
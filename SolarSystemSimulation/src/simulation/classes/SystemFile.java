@@ -0,0 +1,133 @@
+package simulation.classes;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Reading and writing of saved systems. Every line of a system file describes one planet:
+ *
+ *   name,posX,posY,velX,velY,forceX,forceY,mass,colour,size[,test]
+ *
+ * where colour is anything accepted by Color.valueOf, e.g. "0xffff00ff" or "yellow", and
+ * a trailing "test" marks a test particle.
+ *
+ * Files ending in .ssim are saved in the binary format of BinarySystemFile instead, and
+ * binary files are recognised when loading whatever their name.
+ */
+public class SystemFile {
+
+	private static final String TEST_PARTICLE = "test";
+
+	private SystemFile(){}
+
+	/**
+	 * @param file File to read
+	 * @return Planets described in the file, in file order
+	 * @throws IOException If the file can't be read or a line is malformed
+	 */
+	public static ArrayList<Planet> load(File file) throws IOException{
+
+		PerfEvents.IoEvent event = PerfEvents.beginIo("load system", file);
+		ArrayList<Planet> planets = read(file);
+		PerfEvents.commitIo(event, file.length());
+		return planets;
+	}
+
+	private static ArrayList<Planet> read(File file) throws IOException{
+
+		if(BinarySystemFile.isBinary(file)){
+			return BinarySystemFile.load(file);
+		}
+
+		ArrayList<Planet> planets = new ArrayList<Planet>();
+
+		try(BufferedReader input = new BufferedReader(new FileReader(file))){
+			String line;
+			int lineNumber = 0;
+
+			while((line = input.readLine()) != null){
+				lineNumber++;
+
+				if(line.trim().isEmpty()){
+					continue;
+				}
+
+				String[] values = line.split(",");
+				if(values.length != 10 && values.length != 11){
+					throw new IOException(file + ":" + lineNumber + ": expected 10 values but found " + values.length);
+				}
+				if(values.length == 11 && !values[10].trim().equalsIgnoreCase(TEST_PARTICLE)){
+					throw new IOException(file + ":" + lineNumber + ": unknown value " + values[10]);
+				}
+
+				try{
+					Planet planet = new Planet(values[0],
+							Double.parseDouble(values[1]), Double.parseDouble(values[2]),
+							Double.parseDouble(values[3]), Double.parseDouble(values[4]),
+							Double.parseDouble(values[5]), Double.parseDouble(values[6]),
+							Double.parseDouble(values[7]), Color.valueOf(values[8].trim().toLowerCase()),
+							Double.parseDouble(values[9]));
+					planet.setTestParticle(values.length == 11);
+					planets.add(planet);
+				}catch(IllegalArgumentException ex){
+					throw new IOException(file + ":" + lineNumber + ": " + ex.getMessage(), ex);
+				}
+			}
+		}
+
+		return planets;
+	}
+
+	/**
+	 * @param file File to write, replaced if it exists
+	 * @param planets Planets to save
+	 * @throws IOException If the file can't be written
+	 */
+	public static void save(File file, List<Planet> planets) throws IOException{
+
+		PerfEvents.IoEvent event = PerfEvents.beginIo("save system", file);
+		write(file, planets);
+		PerfEvents.commitIo(event, file.length());
+	}
+
+	private static void write(File file, List<Planet> planets) throws IOException{
+
+		if(isBinaryName(file)){
+			BinarySystemFile.save(file, planets, false);
+			return;
+		}
+
+		try(BufferedWriter output = new BufferedWriter(new FileWriter(file))){
+			for(Planet planet : planets){
+				output.write(planet.getName() + ",");
+				output.write(planet.getPosX() + ",");
+				output.write(planet.getPosY() + ",");
+				output.write(planet.getVelX() + ",");
+				output.write(planet.getVelY() + ",");
+				output.write(planet.getForceX() + ",");
+				output.write(planet.getForceY() + ",");
+				output.write(planet.getMass() + ",");
+				output.write(planet.getColor() + ",");
+				output.write(String.valueOf(planet.getSize()));
+				output.write(planet.isTestParticle() ? "," + TEST_PARTICLE + "\n" : "\n");
+			}
+		}
+	}
+
+	/**
+	 * @param file A file
+	 * @return True if the file's name asks for the binary format
+	 */
+	public static boolean isBinaryName(File file){
+		return file.getName().toLowerCase().endsWith(BinarySystemFile.EXTENSION);
+	}
+
+}
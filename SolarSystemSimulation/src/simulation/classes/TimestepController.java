@@ -0,0 +1,142 @@
+package simulation.classes;
+
+/**
+ * Finds the longest timestep that keeps the energy error within a budget, from the
+ * measurements of an EnergyMonitor. Longer steps mean fewer force evaluations for the
+ * same simulated time, so this is the cheapest step that is still accurate enough.
+ *
+ * The budget is the relative change of the total energy allowed within a window of
+ * simulated time (a year unless set otherwise). Integrators whose energy error stays
+ * bounded, like leapfrog, keep within it for good; those whose error drifts, like Euler,
+ * drift by at most about the budget per window.
+ *
+ * The timestep shrinks as soon as a measurement goes over the budget, and grows at the
+ * end of every window that stayed well under it, assuming the error grows with the square
+ * of the timestep. Growth is limited per window, so integrators of higher order, whose
+ * error grows faster, settle as well. It never goes below the shortest timestep set with
+ * setLimits(); isStuck() tells when even that one is over the budget.
+ */
+public class TimestepController {
+
+	private static final double SAFETY = 0.8;			// aim this far below the budget
+	private static final double MIN_FACTOR = 0.5;		// limits on the change of timestep at once
+	private static final double MAX_FACTOR = 1.5;
+	private static final int MIN_MEASUREMENTS = 16;	// a window is never judged on fewer
+
+	private final double budget;
+	private double window = 1;						// simulated years between decisions to grow
+	private double minTimestep = 0;
+	private double maxTimestep = Double.POSITIVE_INFINITY;
+	private boolean stuck = false;					// over the budget at the shortest timestep
+
+	// Window being watched
+	private long measurement = -1;					// last measurement looked at
+	private boolean started = false;
+	private double startTime;
+	private double startEnergy;
+	private double worst;
+	private int measurements;
+
+	/**
+	 * @param budget Relative energy change allowed within a window
+	 */
+	public TimestepController(double budget){
+		if(!(budget > 0)){
+			throw new IllegalArgumentException("Energy budget must be positive: " + budget);
+		}
+		this.budget = budget;
+	}
+
+	/**
+	 * @param minTimestep Shortest timestep in years
+	 * @param maxTimestep Longest timestep in years
+	 */
+	public void setLimits(double minTimestep, double maxTimestep){
+		if(!(minTimestep >= 0) || !(maxTimestep > 0) || minTimestep > maxTimestep){
+			throw new IllegalArgumentException("Invalid timestep limits: " + minTimestep + ", " + maxTimestep);
+		}
+		this.minTimestep = minTimestep;
+		this.maxTimestep = maxTimestep;
+	}
+
+	/**
+	 * @param window Simulated years the energy is watched over before the timestep grows
+	 */
+	public void setWindow(double window){
+		if(!(window > 0)){
+			throw new IllegalArgumentException("Window must be positive: " + window);
+		}
+		this.window = window;
+	}
+
+	public double getBudget(){
+		return budget;
+	}
+
+	/**
+	 * @return True if the last decision found the energy over the budget while already at
+	 * 			the shortest timestep, so the budget can't be kept
+	 */
+	public boolean isStuck(){
+		return stuck;
+	}
+
+	/**
+	 * Start watching again, e.g. after the bodies were edited
+	 */
+	public void reset(){
+		started = false;
+		stuck = false;
+	}
+
+	/**
+	 * @param monitor Monitor measuring the simulation
+	 * @param timestep Timestep in use, in years
+	 * @return Timestep to use from now on
+	 */
+	public double adjust(EnergyMonitor monitor, double timestep){
+		long latest = monitor.getMeasurements();
+		if(latest == measurement){
+			return timestep;
+		}
+		measurement = latest;
+
+		double energy = monitor.getEnergy();
+		double time = monitor.getTime();
+		if(!started || time < startTime){
+			restart(time, energy);
+			return clamp(timestep);
+		}
+
+		double error = startEnergy == 0 ? Math.abs(energy) : Math.abs((energy - startEnergy) / startEnergy);
+		worst = Math.max(worst, error);
+		measurements++;
+
+		if(error > budget){
+			stuck = timestep <= minTimestep;
+			restart(time, energy);
+			return clamp(timestep * Math.max(MIN_FACTOR, SAFETY * Math.sqrt(budget / error)));
+		}
+
+		if(time - startTime >= window && measurements >= MIN_MEASUREMENTS){
+			double factor = worst == 0 ? MAX_FACTOR : Math.min(MAX_FACTOR, SAFETY * Math.sqrt(budget / worst));
+			stuck = false;
+			restart(time, energy);
+			return clamp(timestep * Math.max(MIN_FACTOR, factor));
+		}
+		return timestep;
+	}
+
+	private void restart(double time, double energy){
+		started 		= true;
+		startTime 		= time;
+		startEnergy 	= energy;
+		worst 			= 0;
+		measurements 	= 0;
+	}
+
+	private double clamp(double timestep){
+		return Math.max(minTimestep, Math.min(maxTimestep, timestep));
+	}
+
+}
@@ -0,0 +1,262 @@
+package simulation.classes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Recent path of every body, kept so the traces can be drawn again from scratch every
+ * frame instead of being accumulated on the canvas one segment per step.
+ *
+ * Every body has a ring buffer of a fixed number of points, so memory and drawing cost
+ * don't grow with the length of the run; once full, the oldest points are overwritten.
+ * Points are only kept where the path bends: a new point replaces the previous one as long
+ * as every point dropped since the last point kept stays within TOLERANCE of the straight
+ * line between them (the cone of directions satisfying this narrows with every point).
+ *
+ * Breaks in a path, e.g. after jumping to another time in a recording, are stored as NaN
+ * points. Used from the UI thread only.
+ */
+public class TraceStore {
+
+	static final double TOLERANCE = 0.25;		// pixels a dropped point may be off the line drawn
+	static final int DEFAULT_LENGTH = 2000;		// points kept per body
+	private static final int MAX_POINTS = 1 << 20;	// points kept for all bodies together
+	private static final int FADE_BANDS = 4;		// parts of a trail drawn with their own opacity
+
+	private int length = DEFAULT_LENGTH;
+	private boolean fade = true;
+
+	private int count = -1;						// bodies in the store, -1 until the first snapshot
+	private int capacity;						// points kept per body
+	private double[] pointX = new double[0];	// ring buffers, capacity points per body
+	private double[] pointY = new double[0];
+	private int[] start;						// oldest point in each ring
+	private int[] size;							// points in each ring
+
+	// Last point kept is the anchor; the latest point is held back until it is known whether
+	// it's needed, with the cone of directions from the anchor that keeps the dropped points
+	// within tolerance (relative to the direction of the first point after the anchor)
+	private double[] anchorX, anchorY;
+	private double[] latestX, latestY;
+	private boolean[] pending;
+	private double[] base, low, high;
+
+	private double[] lastX, lastY;				// last position added, to spot breaks
+
+	/**
+	 * @return Points kept for every body
+	 */
+	public int getLength(){
+		return length;
+	}
+
+	/**
+	 * @param length Points kept for every body, fewer for very large systems. Clears the store.
+	 */
+	public void setLength(int length){
+		if(length < 2){
+			throw new IllegalArgumentException("A trace needs at least 2 points: " + length);
+		}
+		this.length = length;
+		clear();
+	}
+
+	/**
+	 * @return True if older parts of the traces are drawn fainter
+	 */
+	public boolean isFade(){
+		return fade;
+	}
+
+	/**
+	 * @param fade True to draw older parts of the traces fainter
+	 */
+	public void setFade(boolean fade){
+		this.fade = fade;
+	}
+
+	/**
+	 * Forget all traces
+	 */
+	public void clear(){
+		count = -1;
+	}
+
+	/**
+	 * Add the path of the bodies since the previous snapshot. Starts again if the number of
+	 * bodies changed.
+	 *
+	 * @param state Snapshot with the positions passed through and the current ones
+	 */
+	public void add(Snapshot state){
+		int n = state.count;
+		if(n != count){
+			resize(n);
+		}
+
+		for(int i = 0; i < n; i++){
+			if(state.prevX[i] != lastX[i] || state.prevY[i] != lastY[i]){
+				addBreak(i);
+			}
+			for(int p = 0; p < state.pathPoints; p++){
+				add(i, state.pathX[p * n + i], state.pathY[p * n + i]);
+			}
+			add(i, state.x[i], state.y[i]);
+			lastX[i] = state.x[i];
+			lastY[i] = state.y[i];
+		}
+	}
+
+	/**
+	 * Draw all traces, one path for each run of bodies sharing a colour
+	 *
+	 * @param planets Planets giving the colours, in the same order as the snapshots added
+	 * @param trace Context of the canvas holding the traces
+	 */
+	public void draw(ArrayList<Planet> planets, GraphicsContext trace){
+		int n = Math.min(count, planets.size());
+		int bands = fade ? FADE_BANDS : 1;
+
+		for(int band = 0; band < bands; band++){
+			trace.setGlobalAlpha((band + 1) / (double) bands);
+
+			Color colour = null;
+			for(int i = 0; i < n; i++){
+				int points = size[i] + (pending[i] ? 1 : 0);
+				int from = band * (points - 1) / bands;
+				int to = (band + 1) * (points - 1) / bands;
+				if(to <= from){
+					continue;
+				}
+
+				if(colour != planets.get(i).getColor()){
+					if(colour != null){
+						trace.stroke();
+					}
+					colour = planets.get(i).getColor();
+					trace.setStroke(colour);
+					trace.beginPath();
+				}
+
+				boolean move = true;
+				for(int k = from; k <= to; k++){
+					double x = pointX(i, k), y = pointY(i, k);
+					if(Double.isNaN(x)){
+						move = true;
+					}else if(move){
+						trace.moveTo(x, y);
+						move = false;
+					}else{
+						trace.lineTo(x, y);
+					}
+				}
+			}
+			if(colour != null){
+				trace.stroke();
+			}
+		}
+		trace.setGlobalAlpha(1);
+	}
+
+	private void resize(int n){
+		count 		= n;
+		capacity 	= Math.max(2, Math.min(length, n == 0 ? length : MAX_POINTS / n));
+
+		if(pointX.length < n * capacity){
+			pointX = new double[n * capacity];
+			pointY = new double[n * capacity];
+		}
+		start 	= new int[n];
+		size 	= new int[n];
+		anchorX = new double[n];
+		anchorY = new double[n];
+		latestX = new double[n];
+		latestY = new double[n];
+		pending = new boolean[n];
+		base 	= new double[n];
+		low 	= new double[n];
+		high 	= new double[n];
+		lastX 	= new double[n];
+		lastY 	= new double[n];
+		Arrays.fill(lastX, Double.NaN);
+		Arrays.fill(lastY, Double.NaN);
+	}
+
+	private void add(int i, double x, double y){
+		if(size[i] == 0 || Double.isNaN(anchorX[i])){
+			keep(i, x, y);
+			return;
+		}
+
+		double dx = x - anchorX[i], dy = y - anchorY[i];
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		if(distance <= TOLERANCE){
+			return;
+		}
+
+		double angle = Math.atan2(dy, dx);
+		double width = Math.asin(TOLERANCE / distance);
+
+		if(pending[i]){
+			double relative = Math.IEEEremainder(angle - base[i], 2 * Math.PI);
+			if(relative >= low[i] && relative <= high[i]){
+				// The line from the anchor to here passes all points dropped so far
+				low[i] 		= Math.max(low[i], relative - width);
+				high[i] 	= Math.min(high[i], relative + width);
+				latestX[i] 	= x;
+				latestY[i] 	= y;
+				return;
+			}
+
+			// Bends away, the latest point is needed and becomes the anchor
+			keep(i, latestX[i], latestY[i]);
+			add(i, x, y);
+			return;
+		}
+
+		pending[i] 	= true;
+		base[i] 	= angle;
+		low[i] 		= -width;
+		high[i] 	= width;
+		latestX[i] 	= x;
+		latestY[i] 	= y;
+	}
+
+	private void addBreak(int i){
+		if(size[i] > 0 && !Double.isNaN(anchorX[i])){
+			if(pending[i]){
+				keep(i, latestX[i], latestY[i]);
+			}
+			keep(i, Double.NaN, Double.NaN);
+		}
+	}
+
+	private void keep(int i, double x, double y){
+		int at;
+		if(size[i] < capacity){
+			at = (start[i] + size[i]) % capacity;
+			size[i]++;
+		}else{
+			at = start[i];
+			start[i] = (start[i] + 1) % capacity;
+		}
+		pointX[i * capacity + at] = x;
+		pointY[i * capacity + at] = y;
+
+		anchorX[i] = x;
+		anchorY[i] = y;
+		pending[i] = false;
+	}
+
+	private double pointX(int i, int k){
+		return k < size[i] ? pointX[i * capacity + (start[i] + k) % capacity] : latestX[i];
+	}
+
+	private double pointY(int i, int k){
+		return k < size[i] ? pointY[i * capacity + (start[i] + k) % capacity] : latestY[i];
+	}
+
+}
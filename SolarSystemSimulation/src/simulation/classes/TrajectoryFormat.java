@@ -0,0 +1,86 @@
+package simulation.classes;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of trajectory files, shared by TrajectoryRecorder and TrajectoryReader. All
+ * values are little-endian:
+ *
+ *   header   "STRJ", version, body count, steps between frames,
+ *            then for every body: name length, name (UTF-8), colour as 0xRRGGBBAA, size
+ *   frames   type (byte), length of the rest of the frame, step (long), time in years (double),
+ *            then the columns x, y, vx and vy of all bodies
+ *   index    type (byte), length, number of frames, step and time of the last frame, number of
+ *            key frames, then the file offset, step and time of every key frame
+ *   trailer  file offset of the index (long), "SIDX"
+ *
+ * Key frames store the columns as plain doubles. Delta frames store every value as the
+ * bits by which it differs from a prediction (XOR of the raw double bits) written as an
+ * unsigned varint: nearby doubles share their sign, exponent and leading mantissa bits,
+ * so the difference is a small number needing few bytes. The prediction continues the
+ * value's motion over the last two frames, or repeats it after a key frame.
+ *
+ * Every few frames is a key frame, so playback can jump to any time by seeking to the
+ * key frame before it through the index and decoding at most that many frames. The index
+ * is written when recording finishes. Version 1 files only have a key frame at the start
+ * and no index; a file without one, e.g. when recording was cut off, is indexed by
+ * skipping from frame to frame.
+ */
+final class TrajectoryFormat {
+
+	static final String EXTENSION = ".straj";
+
+	static final int MAGIC = 0x4A525453;		// "STRJ" read as a little-endian int
+	static final int VERSION = 2;
+	static final int INDEX_MAGIC = 0x58444953;	// "SIDX"
+
+	static final byte KEY_FRAME = 0;
+	static final byte DELTA_FRAME = 1;
+	static final byte INDEX = 2;
+
+	static final int KEY_INTERVAL = 64;			// frames from one key frame to the next
+	static final int TRAILER = 8 + 4;
+
+	static final int COLUMNS = 4;				// x, y, vx, vy
+	static final int FRAME_HEADER = 1 + 4 + 8 + 8;
+
+	private TrajectoryFormat(){}
+
+	/**
+	 * @param last Value in the last frame
+	 * @param before Value in the frame before, NaN if the last frame was a key frame
+	 * @return Predicted value in the next frame
+	 */
+	static double predict(double last, double before){
+		return Double.isNaN(before) ? last : 2 * last - before;
+	}
+
+	/**
+	 * @param buffer Buffer with room for at least 10 bytes
+	 * @param value Value to write, seen as unsigned
+	 */
+	static void putVarLong(ByteBuffer buffer, long value){
+		while((value & ~0x7FL) != 0){
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * @param buffer Buffer positioned at a value written by putVarLong
+	 * @return The value
+	 */
+	static long getVarLong(ByteBuffer buffer){
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do{
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}while(b < 0);
+		return value;
+	}
+
+}
@@ -0,0 +1,157 @@
+package simulation.classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Plays a recorded trajectory back at any speed, or shows it at any chosen time, without
+ * running a simulation. Used from the UI thread only.
+ */
+public class TrajectoryPlayer implements AutoCloseable {
+
+	private final TrajectoryReader reader;
+	private final Snapshot snapshot = new Snapshot();
+
+	private double time;						// simulated time being shown, in years
+	private double speed = 1;					// simulated years per second of playback
+	private boolean playing = false;
+
+	private long shownStep = -1;				// step of the frame last handed out
+	private double[] lastX;						// positions last handed out, for the traces
+	private double[] lastY;
+	private boolean jumped = true;				// the traces restart with the next frame
+
+	/**
+	 * @param file Trajectory file to play
+	 * @throws IOException If the file can't be read
+	 */
+	public TrajectoryPlayer(File file) throws IOException{
+		reader = new TrajectoryReader(file);
+		lastX = new double[reader.getCount()];
+		lastY = new double[reader.getCount()];
+
+		time = reader.getStartTime();
+		if(!reader.seek(time)){
+			reader.close();
+			throw new IOException(file + ": no frames recorded");
+		}
+	}
+
+	/**
+	 * @return The recorded bodies, giving the names, colours and sizes to draw them with
+	 */
+	public ArrayList<Planet> getPlanets(){
+		return reader.getPlanets();
+	}
+
+	/**
+	 * Jump to a time, the traces start again from there
+	 *
+	 * @param time Simulated time in years
+	 * @throws IOException If the file can't be read
+	 */
+	public void setTime(double time) throws IOException{
+		this.time = Math.max(reader.getStartTime(), Math.min(reader.getEndTime(), time));
+		reader.seek(this.time);
+		jumped = true;
+	}
+
+	/**
+	 * Move the playback on by the time since the last call, stopping at the end
+	 *
+	 * @param seconds Wall-clock seconds since the last call
+	 * @throws IOException If the file can't be read
+	 */
+	public void advance(double seconds) throws IOException{
+		if(!playing){
+			return;
+		}
+
+		time = Math.min(reader.getEndTime(), time + seconds * speed);
+		reader.seek(time);
+
+		if(time >= reader.getEndTime()){
+			playing = false;
+		}
+	}
+
+	/**
+	 * @return The frame at the current time if it hasn't been handed out yet, otherwise
+	 * 			null. Valid until the next call.
+	 */
+	public Snapshot takeSnapshot(){
+		if(reader.getStep() == shownStep && !jumped){
+			return null;
+		}
+
+		reader.fill(snapshot, lastX, lastY);
+		if(jumped){
+			// No trace from wherever the bodies were before the jump
+			System.arraycopy(snapshot.x, 0, snapshot.prevX, 0, snapshot.count);
+			System.arraycopy(snapshot.y, 0, snapshot.prevY, 0, snapshot.count);
+		}
+
+		System.arraycopy(snapshot.x, 0, lastX, 0, snapshot.count);
+		System.arraycopy(snapshot.y, 0, lastY, 0, snapshot.count);
+		shownStep = reader.getStep();
+		jumped = false;
+		return snapshot;
+	}
+
+	public boolean isPlaying(){
+		return playing;
+	}
+
+	/**
+	 * @param playing True to play, starting again from the beginning if at the end
+	 * @throws IOException If the file can't be read
+	 */
+	public void setPlaying(boolean playing) throws IOException{
+		if(playing && time >= reader.getEndTime()){
+			setTime(reader.getStartTime());
+		}
+		this.playing = playing;
+	}
+
+	/**
+	 * @return Simulated years per second of playback
+	 */
+	public double getSpeed(){
+		return speed;
+	}
+
+	/**
+	 * @param speed Simulated years per second of playback
+	 */
+	public void setSpeed(double speed){
+		this.speed = speed;
+	}
+
+	/**
+	 * @return Simulated time being shown, in years
+	 */
+	public double getTime(){
+		return time;
+	}
+
+	/**
+	 * @return Simulated time of the first frame, in years
+	 */
+	public double getStartTime(){
+		return reader.getStartTime();
+	}
+
+	/**
+	 * @return Simulated time of the last frame, in years
+	 */
+	public double getEndTime(){
+		return reader.getEndTime();
+	}
+
+	@Override
+	public void close() throws IOException{
+		reader.close();
+	}
+
+}
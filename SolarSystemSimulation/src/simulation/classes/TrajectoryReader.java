@@ -0,0 +1,483 @@
+package simulation.classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Reads the frames of a trajectory file written by TrajectoryRecorder, one after the other
+ * or starting from any time through the index of key frames.
+ */
+public class TrajectoryReader implements AutoCloseable {
+
+	private static final int BUFFER = 1 << 20;
+
+	private final File file;
+	private final FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+	private final int count;
+	private final int interval;
+	private final ArrayList<Planet> planets = new ArrayList<Planet>();
+
+	// The current frame and the one before, for the predictions of delta frames
+	private long step = -1;
+	private double time;
+	private double[] values;
+	private double[] before;
+	private boolean afterKey = false;
+	private boolean started = false;
+
+	// Index of the key frames, with the number of frames and the time span they cover
+	private final long dataStart;
+	private long[] keyOffsets;
+	private long[] keySteps;
+	private double[] keyTimes;
+	private long frames;
+	private long lastStep;
+	private double lastTime;
+
+	/**
+	 * Open a trajectory file and read its header
+	 *
+	 * @param file File to read
+	 * @throws IOException If the file can't be read or isn't a trajectory file
+	 */
+	public TrajectoryReader(File file) throws IOException{
+
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		buffer.flip();
+
+		try{
+			ensure(16);
+			if(buffer.getInt() != TrajectoryFormat.MAGIC){
+				throw new IOException(file + ": not a trajectory file");
+			}
+			int version = buffer.getInt();
+			if(version > TrajectoryFormat.VERSION){
+				throw new IOException(file + ": unsupported version " + version);
+			}
+			count 		= buffer.getInt();
+			interval 	= buffer.getInt();
+			if(count < 0 || interval < 1){
+				throw new IOException(file + ": corrupt header");
+			}
+
+			for(int i = 0; i < count; i++){
+				ensure(4);
+				int length = buffer.getInt();
+				if(length < 0){
+					throw new IOException(file + ": corrupt header");
+				}
+				ensure(length + 12);
+				byte[] name = new byte[length];
+				buffer.get(name);
+				int rgba = buffer.getInt();
+				double size = buffer.getDouble();
+
+				Color colour = Color.rgb(rgba >>> 24, (rgba >>> 16) & 0xff, (rgba >>> 8) & 0xff, (rgba & 0xff) / 255.0);
+				planets.add(new Planet(new String(name, StandardCharsets.UTF_8), 0, 0, 0, 0, 0, 0, 1, colour, size));
+			}
+		}catch(IOException | RuntimeException ex){
+			channel.close();
+			throw ex;
+		}
+
+		values = new double[count * TrajectoryFormat.COLUMNS];
+		before = new double[count * TrajectoryFormat.COLUMNS];
+
+		dataStart = channel.position() - buffer.remaining();
+		try{
+			if(!readIndex()){
+				scanIndex();
+			}
+		}catch(IOException | RuntimeException ex){
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Read the index written at the end of the recording
+	 *
+	 * @return False if the file has no (valid) index
+	 */
+	private boolean readIndex() throws IOException{
+
+		long size = channel.size();
+		if(size < dataStart + TrajectoryFormat.TRAILER){
+			return false;
+		}
+
+		ByteBuffer trailer = readAt(size - TrajectoryFormat.TRAILER, TrajectoryFormat.TRAILER);
+		long offset = trailer.getLong();
+		if(trailer.getInt() != TrajectoryFormat.INDEX_MAGIC || offset < dataStart
+				|| offset > size - TrajectoryFormat.TRAILER - 33){
+			return false;
+		}
+
+		ByteBuffer header = readAt(offset, 33);
+		int length = header.getInt(1);
+		if(header.get(0) != TrajectoryFormat.INDEX || length != size - TrajectoryFormat.TRAILER - offset - 5){
+			return false;
+		}
+
+		ByteBuffer index = readAt(offset + 5, length);
+		frames 		= index.getLong();
+		lastStep 	= index.getLong();
+		lastTime 	= index.getDouble();
+		int keys 	= index.getInt();
+		if(keys < 0 || length != 28 + 24L * keys){
+			return false;
+		}
+
+		keyOffsets 	= new long[keys];
+		keySteps 	= new long[keys];
+		keyTimes 	= new double[keys];
+		for(int i = 0; i < keys; i++){
+			keyOffsets[i] 	= index.getLong();
+			keySteps[i] 	= index.getLong();
+			keyTimes[i] 	= index.getDouble();
+		}
+		return true;
+	}
+
+	/**
+	 * Build the index by skipping from frame to frame, for files whose recording was cut
+	 * off or written before the index existed
+	 */
+	private void scanIndex() throws IOException{
+
+		long size = channel.size();
+		long offset = dataStart;
+		int keys = 0;
+		keyOffsets 	= new long[16];
+		keySteps 	= new long[16];
+		keyTimes 	= new double[16];
+		frames = 0;
+
+		while(offset + TrajectoryFormat.FRAME_HEADER <= size){
+			ByteBuffer header = readAt(offset, TrajectoryFormat.FRAME_HEADER);
+			byte type = header.get();
+			int length = header.getInt();
+			if(type == TrajectoryFormat.INDEX || length < 16 || offset + 5 + length > size){
+				break;
+			}
+
+			long step = header.getLong();
+			double time = header.getDouble();
+			if(type == TrajectoryFormat.KEY_FRAME){
+				if(keys == keyOffsets.length){
+					keyOffsets 	= Arrays.copyOf(keyOffsets, 2 * keys);
+					keySteps 	= Arrays.copyOf(keySteps, 2 * keys);
+					keyTimes 	= Arrays.copyOf(keyTimes, 2 * keys);
+				}
+				keyOffsets[keys] 	= offset;
+				keySteps[keys] 		= step;
+				keyTimes[keys] 		= time;
+				keys++;
+			}
+
+			frames++;
+			lastStep = step;
+			lastTime = time;
+			offset += 5 + length;
+		}
+
+		keyOffsets 	= Arrays.copyOf(keyOffsets, keys);
+		keySteps 	= Arrays.copyOf(keySteps, keys);
+		keyTimes 	= Arrays.copyOf(keyTimes, keys);
+	}
+
+	private ByteBuffer readAt(long offset, int length) throws IOException{
+		ByteBuffer bytes = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(bytes.hasRemaining()){
+			if(channel.read(bytes, offset + bytes.position()) < 0){
+				throw new IOException(file + ": unexpected end of file");
+			}
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * Move to the last frame at or before a time, the first frame if the time is earlier.
+	 * Reads from the key frame before it, so costs one seek and at most a key frame
+	 * interval of decoding.
+	 *
+	 * @param target Simulated time in years
+	 * @return False if the file has no frames
+	 * @throws IOException If a frame can't be read
+	 */
+	public boolean seek(double target) throws IOException{
+
+		if(keyOffsets.length == 0){
+			return false;
+		}
+
+		PerfEvents.IoEvent event = PerfEvents.beginIo("seek trajectory", file);
+		boolean found = seekKey(target);
+		PerfEvents.commitIo(event, 0);
+		return found;
+	}
+
+	private boolean seekKey(double target) throws IOException{
+
+		// Last key frame at or before the target
+		int low = 0, high = keyOffsets.length - 1;
+		while(low < high){
+			int middle = (low + high + 1) >>> 1;
+			if(keyTimes[middle] <= target){
+				low = middle;
+			}else{
+				high = middle - 1;
+			}
+		}
+
+		// Already between that key frame and the target, keep going from here
+		if(!started || time > target || time < keyTimes[low]){
+			channel.position(keyOffsets[low]);
+			buffer.clear();
+			buffer.flip();
+			started = false;
+			if(!next()){
+				return false;
+			}
+		}
+
+		while(peekTime() <= target){
+			next();
+		}
+		return true;
+	}
+
+	/**
+	 * @return Time of the next frame without reading it, infinite at the end of the file
+	 */
+	private double peekTime() throws IOException{
+		if(!ensure(TrajectoryFormat.FRAME_HEADER, true)){
+			return Double.POSITIVE_INFINITY;
+		}
+		int at = buffer.position();
+		if(buffer.get(at) == TrajectoryFormat.INDEX){
+			return Double.POSITIVE_INFINITY;
+		}
+		// A frame cut off by the end of a recording doesn't count
+		if(channel.size() - (channel.position() - buffer.remaining()) < 5 + buffer.getInt(at + 1)){
+			return Double.POSITIVE_INFINITY;
+		}
+		return buffer.getDouble(at + 13);
+	}
+
+	/**
+	 * Read the next frame
+	 *
+	 * @return False at the end of the file
+	 * @throws IOException If the frame can't be read
+	 */
+	public boolean next() throws IOException{
+
+		// Type and length
+		if(!ensure(5, true)){
+			return false;
+		}
+
+		if(buffer.get(buffer.position()) == TrajectoryFormat.INDEX){
+			return false;
+		}
+
+		byte type = buffer.get();
+		int length = buffer.getInt();
+		if(length < 16){
+			throw new IOException(file + ": corrupt frame");
+		}
+		if(!ensure(length, true)){
+			// The recording was cut off in the middle of a frame
+			return false;
+		}
+
+		int end = buffer.position() + length;
+		try{
+			step = buffer.getLong();
+			time = buffer.getDouble();
+			decode(type);
+		}catch(BufferUnderflowException ex){
+			throw new IOException(file + ": corrupt frame", ex);
+		}
+
+		if(buffer.position() != end){
+			throw new IOException(file + ": corrupt frame");
+		}
+		return true;
+	}
+
+	private void decode(byte type) throws IOException{
+
+		int n = values.length;
+
+		if(type == TrajectoryFormat.KEY_FRAME){
+			double[] t = before;
+			before = values;
+			values = t;
+			buffer.asDoubleBuffer().get(values);
+			buffer.position(buffer.position() + n * 8);
+			afterKey = true;
+
+		}else if(type == TrajectoryFormat.DELTA_FRAME){
+			if(!started){
+				throw new IOException(file + ": delta frame without a key frame");
+			}
+			for(int i = 0; i < n; i++){
+				double prediction = TrajectoryFormat.predict(values[i], afterKey ? Double.NaN : before[i]);
+				before[i] = values[i];
+				values[i] = Double.longBitsToDouble(Double.doubleToRawLongBits(prediction) ^ TrajectoryFormat.getVarLong(buffer));
+			}
+			afterKey = false;
+
+		}else{
+			throw new IOException(file + ": unknown frame type " + type);
+		}
+
+		started = true;
+	}
+
+	/**
+	 * Make sure the buffer holds at least the given number of bytes
+	 *
+	 * @return False if the file ends first and that's allowed
+	 */
+	private boolean ensure(int bytes, boolean endAllowed) throws IOException{
+
+		if(buffer.remaining() >= bytes){
+			return true;
+		}
+
+		if(buffer.capacity() < bytes){
+			ByteBuffer larger = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+			larger.put(buffer);
+			buffer = larger;
+		}else{
+			buffer.compact();
+		}
+
+		while(buffer.position() < bytes){
+			if(channel.read(buffer) < 0){
+				buffer.flip();
+				if(endAllowed){
+					return false;
+				}
+				throw new IOException(file + ": unexpected end of file");
+			}
+		}
+		buffer.flip();
+		return true;
+	}
+
+	private void ensure(int bytes) throws IOException{
+		ensure(bytes, false);
+	}
+
+	/**
+	 * @return Number of bodies in every frame
+	 */
+	public int getCount(){
+		return count;
+	}
+
+	/**
+	 * @return Number of steps between recorded frames
+	 */
+	public int getInterval(){
+		return interval;
+	}
+
+	/**
+	 * @return The recorded bodies with their names, colours and sizes. Their positions and
+	 * 			velocities are those of the current frame when fill(planets) is called.
+	 */
+	public ArrayList<Planet> getPlanets(){
+		return planets;
+	}
+
+	/**
+	 * @return Step of the current frame, -1 before the first one is read
+	 */
+	public long getStep(){
+		return step;
+	}
+
+	/**
+	 * @return Simulated time in years of the current frame
+	 */
+	public double getTime(){
+		return time;
+	}
+
+	/**
+	 * @return Number of frames in the file
+	 */
+	public long getFrameCount(){
+		return frames;
+	}
+
+	/**
+	 * @return Simulated time in years of the first frame
+	 */
+	public double getStartTime(){
+		return keyTimes.length > 0 ? keyTimes[0] : 0;
+	}
+
+	/**
+	 * @return Simulated time in years of the last frame
+	 */
+	public double getEndTime(){
+		return lastTime;
+	}
+
+	/**
+	 * @return Step of the last frame
+	 */
+	public long getEndStep(){
+		return lastStep;
+	}
+
+	/**
+	 * Copy the current frame into a snapshot
+	 *
+	 * @param snapshot Snapshot to fill
+	 * @param lastX X-coordinates shown before this frame, for the traces
+	 * @param lastY Y-coordinates shown before this frame
+	 */
+	void fill(Snapshot snapshot, double[] lastX, double[] lastY){
+		snapshot.fill(values, count, step, lastX, lastY);
+	}
+
+	/**
+	 * Move the planets from getPlanets() to the current frame
+	 */
+	public void fill(ArrayList<Planet> planets){
+		for(int i = 0; i < count; i++){
+			Planet planet = planets.get(i);
+			planet.setPosX(values[i]);
+			planet.setPosY(values[count + i]);
+			planet.setVelX(values[2 * count + i]);
+			planet.setVelY(values[3 * count + i]);
+		}
+	}
+
+	@Override
+	public void close() throws IOException{
+		channel.close();
+	}
+
+}
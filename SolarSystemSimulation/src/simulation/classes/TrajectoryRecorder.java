@@ -0,0 +1,367 @@
+package simulation.classes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Streams the state of the bodies to a trajectory file (see TrajectoryFormat) while a
+ * simulation runs. The simulation thread only copies the state into one of a few
+ * preallocated frames and hands it over; encoding and writing happen on a background
+ * thread, and encoded frames are collected into large batches before being written.
+ *
+ * Recording never blocks the simulation: if the writer falls so far behind that no frame
+ * is free, the state is dropped and counted instead. The frames that are written carry
+ * their step and time, so a dropped frame only leaves a gap. Runs without a display can
+ * ask to wait for the writer instead, so that the recording is complete.
+ *
+ * Closing the recorder appends the index of the key frames that playback seeks with.
+ */
+public class TrajectoryRecorder {
+
+	private static final int FRAMES = 8;				// frames that can wait for the writer
+	private static final int BATCH = 1 << 20;			// bytes collected before writing
+
+	private final int count;
+	private final int interval;
+
+	private final File file;
+	private final FileChannel channel;
+	private final ArrayBlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(FRAMES);
+	private final ArrayBlockingQueue<Frame> written = new ArrayBlockingQueue<Frame>(FRAMES + 1);
+	private final Thread writer;
+
+	private volatile long recorded = 0;
+	private volatile long dropped = 0;
+	private volatile IOException error;
+	private volatile boolean closed = false;
+	private boolean waitForWriter = false;
+
+	// Owned by the writer thread: the batch being collected, the last two frames written
+	// (the predictions are based on them) and whether the last one was a key frame
+	private ByteBuffer batch;
+	private double[] last;
+	private double[] before;
+	private boolean afterKey = false;
+	private long frames = 0;
+	private long lastStep;
+	private double lastTime;
+	private volatile long bytes = 0;
+
+	// Offset, step and time of every key frame written, for the index
+	private long[] keyOffsets = new long[16];
+	private long[] keySteps = new long[16];
+	private double[] keyTimes = new double[16];
+	private int keys = 0;
+
+	private static final Frame END = new Frame(0);		// tells the writer to finish
+
+	/**
+	 * State of all bodies at one step
+	 */
+	private static class Frame {
+
+		long step;
+		double time;
+		final double[] values;		// x, y, vx and vy columns one after the other
+
+		Frame(int count){
+			values = new double[count * TrajectoryFormat.COLUMNS];
+		}
+
+	}
+
+	/**
+	 * Create the file, write its header and start the writer thread
+	 *
+	 * @param file File to write, replaced if it exists
+	 * @param planets Bodies being recorded, giving their names, colours and sizes
+	 * @param interval Number of steps between recorded frames, as noted in the file
+	 * @throws IOException If the file can't be created
+	 */
+	public TrajectoryRecorder(File file, List<Planet> planets, int interval) throws IOException{
+
+		if(interval < 1){
+			throw new IllegalArgumentException("Interval must be at least 1: " + interval);
+		}
+
+		this.file 		= file;
+		this.count 		= planets.size();
+		this.interval 	= interval;
+
+		for(int i = 0; i < FRAMES; i++){
+			free.add(new Frame(count));
+		}
+		last 	= new double[count * TrajectoryFormat.COLUMNS];
+		before 	= new double[count * TrajectoryFormat.COLUMNS];
+
+		int frameBytes = TrajectoryFormat.FRAME_HEADER + count * TrajectoryFormat.COLUMNS * 10;
+		batch = ByteBuffer.allocateDirect(Math.max(BATCH, 2 * frameBytes)).order(ByteOrder.LITTLE_ENDIAN);
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+		try{
+			writeHeader(planets);
+		}catch(IOException ex){
+			channel.close();
+			throw ex;
+		}
+
+		writer = new Thread(this::write, "Trajectory writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return Number of steps between recorded frames
+	 */
+	public int getInterval(){
+		return interval;
+	}
+
+	/**
+	 * @param waitForWriter True to make record() wait for a free frame instead of dropping
+	 * 			the state, for runs where completeness matters more than pace
+	 */
+	public void setWaitForWriter(boolean waitForWriter){
+		this.waitForWriter = waitForWriter;
+	}
+
+	/**
+	 * Hand the current state of the bodies to the writer. Called from the simulation
+	 * thread, returns without waiting unless setWaitForWriter(true) was called.
+	 *
+	 * @param bodies Bodies in the same order as when recording started
+	 * @param step Number of steps simulated so far
+	 * @param time Simulated time in years
+	 * @return False if the state was dropped, because the writer is behind, has failed or
+	 * 			the number of bodies changed
+	 */
+	public boolean record(BodyStore bodies, long step, double time){
+
+		Frame frame = null;
+		if(!closed && error == null && bodies.count == count){
+			frame = free.poll();
+			if(frame == null && waitForWriter){
+				try{
+					frame = free.take();
+				}catch(InterruptedException ex){
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		if(frame == null){
+			dropped++;
+			return false;
+		}
+
+		frame.step = step;
+		frame.time = time;
+		System.arraycopy(bodies.x, 0, frame.values, 0, count);
+		System.arraycopy(bodies.y, 0, frame.values, count, count);
+		System.arraycopy(bodies.vx, 0, frame.values, 2 * count, count);
+		System.arraycopy(bodies.vy, 0, frame.values, 3 * count, count);
+
+		written.add(frame);
+		recorded++;
+		return true;
+	}
+
+	/**
+	 * Write the frames still waiting and close the file. Must not be called while record()
+	 * may still be called.
+	 *
+	 * @throws IOException If writing any frame failed
+	 */
+	public void close() throws IOException{
+
+		if(!closed){
+			closed = true;
+			written.add(END);
+
+			try{
+				writer.join();
+			}catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+			}finally{
+				channel.close();
+			}
+		}
+
+		if(error != null){
+			throw error;
+		}
+	}
+
+	/**
+	 * @return Number of frames handed to the writer
+	 */
+	public long getRecordedFrames(){
+		return recorded;
+	}
+
+	/**
+	 * @return Number of frames dropped because the writer was behind
+	 */
+	public long getDroppedFrames(){
+		return dropped;
+	}
+
+	/**
+	 * @return Number of bytes written so far, updated by the writer as batches go out
+	 */
+	public long getBytesWritten(){
+		return bytes;
+	}
+
+	public String toString(){
+		return "Recorded frames: " + recorded + "  dropped frames: " + dropped + "  bytes: " + bytes;
+	}
+
+	private void writeHeader(List<Planet> planets) throws IOException{
+		batch.putInt(TrajectoryFormat.MAGIC).putInt(TrajectoryFormat.VERSION).putInt(count).putInt(interval);
+
+		for(Planet planet : planets){
+			byte[] name = planet.getName().getBytes(StandardCharsets.UTF_8);
+			if(batch.remaining() < name.length + 16){
+				flush();
+			}
+			Color colour = planet.getColor();
+			batch.putInt(name.length);
+			batch.put(name);
+			batch.putInt((int) Math.round(colour.getRed() * 255) << 24 | (int) Math.round(colour.getGreen() * 255) << 16
+					| (int) Math.round(colour.getBlue() * 255) << 8 | (int) Math.round(colour.getOpacity() * 255));
+			batch.putDouble(planet.getSize());
+		}
+		flush();
+	}
+
+	private void write(){
+		try{
+			while(true){
+				Frame frame = written.take();
+				if(frame == END){
+					break;
+				}
+
+				encode(frame);
+				free.add(frame);
+
+				if(batch.position() >= BATCH){
+					flush();
+				}
+			}
+			writeIndex();
+			flush();
+		}catch(IOException ex){
+			error = ex;
+		}catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void encode(Frame frame) throws IOException{
+
+		int values = frame.values.length;
+		if(batch.remaining() < TrajectoryFormat.FRAME_HEADER + values * 10){
+			flush();
+		}
+
+		byte type = frames % TrajectoryFormat.KEY_INTERVAL == 0 ? TrajectoryFormat.KEY_FRAME : TrajectoryFormat.DELTA_FRAME;
+		if(type == TrajectoryFormat.KEY_FRAME){
+			addKey(bytes + batch.position(), frame.step, frame.time);
+		}
+
+		batch.put(type);
+		int lengthAt = batch.position();
+		batch.putInt(0);
+		batch.putLong(frame.step);
+		batch.putDouble(frame.time);
+
+		if(type == TrajectoryFormat.KEY_FRAME){
+			for(int i = 0; i < values; i++){
+				batch.putDouble(frame.values[i]);
+			}
+		}else{
+			for(int i = 0; i < values; i++){
+				double prediction = TrajectoryFormat.predict(last[i], afterKey ? Double.NaN : before[i]);
+				TrajectoryFormat.putVarLong(batch,
+						Double.doubleToRawLongBits(frame.values[i]) ^ Double.doubleToRawLongBits(prediction));
+			}
+		}
+
+		batch.putInt(lengthAt, batch.position() - lengthAt - 4);
+
+		double[] t = before;
+		before = last;
+		last = t;
+		System.arraycopy(frame.values, 0, last, 0, values);
+		afterKey = type == TrajectoryFormat.KEY_FRAME;
+		frames++;
+		lastStep = frame.step;
+		lastTime = frame.time;
+	}
+
+	private void addKey(long offset, long step, double time){
+		if(keys == keyOffsets.length){
+			keyOffsets 	= Arrays.copyOf(keyOffsets, 2 * keys);
+			keySteps 	= Arrays.copyOf(keySteps, 2 * keys);
+			keyTimes 	= Arrays.copyOf(keyTimes, 2 * keys);
+		}
+		keyOffsets[keys] 	= offset;
+		keySteps[keys] 		= step;
+		keyTimes[keys] 		= time;
+		keys++;
+	}
+
+	/**
+	 * Append the index of the key frames and the trailer pointing to it
+	 */
+	private void writeIndex() throws IOException{
+		flush();
+		long offset = bytes;
+
+		ByteBuffer index = ByteBuffer.allocate(1 + 4 + 8 + 8 + 8 + 4 + keys * 24 + TrajectoryFormat.TRAILER)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		index.put(TrajectoryFormat.INDEX);
+		index.putInt(8 + 8 + 8 + 4 + keys * 24);
+		index.putLong(frames).putLong(lastStep).putDouble(lastTime);
+		index.putInt(keys);
+		for(int i = 0; i < keys; i++){
+			index.putLong(keyOffsets[i]).putLong(keySteps[i]).putDouble(keyTimes[i]);
+		}
+		index.putLong(offset).putInt(TrajectoryFormat.INDEX_MAGIC);
+
+		index.flip();
+		bytes += index.remaining();
+		writeFully(index);
+	}
+
+	private void flush() throws IOException{
+		batch.flip();
+		bytes += batch.remaining();
+		writeFully(batch);
+		batch.clear();
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException{
+		PerfEvents.IoEvent event = PerfEvents.beginIo("record trajectory", file);
+		int length = buffer.remaining();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		PerfEvents.commitIo(event, length);
+	}
+
+}
@@ -0,0 +1,318 @@
+package simulation.classes;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels of PairKernel written with the Vector API, working on as many partners at
+ * once as the CPU's widest vectors hold (4 doubles with AVX2, 8 with AVX-512). The
+ * arithmetic per pair is the same, but every lane keeps its own partial sum and the lanes
+ * are added up at the end, so the forces differ from the scalar kernels' by rounding
+ * only. ForceComparison checks that they agree. The mixed precision gather of FloatKernel
+ * is here as well, with twice the lanes.
+ *
+ * The Vector API is an incubator module, so this class must only be loaded when it was
+ * added with --add-modules jdk.incubator.vector; SimulationBF checks for it and keeps the
+ * scalar kernel otherwise. In double precision, systems with test particles are left to
+ * the scalar kernels.
+ *
+ * Every kernel hands each body to a method of its own. A kernel call takes long enough
+ * for the JIT to compile it before its outer loop ever ended, and the code compiled then
+ * is thrown away when the loop does end; the rest of the call would run in code that
+ * keeps every vector in an object. The per-body methods end many times before they are
+ * compiled, so their compiled code stays.
+ */
+final class VectorKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	private static final int FLOAT_BLOCK = 512;		// partners summed in float before moving the sums to double
+	private static final double TO_AU = 1 / Planet.SCALE;
+
+	private VectorKernel(){}
+
+	/**
+	 * @return Number of partners handled at once
+	 */
+	static int lanes(){
+		return SPECIES.length();
+	}
+
+	/**
+	 * Replace the forces of all bodies, visiting each pair once. The partners' reactions are
+	 * loaded, updated and stored a vector at a time.
+	 *
+	 * @param bodies Bodies whose forces are replaced, all of them sources
+	 * @param softening Plummer softening length in AU
+	 */
+	static void symmetric(BodyStore bodies, double softening){
+
+		bodies.resetForces();
+		if(bodies.withPotential){
+			bodies.resetPotentials();
+		}
+
+		double eps2 = softening * softening;
+		for(int i = 0; i < bodies.count; i++){
+			symmetric(bodies, i, eps2);
+		}
+	}
+
+	/**
+	 * Add the pairs of body i with the bodies after it to both bodies' forces
+	 */
+	private static void symmetric(BodyStore bodies, int i, double eps2){
+
+		int n = bodies.count;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		double[] fx = bodies.fx, fy = bodies.fy;
+		double[] potential = bodies.potential;
+		boolean withPotential = bodies.withPotential;
+
+		double xi = x[i], yi = y[i];
+		double gmi = Planet.SCALED_G * mass[i];
+		double fxi = fx[i], fyi = fy[i];
+		double pi = withPotential ? potential[i] : 0.0;
+
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+		DoubleVector sumX = DoubleVector.zero(SPECIES);
+		DoubleVector sumY = DoubleVector.zero(SPECIES);
+		DoubleVector sumPotential = DoubleVector.zero(SPECIES);
+
+		int j = i + 1;
+		for(int bound = j + SPECIES.loopBound(n - j); j < bound; j += SPECIES.length()){
+			DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi).mul(TO_AU);
+			DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi).mul(TO_AU);
+			DoubleVector r2 = dx.mul(dx).add(dy.mul(dy)).add(eps2);
+			DoubleVector inv = one.div(r2.sqrt());
+			DoubleVector gm = DoubleVector.fromArray(SPECIES, mass, j).mul(gmi);
+			DoubleVector f = gm.mul(inv.mul(inv).mul(inv));
+
+			DoubleVector sx = f.mul(dx);
+			DoubleVector sy = f.mul(dy);
+			sumX = sumX.add(sx);
+			sumY = sumY.add(sy);
+			DoubleVector.fromArray(SPECIES, fx, j).sub(sx).intoArray(fx, j);
+			DoubleVector.fromArray(SPECIES, fy, j).sub(sy).intoArray(fy, j);
+
+			if(withPotential){
+				DoubleVector p = gm.mul(inv);
+				sumPotential = sumPotential.sub(p);
+				DoubleVector.fromArray(SPECIES, potential, j).sub(p).intoArray(potential, j);
+			}
+		}
+
+		fxi += sumX.reduceLanes(VectorOperators.ADD);
+		fyi += sumY.reduceLanes(VectorOperators.ADD);
+		if(withPotential){
+			pi += sumPotential.reduceLanes(VectorOperators.ADD);
+		}
+
+		// Partners left over after the last full vector
+		for(; j < n; j++){
+			double dx = (x[j] - xi) * TO_AU;
+			double dy = (y[j] - yi) * TO_AU;
+			double r2 = dx*dx + dy*dy + eps2;
+			double inv = 1 / Math.sqrt(r2);
+			double f = gmi * mass[j] * (inv*inv*inv);
+
+			double sx = f * dx;
+			double sy = f * dy;
+			fxi += sx;
+			fyi += sy;
+			fx[j] -= sx;
+			fy[j] -= sy;
+
+			if(withPotential){
+				double p = gmi * mass[j] * inv;
+				pi -= p;
+				potential[j] -= p;
+			}
+		}
+
+		fx[i] = fxi;
+		fy[i] = fyi;
+		if(withPotential){
+			potential[i] = pi;
+		}
+	}
+
+	/**
+	 * Sum the forces acting on a range of bodies from all other bodies. Only writes to
+	 * the range's own forces, so disjoint ranges can run in parallel.
+	 *
+	 * @param bodies Bodies whose forces are replaced, all of them sources
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 * @param softening Plummer softening length in AU
+	 */
+	static void gather(BodyStore bodies, int from, int to, double softening){
+
+		double eps2 = softening * softening;
+		for(int i = from; i < to; i++){
+			gather(bodies, i, eps2);
+		}
+	}
+
+	/**
+	 * Replace the force of body i with the one from all other bodies
+	 */
+	private static void gather(BodyStore bodies, int i, double eps2){
+
+		int n = bodies.count;
+		double[] x = bodies.x, y = bodies.y, mass = bodies.mass;
+		boolean withPotential = bodies.withPotential;
+
+		double xi = x[i], yi = y[i];
+		double gmi = Planet.SCALED_G * mass[i];
+		double fxi = 0.0, fyi = 0.0, pi = 0.0;
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+
+		// All partners but the body itself: those before it, then those after it
+		for(int part = 0; part < 2; part++){
+			int start = part == 0 ? 0 : i + 1;
+			int end = part == 0 ? i : n;
+
+			DoubleVector fx = DoubleVector.zero(SPECIES);
+			DoubleVector fy = DoubleVector.zero(SPECIES);
+			DoubleVector potential = DoubleVector.zero(SPECIES);
+
+			int j = start;
+			for(int bound = start + SPECIES.loopBound(end - start); j < bound; j += SPECIES.length()){
+				DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi).mul(TO_AU);
+				DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi).mul(TO_AU);
+				DoubleVector r2 = dx.mul(dx).add(dy.mul(dy)).add(eps2);
+				DoubleVector inv = one.div(r2.sqrt());
+				DoubleVector gm = DoubleVector.fromArray(SPECIES, mass, j).mul(gmi);
+				DoubleVector f = gm.mul(inv.mul(inv).mul(inv));
+
+				fx = fx.add(f.mul(dx));
+				fy = fy.add(f.mul(dy));
+				if(withPotential){
+					potential = potential.sub(gm.mul(inv));
+				}
+			}
+
+			fxi += fx.reduceLanes(VectorOperators.ADD);
+			fyi += fy.reduceLanes(VectorOperators.ADD);
+			if(withPotential){
+				pi += potential.reduceLanes(VectorOperators.ADD);
+			}
+
+			// Partners left over after the last full vector
+			for(; j < end; j++){
+				double dx = (x[j] - xi) * TO_AU;
+				double dy = (y[j] - yi) * TO_AU;
+				double r2 = dx*dx + dy*dy + eps2;
+				double inv = 1 / Math.sqrt(r2);
+				double f = gmi * mass[j] * (inv*inv*inv);
+
+				fxi += f * dx;
+				fyi += f * dy;
+				if(withPotential){
+					pi -= gmi * mass[j] * inv;
+				}
+			}
+		}
+
+		bodies.fx[i] = fxi;
+		bodies.fy[i] = fyi;
+		if(withPotential){
+			bodies.potential[i] = pi;
+		}
+	}
+
+	/**
+	 * FloatKernel.gather on as many packed sources at once as a vector of floats holds.
+	 * The lanes' float sums are moved into double every FLOAT_BLOCK sources, so no float
+	 * sum covers more than a few dozen pairs.
+	 *
+	 * @param floats Sources packed from the bodies
+	 * @param bodies Bodies whose forces are replaced
+	 * @param from Index of the first body to update
+	 * @param to Index after the last body to update
+	 * @param softening Plummer softening length in AU
+	 */
+	static void gatherMixed(FloatKernel floats, BodyStore bodies, int from, int to, double softening){
+
+		float eps2 = (float) (softening * softening);
+		for(int i = from; i < to; i++){
+			gatherMixed(floats, bodies, i, eps2);
+		}
+	}
+
+	/**
+	 * Replace the force of body i with the one from all packed sources but itself
+	 */
+	private static void gatherMixed(FloatKernel floats, BodyStore bodies, int i, float eps2){
+
+		int count = floats.count;
+		float[] x = floats.x, y = floats.y, mass = floats.mass;
+		boolean withPotential = bodies.withPotential;
+
+		float xi = floats.offsetX(bodies, i), yi = floats.offsetY(bodies, i);
+		int self = floats.slot(i);
+		double fxi = 0.0, fyi = 0.0, pi = 0.0;
+		FloatVector one = FloatVector.broadcast(FLOATS, 1f);
+
+		// All sources but the body itself: those before it, then those after it
+		int skip = self >= 0 ? self : count;
+		for(int part = 0; part < 2; part++){
+			int start = part == 0 ? 0 : skip + 1;
+			int end = part == 0 ? skip : count;
+
+			int b = start;
+			for(int bound = start + FLOATS.loopBound(end - start); b < bound; ){
+				FloatVector fx = FloatVector.zero(FLOATS);
+				FloatVector fy = FloatVector.zero(FLOATS);
+				FloatVector potential = FloatVector.zero(FLOATS);
+
+				for(int blockEnd = Math.min(bound, b + FLOAT_BLOCK); b < blockEnd; b += FLOATS.length()){
+					FloatVector dx = FloatVector.fromArray(FLOATS, x, b).sub(xi);
+					FloatVector dy = FloatVector.fromArray(FLOATS, y, b).sub(yi);
+					FloatVector r2 = dx.mul(dx).add(dy.mul(dy)).add(eps2);
+					FloatVector inv = one.div(r2.sqrt());
+					FloatVector m = FloatVector.fromArray(FLOATS, mass, b);
+					FloatVector f = m.mul(inv.mul(inv).mul(inv));
+
+					fx = fx.add(f.mul(dx));
+					fy = fy.add(f.mul(dy));
+					if(withPotential){
+						potential = potential.add(m.mul(inv));
+					}
+				}
+
+				fxi += fx.reduceLanes(VectorOperators.ADD);
+				fyi += fy.reduceLanes(VectorOperators.ADD);
+				if(withPotential){
+					pi += potential.reduceLanes(VectorOperators.ADD);
+				}
+			}
+
+			// Sources left over after the last full vector
+			for(; b < end; b++){
+				float dx = x[b] - xi;
+				float dy = y[b] - yi;
+				float r2 = dx*dx + dy*dy + eps2;
+				float inv = 1 / (float) Math.sqrt(r2);
+				float f = mass[b] * (inv*inv*inv);
+
+				fxi += f * dx;
+				fyi += f * dy;
+				if(withPotential){
+					pi += mass[b] * inv;
+				}
+			}
+		}
+
+		double gmi = Planet.SCALED_G * BodyStore.inertia(bodies.mass[i]);
+		bodies.fx[i] = gmi * fxi;
+		bodies.fy[i] = gmi * fyi;
+		if(withPotential){
+			bodies.potential[i] = self >= 0 ? -gmi * pi : 0.0;
+		}
+	}
+
+}
@@ -0,0 +1,22 @@
+package simulation.classes;
+
+/**
+ * Fourth order symplectic integrator of Yoshida (1990) and Forest and Ruth (1990): three
+ * leapfrog steps of w1, w0 and w1 times the timestep, the middle one going backwards.
+ * Neighbouring half kicks are merged, so a step costs three force evaluations.
+ */
+public class YoshidaIntegrator extends SymplecticIntegrator {
+
+	private static final double CBRT2 = Math.cbrt(2);
+	private static final double W1 = 1 / (2 - CBRT2);
+	private static final double W0 = -CBRT2 / (2 - CBRT2);
+
+	public YoshidaIntegrator(){
+		super(new double[]{ W1 / 2, (W0 + W1) / 2, (W0 + W1) / 2, W1 / 2 }, new double[]{ W1, W0, W1 });
+	}
+
+	public String toString(){
+		return "Yoshida 4th order, force evaluations: " + getForceEvaluations();
+	}
+
+}